@@ -23,26 +23,19 @@ import com.google.common.base.Preconditions;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Represents an event from a log.
+ * Represents an event from a log. See {@link EventReader} for a much faster way to read lots of these.
  */
 public class Event implements Comparable<Event> {
-    private static final DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-    private static final Pattern format = Pattern.compile("\\[(.*)] /(.+)[?&]user=(.*) (.*)\\.(.*)\\.(.*)\\.(.*)");
-
     private final int uid;
     private final long time;
     private final int ip;
     private final String op;
 
-    private Event(int uid, long time, int ip, String op) {
+    Event(int uid, long time, int ip, String op) {
         Preconditions.checkNotNull(op);
         this.uid = uid;
         this.time = time;
@@ -50,6 +43,12 @@ public class Event implements Comparable<Event> {
         this.op = op;
     }
 
+    /**
+     * Reads a single event.
+     *
+     * @return The event, or null at the end of the input or if the next line isn't an event. In
+     * the latter case, the input is left at the start of that line.
+     */
     public static Event read(BufferedReader in) throws IOException {
         in.mark(1000);
         String line = in.readLine();
@@ -57,26 +56,12 @@ public class Event implements Comparable<Event> {
             return null;
         }
 
-        try {
-            Matcher m = format.matcher(line);
-            if (m.matches()) {
-                int i = 1;
-                Date d = df.parse(m.group(i++));
-                String op = m.group(i++);
-                int uid = Integer.parseInt(m.group(i++), 16);
-                int ip = Integer.parseInt(m.group(i++)) << 24;
-                ip += Integer.parseInt(m.group(i++)) << 16;
-                ip += Integer.parseInt(m.group(i++)) << 8;
-                ip += Integer.parseInt(m.group(i));
-                return new Event(uid, d.getTime(), ip, op);
-            } else {
-                in.reset();
-                return null;
-            }
-        } catch (ParseException | NumberFormatException e) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        Event r = EventReader.parse(ByteBuffer.wrap(bytes), 0, bytes.length, null);
+        if (r == null) {
             in.reset();
-            return null;
         }
+        return r;
     }
 
     public int getIp() {
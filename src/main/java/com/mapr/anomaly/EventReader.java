@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.anomaly;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Reads events from a log file as fast as possible. The file is memory-mapped and each line is
+ * parsed directly from the mapped bytes without any regular expressions or date formats. The
+ * time stamp and IP address go straight to primitives and the operation names are shared between
+ * events, so the only thing allocated per line is the event itself.
+ * <p>
+ * A large file can be split into pieces at line boundaries with {@link #split(File, int)} and each
+ * piece read in its own thread. Lines that can't be parsed are skipped and counted.
+ * <p>
+ * Lines look like this
+ * <pre>
+ * [2013-10-27T20:40:06.122-04:00] /static/image-4&amp;user=0006c913 220.74.147.103
+ * </pre>
+ */
+public class EventReader implements Closeable {
+    // how much of a file to map at once
+    private static final int DEFAULT_WINDOW = 1 << 28;
+
+    private final FileChannel channel;
+    private final long end;
+    private final int windowSize;
+
+    // the part of the file that is currently mapped
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position = 0;
+
+    private final OpCache ops = new OpCache();
+    private long errors = 0;
+
+    public EventReader(File file) throws IOException {
+        this(file, 0, file.length(), DEFAULT_WINDOW);
+    }
+
+    /**
+     * Reads the lines that start in part of a file.
+     *
+     * @param file       The file to read.
+     * @param start      Where to start, must be the beginning of a line.
+     * @param end        Where to stop, must be the beginning of a line or the end of the file.
+     * @param windowSize How much of the file to map at a time.
+     */
+    EventReader(File file, long start, long end, int windowSize) throws IOException {
+        Preconditions.checkArgument(start >= 0 && start <= end, "Invalid range %s to %s", start, end);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.end = end;
+        this.windowSize = windowSize;
+        map(start);
+    }
+
+    /**
+     * Splits a file into pieces that start and end on line boundaries.
+     *
+     * @param file  The file to split.
+     * @param parts About how many pieces to split it into. Very small files may have fewer.
+     * @return A reader for each piece.
+     */
+    public static List<EventReader> split(File file, int parts) throws IOException {
+        Preconditions.checkArgument(parts > 0, "Must have at least one part");
+        long size = file.length();
+        List<EventReader> r = Lists.newArrayList();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long start = 0;
+            for (int i = 1; i <= parts && start < size; i++) {
+                long end = i == parts ? size : nextLine(channel, Math.max(start, size * i / parts), size);
+                if (end > start) {
+                    r.add(new EventReader(file, start, end, DEFAULT_WINDOW));
+                    start = end;
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Reads all of the events in a file using several threads.
+     *
+     * @param file    The file to read.
+     * @param threads How many threads to use.
+     * @param sink    Gets every event. This is called from many threads at once.
+     * @return The number of lines that couldn't be parsed.
+     */
+    public static long readAll(File file, int threads, Consumer<Event> sink) throws IOException {
+        List<EventReader> parts = split(file, threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).build());
+        try {
+            List<Future<Long>> tasks = Lists.newArrayList();
+            for (EventReader part : parts) {
+                tasks.add(pool.submit(() -> {
+                    try (EventReader in = part) {
+                        for (Event e = in.read(); e != null; e = in.read()) {
+                            sink.accept(e);
+                        }
+                        return in.getErrors();
+                    }
+                }));
+            }
+            long errors = 0;
+            for (Future<Long> task : tasks) {
+                errors += task.get();
+            }
+            return errors;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading events", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read events", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            for (EventReader part : parts) {
+                part.close();
+            }
+        }
+    }
+
+    /**
+     * @return The next event or null if there are no more.
+     */
+    public Event read() throws IOException {
+        while (true) {
+            if (windowStart + position >= end) {
+                return null;
+            }
+            int lineEnd = findNewline();
+            if (lineEnd < 0) {
+                // the line runs past the mapped window
+                map(windowStart + position);
+                lineEnd = findNewline();
+                Preconditions.checkState(lineEnd >= 0, "Line at %s is longer than %s bytes", windowStart + position, windowSize);
+            }
+            int start = position;
+            position = lineEnd + 1;
+            int last = lineEnd;
+            if (last > start && window.get(last - 1) == '\r') {
+                last--;
+            }
+            Event r = parse(window, start, last, ops);
+            if (r != null) {
+                return r;
+            }
+            if (last > start) {
+                errors++;
+            }
+        }
+    }
+
+    /**
+     * @return How many lines couldn't be parsed so far.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Parses a single line.
+     *
+     * @param buf   Where the line is.
+     * @param start The first byte of the line.
+     * @param end   One past the last byte of the line, not including any line terminator.
+     * @param ops   Where to find operation names that have been seen before, or null.
+     * @return The event or null if the line isn't in the right format.
+     */
+    static Event parse(ByteBuffer buf, int start, int end, OpCache ops) {
+        // [time] /op?user=uid ip
+        if (end - start < 4 || buf.get(start) != '[') {
+            return null;
+        }
+        int close = indexOf(buf, start + 1, end, (byte) ']');
+        if (close < 0 || close + 2 >= end || buf.get(close + 1) != ' ' || buf.get(close + 2) != '/') {
+            return null;
+        }
+        long time = parseTime(buf, start + 1, close);
+        if (time == Long.MIN_VALUE) {
+            return null;
+        }
+
+        int space = lastIndexOf(buf, close + 3, end, (byte) ' ');
+        if (space < 0) {
+            return null;
+        }
+        long ip = parseIp(buf, space + 1, end);
+        if (ip < 0) {
+            return null;
+        }
+
+        // the user is the last ?user= or &user= before the address
+        int user = -1;
+        for (int i = space - 6; i > close + 3; i--) {
+            byte c = buf.get(i);
+            if ((c == '?' || c == '&') && buf.get(i + 1) == 'u' && buf.get(i + 2) == 's'
+                    && buf.get(i + 3) == 'e' && buf.get(i + 4) == 'r' && buf.get(i + 5) == '=') {
+                user = i;
+                break;
+            }
+        }
+        if (user < 0) {
+            return null;
+        }
+        long uid = parseHex(buf, user + 6, space);
+        if (uid < 0) {
+            return null;
+        }
+        String op = ops != null ? ops.get(buf, close + 3, user) : ascii(buf, close + 3, user);
+        return new Event((int) uid, time, (int) ip, op);
+    }
+
+    /**
+     * Parses an ISO 8601 time like 2013-10-27T20:40:06.122-04:00 into ms since the epoch.
+     *
+     * @return The time or Long.MIN_VALUE if the text isn't a valid time.
+     */
+    static long parseTime(ByteBuffer buf, int start, int end) {
+        // yyyy-MM-ddTHH:mm:ss.SSS followed by Z or +HH:MM
+        int n = end - start;
+        if (n != 24 && n != 29) {
+            return Long.MIN_VALUE;
+        }
+        if (buf.get(start + 4) != '-' || buf.get(start + 7) != '-' || buf.get(start + 10) != 'T'
+                || buf.get(start + 13) != ':' || buf.get(start + 16) != ':' || buf.get(start + 19) != '.') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(buf, start, 4);
+        int month = digits(buf, start + 5, 2);
+        int day = digits(buf, start + 8, 2);
+        int hour = digits(buf, start + 11, 2);
+        int minute = digits(buf, start + 14, 2);
+        int second = digits(buf, start + 17, 2);
+        int ms = digits(buf, start + 20, 3);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60 || ms < 0) {
+            return Long.MIN_VALUE;
+        }
+
+        int offset;
+        byte zone = buf.get(start + 23);
+        if (n == 24) {
+            if (zone != 'Z') {
+                return Long.MIN_VALUE;
+            }
+            offset = 0;
+        } else {
+            int offsetHours = digits(buf, start + 24, 2);
+            int offsetMinutes = digits(buf, start + 27, 2);
+            if ((zone != '+' && zone != '-') || buf.get(start + 26) != ':' || offsetHours < 0 || offsetMinutes < 0) {
+                return Long.MIN_VALUE;
+            }
+            offset = (offsetHours * 60 + offsetMinutes) * (zone == '-' ? -1 : 1);
+        }
+
+        long seconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + (minute - offset) * 60 + second;
+        return seconds * 1000 + ms;
+    }
+
+    /**
+     * Days since 1970-01-01 in the proleptic Gregorian calendar.
+     * See http://howardhinnant.github.io/date_algorithms.html
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        int era = Math.floorDiv(year, 400);
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int digits(ByteBuffer buf, int start, int n) {
+        int r = 0;
+        for (int i = start; i < start + n; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            r = r * 10 + d;
+        }
+        return r;
+    }
+
+    /**
+     * @return The address as an unsigned value, or -1 if it is invalid.
+     */
+    private static long parseIp(ByteBuffer buf, int start, int end) {
+        long r = 0;
+        int octets = 0;
+        int i = start;
+        while (i < end) {
+            int octet = 0;
+            int digits = 0;
+            while (i < end && digits < 4) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                octet = octet * 10 + d;
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || octet > 255 || octets == 4) {
+                return -1;
+            }
+            r = (r << 8) | octet;
+            octets++;
+            if (i < end) {
+                if (buf.get(i) != '.' || i + 1 == end) {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return octets == 4 ? r : -1;
+    }
+
+    /**
+     * @return The value of up to 8 hex digits as an int, or -1 if the digits are bad or too big for an int.
+     */
+    private static long parseHex(ByteBuffer buf, int start, int end) {
+        if (end <= start) {
+            return -1;
+        }
+        long r = 0;
+        for (int i = start; i < end; i++) {
+            int c = buf.get(i);
+            int d;
+            if (c >= '0' && c <= '9') {
+                d = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                d = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                d = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            r = r * 16 + d;
+            if (r > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return r;
+    }
+
+    private static int indexOf(ByteBuffer buf, int start, int end, byte c) {
+        for (int i = start; i < end; i++) {
+            if (buf.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buf, int start, int end, byte c) {
+        for (int i = end - 1; i >= start; i--) {
+            if (buf.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String ascii(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buf.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The position of the next newline in the window, or the end of this reader's part of
+     * the file if that comes first, or -1 if neither is in the window.
+     */
+    private int findNewline() {
+        int limit = (int) Math.min(window.limit(), end - windowStart);
+        for (int i = position; i < limit; i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        if (windowStart + limit == end) {
+            return limit;
+        }
+        return -1;
+    }
+
+    private void map(long start) throws IOException {
+        long size = Math.min(windowSize, channel.size() - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        position = 0;
+    }
+
+    private static long nextLine(FileChannel channel, long start, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long position = start;
+        while (position < size) {
+            buf.clear();
+            int n = channel.read(buf, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    /**
+     * Remembers operation names so that each one is only turned into a string once. The table is
+     * small and entries are simply replaced when there is a collision.
+     */
+    static class OpCache {
+        private static final int SIZE = 1024;
+        private final byte[][] keys = new byte[SIZE][];
+        private final String[] values = new String[SIZE];
+
+        String get(ByteBuffer buf, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buf.get(i);
+            }
+            int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+            byte[] key = keys[slot];
+            if (key != null && key.length == end - start) {
+                boolean same = true;
+                for (int i = 0; i < key.length && same; i++) {
+                    same = key[i] == buf.get(start + i);
+                }
+                if (same) {
+                    return values[slot];
+                }
+            }
+            String r = ascii(buf, start, end);
+            keys[slot] = r.getBytes(StandardCharsets.UTF_8);
+            values[slot] = r;
+            return r;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.anomaly;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds account takeovers in the logs made by {@link WebLogGenerator} in a single pass. The user
+ * log and the image log are merged in time order and each user's current session is tracked as
+ * the events go by. When a session ends, it is scored on whether it came from an address the user
+ * hasn't used before and on how many of its pages were visited without fetching any images, which
+ * is what scripts do.
+ * <p>
+ * Per-user state is kept in primitive arrays indexed through a primitive hash map so that millions
+ * of users take little memory. Each operation also has an exponentially decayed rate of visits and
+ * of visits without images which is reported at the end.
+ */
+public class UserAnomalyDetector {
+    // how quickly operation rates forget the past
+    private static final double RATE_HALF_LIFE_MS = 3600 * 1000;
+
+    // score contributions
+    private static final double NEW_ADDRESS = 2;
+    private static final double BLIND_PAGE = 1;
+    private static final double SEEN_PAGE = -1;
+
+    private final String flag;
+    private final double threshold;
+    private final AlertSink sink;
+
+    // maps user id to a slot in the arrays below
+    private final OpenIntIntHashMap slots = new OpenIntIntHashMap();
+    private int users = 0;
+    private int[] uid = new int[1024];
+    private int[] homeAddress = new int[1024];
+    private int[] sessionAddress = new int[1024];
+    private long[] sessionStart = new long[1024];
+    private int[] pages = new int[1024];
+    private int[] blindPages = new int[1024];
+    private int[] images = new int[1024];
+    // bit 0 is an open session, bit 1 is that the user has a known home, bit 2 is a flagged session
+    private byte[] state = new byte[1024];
+
+    private final Map<String, OpRate> rates = Maps.newHashMap();
+
+    private long events = 0;
+    private long sessions = 0;
+    private long alerts = 0;
+    private long flaggedSessions = 0;
+    private long caught = 0;
+
+    /**
+     * @param flag      The name of the parameter that marks fraudulent pages, null if there isn't one.
+     * @param threshold Sessions that score above this are reported.
+     * @param sink      Where alerts go.
+     */
+    public UserAnomalyDetector(String flag, double threshold, AlertSink sink) {
+        this.flag = flag;
+        this.threshold = threshold;
+        this.sink = sink;
+    }
+
+    /**
+     * Reads both logs, merging them in time order.
+     */
+    public void run(File userLog, File imageLog) throws IOException {
+        try (EventReader pageReader = new EventReader(userLog);
+             EventReader imageReader = new EventReader(imageLog)) {
+            Event page = pageReader.read();
+            Event image = imageReader.read();
+            while (page != null || image != null) {
+                if (image == null || (page != null && page.getTime() <= image.getTime())) {
+                    accept(page, false);
+                    page = pageReader.read();
+                } else {
+                    accept(image, true);
+                    image = imageReader.read();
+                }
+            }
+        }
+        finish();
+    }
+
+    /**
+     * Handles a single event. Events must be given in time order.
+     *
+     * @param e       The event.
+     * @param isImage True if the event came from the image log.
+     */
+    public void accept(Event e, boolean isImage) {
+        events++;
+        int u = slot(e.getUid());
+        if (isImage) {
+            images[u]++;
+            return;
+        }
+
+        String op = e.getOp();
+        boolean flagged = false;
+        int query = op.indexOf('?');
+        if (query >= 0) {
+            flagged = flag != null && op.startsWith(flag + "=1", query + 1);
+            op = op.substring(0, query);
+        }
+
+        // the previous page is over so now we know whether it had images
+        if ((state[u] & 1) != 0 && pages[u] > 0 && images[u] == 0) {
+            blindPages[u]++;
+        }
+        OpRate rate = rates.computeIfAbsent(op, k -> new OpRate());
+
+        if ("login".equals(op)) {
+            endSession(u);
+            state[u] |= 1;
+            sessionStart[u] = e.getTime();
+            sessionAddress[u] = e.getIp();
+            pages[u] = 0;
+            blindPages[u] = 0;
+        } else {
+            pages[u]++;
+        }
+        if (flagged) {
+            state[u] |= 4;
+        }
+        images[u] = 0;
+        rate.add(e.getTime());
+    }
+
+    /**
+     * Ends all open sessions.
+     */
+    public void finish() {
+        for (int u = 0; u < users; u++) {
+            if ((state[u] & 1) != 0 && pages[u] > 0 && images[u] == 0) {
+                blindPages[u]++;
+            }
+            endSession(u);
+        }
+    }
+
+    private void endSession(int u) {
+        if ((state[u] & 1) == 0) {
+            return;
+        }
+        sessions++;
+        boolean newAddress = (state[u] & 2) != 0 && sessionAddress[u] != homeAddress[u];
+        double score = (newAddress ? NEW_ADDRESS : 0) + BLIND_PAGE * blindPages[u] + SEEN_PAGE * (pages[u] - blindPages[u]);
+        boolean flagged = (state[u] & 4) != 0;
+        if (flagged) {
+            flaggedSessions++;
+        }
+        if (score > threshold) {
+            alerts++;
+            if (flagged) {
+                caught++;
+            }
+            sink.alert(uid[u], sessionStart[u], pages[u], blindPages[u], newAddress, score, flagged);
+        } else {
+            // sessions that look normal tell us where the user usually is
+            homeAddress[u] = sessionAddress[u];
+            state[u] |= 2;
+        }
+        state[u] &= ~5;
+    }
+
+    private int slot(int id) {
+        int u = slots.get(id) - 1;
+        if (u < 0) {
+            u = users++;
+            if (u == uid.length) {
+                int n = 2 * u;
+                uid = Arrays.copyOf(uid, n);
+                homeAddress = Arrays.copyOf(homeAddress, n);
+                sessionAddress = Arrays.copyOf(sessionAddress, n);
+                sessionStart = Arrays.copyOf(sessionStart, n);
+                pages = Arrays.copyOf(pages, n);
+                blindPages = Arrays.copyOf(blindPages, n);
+                images = Arrays.copyOf(images, n);
+                state = Arrays.copyOf(state, n);
+            }
+            uid[u] = id;
+            slots.put(id, u + 1);
+        }
+        return u;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getSessions() {
+        return sessions;
+    }
+
+    public long getAlerts() {
+        return alerts;
+    }
+
+    /**
+     * @return How many sessions had pages with the fraud flag.
+     */
+    public long getFlaggedSessions() {
+        return flaggedSessions;
+    }
+
+    /**
+     * @return How many alerts were for flagged sessions.
+     */
+    public long getCaught() {
+        return caught;
+    }
+
+    /**
+     * @return The current rate of visits to each operation in visits per hour.
+     */
+    public Map<String, Double> getRates() {
+        Map<String, Double> r = new TreeMap<>();
+        for (Map.Entry<String, OpRate> entry : rates.entrySet()) {
+            r.put(entry.getKey(), entry.getValue().rate());
+        }
+        return r;
+    }
+
+    /**
+     * Receives a report of each suspicious session.
+     */
+    public interface AlertSink {
+        void alert(int uid, long start, int pages, int blindPages, boolean newAddress, double score, boolean flagged);
+    }
+
+    /**
+     * An exponentially decayed count of visits. This is a sketch of the recent rate in that it
+     * takes constant space no matter how many visits there are.
+     */
+    private static class OpRate {
+        private static final double DECAY = Math.log(2) / RATE_HALF_LIFE_MS;
+
+        private double count = 0;
+        private long last = Long.MIN_VALUE;
+
+        void add(long t) {
+            if (last != Long.MIN_VALUE) {
+                count *= Math.exp(-DECAY * (t - last));
+            }
+            count++;
+            last = t;
+        }
+
+        /**
+         * @return Visits per hour.
+         */
+        double rate() {
+            return count * DECAY * 3600 * 1000;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options opts = new Options();
+        CmdLineParser parser = new CmdLineParser(opts);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println("Usage: -user user-log -image image-log [-flag name] [-threshold score]");
+            System.exit(1);
+        }
+
+        PrintStream out = System.out;
+        UserAnomalyDetector detector = new UserAnomalyDetector(opts.flag, opts.threshold,
+                (uid, start, pages, blindPages, newAddress, score, flagged) ->
+                        out.printf("%08x\t%d\t%d\t%d\t%s\t%.1f\t%s\n", uid, start, pages, blindPages, newAddress, score, flagged));
+        long t0 = System.nanoTime();
+        detector.run(new File(opts.user), new File(opts.image));
+        double seconds = (System.nanoTime() - t0) / 1e9;
+
+        Runtime runtime = Runtime.getRuntime();
+        System.err.printf("%d events in %.1f s (%.0f events/s), %d MB heap\n", detector.getEvents(), seconds,
+                detector.getEvents() / seconds, (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+        System.err.printf("%d sessions, %d alerts\n", detector.getSessions(), detector.getAlerts());
+        if (opts.flag != null) {
+            System.err.printf("%d of %d flagged sessions caught, %d false alarms\n",
+                    detector.getCaught(), detector.getFlaggedSessions(), detector.getAlerts() - detector.getCaught());
+        }
+        for (Map.Entry<String, Double> entry : detector.getRates().entrySet()) {
+            System.err.printf("%s\t%.1f/hour\n", entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static class Options {
+        @Option(name = "-user", required = true)
+        String user;
+
+        @Option(name = "-image", required = true)
+        String image;
+
+        @Option(name = "-flag")
+        String flag = null;
+
+        @Option(name = "-threshold")
+        double threshold = 1.5;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.anomaly;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.mapr.synth.EventQueue;
+import com.mapr.synth.FastRandom;
+import com.mapr.synth.IpAddress;
+import com.mapr.synth.NestedRandom;
+import com.mapr.synth.Util;
+import com.mapr.synth.distributions.LongTail;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Generates a pair of web logs with some account takeovers mixed in. The user log has a line for
+ * each page a user visits and the image log has a line for each image that their browser fetches
+ * for those pages. Lines in both logs look like this
+ * <pre>
+ * [2013-10-27T20:40:06.122-04:00] /static/image-4&amp;user=0006c913 220.74.147.103
+ * </pre>
+ * and can be read with {@link EventReader}.
+ * <p>
+ * Users log in from one of a few addresses that they share with other users and then visit a
+ * handful of pages. Some small fraction of sessions are fraudsters who have stolen the user's
+ * password. These log in from an address the user has never used and go straight for the account
+ * and purchase pages. Being scripts, they also never fetch any images.
+ * <p>
+ * If a flag is set, the pages visited by fraudsters have it as an extra query parameter such as
+ * {@code /buy?fraud=1&user=0006c913} so that detectors can be scored. {@link UserAnomalyDetector}
+ * strips it before looking at the operation.
+ */
+public class WebLogGenerator {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private static final String[] PAGES = {"home", "search", "item", "item", "item", "cart", "account", "buy"};
+    private static final String[] FRAUD_PAGES = {"account", "account/password", "account/address", "buy", "buy"};
+
+    // a normal session averages this many pages after logging in
+    private static final double PAGES_PER_SESSION = 6;
+    // images for a page come quickly, but people take a while to look at each page
+    private static final double IMAGE_INTERVAL_MS = 150;
+    private static final double PAGE_INTERVAL_MS = 30000;
+    private static final double FRAUD_PAGE_INTERVAL_MS = 2000;
+    private static final String[] IMAGES = new String[40];
+
+    static {
+        for (int i = 0; i < IMAGES.length; i++) {
+            IMAGES[i] = "static/image-" + i;
+        }
+    }
+
+    // how often users have sessions
+    private static final double SESSION_RATE = 2.0 / Util.ONE_DAY;
+
+    private final double fraudRate;
+    private final String flag;
+    private final Timestamp timestamp;
+
+    // per user state in columns, each user has a single pending event in the queue
+    private final int[] home;
+    private final int[] ip;
+    private final int[] pagesLeft;
+    private final int[] imagesLeft;
+    private final boolean[] fraud;
+    private final long[] seed;
+    private final EventQueue queue;
+
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * @param users     How many users to simulate.
+     * @param fraudRate What fraction of sessions are fraudulent.
+     * @param flag      What to mark fraudulent pages with, null for no mark.
+     * @param start     When to start in ms since the epoch.
+     * @param seed      Seed for everything random.
+     */
+    public WebLogGenerator(int users, double fraudRate, String flag, long start, long seed) {
+        Preconditions.checkArgument(users > 0, "Must have at least one user");
+        Preconditions.checkArgument(fraudRate >= 0 && fraudRate <= 1, "Fraud rate must be between 0 and 1");
+        this.fraudRate = fraudRate;
+        this.flag = flag;
+        Random rand = FastRandom.newRandom(seed);
+        this.timestamp = new Timestamp(ZoneOffset.systemDefault().getRules().getOffset(Instant.ofEpochMilli(start)));
+
+        // several users share each address and busy addresses are shared by lots of users
+        Random ipRand = FastRandom.newRandom(rand.nextLong());
+        LongTail<Integer> addresses = new LongTail<>(1000, 0.5) {
+            @Override
+            protected Integer createThing() {
+                return ipRand.nextInt();
+            }
+        };
+        addresses.setSeed(rand.nextLong());
+
+        home = new int[users];
+        ip = new int[users];
+        pagesLeft = new int[users];
+        imagesLeft = new int[users];
+        fraud = new boolean[users];
+        this.seed = new long[users];
+        queue = new EventQueue(users);
+        for (int u = 0; u < users; u++) {
+            home[u] = addresses.sample();
+            this.seed[u] = rand.nextLong();
+            queue.add(start + exponential(u, SESSION_RATE), u);
+        }
+    }
+
+    /**
+     * Writes log lines until the user log has the requested number of lines.
+     *
+     * @param count    How many lines to write to the user log.
+     * @param userLog  Where page visits go.
+     * @param imageLog Where image fetches go.
+     */
+    public void generate(long count, Writer userLog, Writer imageLog) throws IOException {
+        long lines = 0;
+        while (lines < count) {
+            double t = queue.peekTime();
+            int u = queue.peek();
+            double next;
+            if (imagesLeft[u] > 0) {
+                imagesLeft[u]--;
+                write(imageLog, t, IMAGES[(int) (uniform(u) * IMAGES.length)], "&", u);
+                if (imagesLeft[u] > 0) {
+                    next = t + exponential(u, 1 / IMAGE_INTERVAL_MS);
+                } else {
+                    next = afterPage(u, t, PAGE_INTERVAL_MS);
+                }
+            } else if (pagesLeft[u] > 0) {
+                pagesLeft[u]--;
+                lines++;
+                if (fraud[u]) {
+                    write(userLog, t, FRAUD_PAGES[(int) (uniform(u) * FRAUD_PAGES.length)], "?", u);
+                    next = afterPage(u, t, FRAUD_PAGE_INTERVAL_MS);
+                } else {
+                    write(userLog, t, PAGES[(int) (uniform(u) * PAGES.length)], "?", u);
+                    imagesLeft[u] = (int) (uniform(u) * 6) + 1;
+                    next = t + exponential(u, 1 / IMAGE_INTERVAL_MS);
+                }
+            } else {
+                // start a new session
+                lines++;
+                fraud[u] = uniform(u) < fraudRate;
+                if (fraud[u]) {
+                    ip[u] = randomInt(u);
+                    pagesLeft[u] = 1 + (int) (uniform(u) * 4);
+                    write(userLog, t, "login", "?", u);
+                    next = t + exponential(u, 1 / FRAUD_PAGE_INTERVAL_MS);
+                } else {
+                    ip[u] = home[u];
+                    pagesLeft[u] = 1 + (int) exponential(u, 1 / PAGES_PER_SESSION);
+                    write(userLog, t, "login", "?", u);
+                    imagesLeft[u] = 2;
+                    next = t + exponential(u, 1 / IMAGE_INTERVAL_MS);
+                }
+            }
+            queue.replaceTop(next, u);
+        }
+    }
+
+    /**
+     * @return When the next page is visited, or when the next session starts if this one is over.
+     */
+    private double afterPage(int u, double t, double interval) {
+        if (pagesLeft[u] > 0) {
+            return t + exponential(u, 1 / interval);
+        } else {
+            return t + exponential(u, SESSION_RATE);
+        }
+    }
+
+    private void write(Writer out, double t, String op, String separator, int u) throws IOException {
+        line.setLength(0);
+        line.append('[');
+        timestamp.append(line, (long) t);
+        line.append("] /").append(op);
+        if (fraud[u] && flag != null) {
+            line.append('?').append(flag).append("=1");
+            separator = "&";
+        }
+        line.append(separator).append("user=");
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            line.append(Character.forDigit((u >>> shift) & 0xf, 16));
+        }
+        line.append(' ');
+        IpAddress.append(line, ip[u]);
+        line.append('\n');
+        out.append(line);
+    }
+
+    /**
+     * Each user has their own SplitMix64 stream so that what one user does doesn't depend on
+     * what any other user does.
+     */
+    private double uniform(int u) {
+        seed[u] += GOLDEN_GAMMA;
+        return (NestedRandom.mix(seed[u], -1) >>> 11) * 0x1.0p-53;
+    }
+
+    private int randomInt(int u) {
+        seed[u] += GOLDEN_GAMMA;
+        return (int) (NestedRandom.mix(seed[u], -1) >>> 32);
+    }
+
+    private double exponential(int u, double rate) {
+        return -Math.log1p(-uniform(u)) / rate;
+    }
+
+    /**
+     * Formats times like 2013-10-27T20:40:06.122-04:00. Only the seconds and milliseconds change
+     * from one line to the next, so the rest is only formatted once a minute.
+     */
+    private static class Timestamp {
+        private static final DateTimeFormatter MINUTES = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:");
+
+        private final ZoneOffset offset;
+        private final String suffix;
+        private long minute = Long.MIN_VALUE;
+        private String prefix;
+
+        Timestamp(ZoneOffset offset) {
+            this.offset = offset;
+            this.suffix = offset.getTotalSeconds() == 0 ? "Z" : offset.getId();
+        }
+
+        void append(StringBuilder out, long t) {
+            long m = Math.floorDiv(t, 60000);
+            if (m != minute) {
+                minute = m;
+                prefix = MINUTES.format(Instant.ofEpochMilli(m * 60000).atOffset(offset));
+            }
+            int ms = (int) (t - m * 60000);
+            int seconds = ms / 1000;
+            ms %= 1000;
+            out.append(prefix)
+                    .append((char) ('0' + seconds / 10)).append((char) ('0' + seconds % 10)).append('.')
+                    .append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10)).append((char) ('0' + ms % 10))
+                    .append(suffix);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options opts = new Options();
+        CmdLineParser parser = new CmdLineParser(opts);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println("Usage: -user user-log -image image-log [-count n] [-users n] [-rate fraud-rate] [-flag name] [-seed n]");
+            System.exit(1);
+        }
+
+        WebLogGenerator gen = new WebLogGenerator(opts.users, opts.rate, opts.flag, opts.start, opts.seed);
+        try (BufferedWriter userLog = Files.newBufferedWriter(Paths.get(opts.user), Charsets.UTF_8);
+             BufferedWriter imageLog = Files.newBufferedWriter(Paths.get(opts.image), Charsets.UTF_8)) {
+            gen.generate(opts.count, userLog, imageLog);
+        }
+    }
+
+    private static class Options {
+        @Option(name = "-user", required = true)
+        String user;
+
+        @Option(name = "-image", required = true)
+        String image;
+
+        @Option(name = "-count", handler = Util.SizeParser.class)
+        long count = 1000000;
+
+        @Option(name = "-users")
+        int users = 100000;
+
+        @Option(name = "-rate")
+        double rate = 0.003;
+
+        @Option(name = "-flag")
+        String flag = null;
+
+        @Option(name = "-start")
+        long start = 1382918400000L;
+
+        @Option(name = "-seed")
+        long seed = 1;
+    }
+}
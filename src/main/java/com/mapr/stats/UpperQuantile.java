@@ -20,55 +20,136 @@
 package com.mapr.stats;
 
 import com.google.common.base.Preconditions;
+import com.tdunning.math.stats.TDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 
 /**
- * Retains top samples from a stream by using a heap data structure.
+ * Retains top samples from a stream by using a heap data structure so that upper quantiles
+ * can be found exactly.
+ * <p>
+ * Optionally, all samples can also be fed to a t-digest. Quantiles that aren't covered by
+ * the retained samples are then estimated by the digest instead of being an error. This makes
+ * it possible to watch something like latency where the median and the 99.99th percentile are
+ * both of interest without retaining very many samples.
+ * <p>
+ * All methods are synchronized so an instance can be shared, but when many threads are adding
+ * samples it is much faster to give each its own instance and {@link #merge} them at the end.
  */
 public class UpperQuantile {
     private static Logger log = LoggerFactory.getLogger(UpperQuantile.class);
 
-    private int n = 0;
-    private Heap biggest;
-    private double[] sorted;
+    private long n = 0;
+    private final Heap biggest;
+
+    // the retained samples in order, only rebuilt when they change
+    private final double[] sorted;
+    private boolean dirty = false;
+
+    private final double compression;
+    private TDigest digest;
 
     public UpperQuantile(int maxRetained) {
         biggest = new Heap(maxRetained);
+        sorted = new double[maxRetained];
+        compression = 0;
+    }
+
+    /**
+     * Retains the top samples and also keeps a t-digest of all samples.
+     *
+     * @param maxRetained How many of the largest samples to keep exactly.
+     * @param compression The compression of the digest, 100 is typical.
+     */
+    public UpperQuantile(int maxRetained, double compression) {
+        Preconditions.checkArgument(compression > 0, "Compression must be positive");
+        biggest = new Heap(maxRetained);
+        sorted = new double[maxRetained];
+        this.compression = compression;
+        digest = TDigest.createMergingDigest(compression);
     }
 
-    void add(double x) {
-        sorted = null;
-        biggest.add(x);
+    public synchronized void add(double x) {
+        if (biggest.add(x)) {
+            dirty = true;
+        }
+        if (digest != null) {
+            digest.add(x);
+        }
         n++;
     }
 
+    /**
+     * Adds all of the samples that another instance has seen to this one. The other instance
+     * is not changed. Both instances must retain the same number of samples. Since only the top
+     * samples can matter for quantiles that this instance can compute exactly, the result is then
+     * the same as if all of the samples had been added here.
+     *
+     * @param other The samples to add.
+     */
+    public void merge(UpperQuantile other) {
+        // with fewer retained on the other side, samples we would have kept could be missing
+        Preconditions.checkArgument(other.sorted.length == sorted.length,
+                "Can't merge instances that retain %s and %s samples", sorted.length, other.sorted.length);
+        Preconditions.checkArgument((digest == null) == (other.digest == null),
+                "Can't merge with and without a digest");
+
+        // copy the other side first so that we never hold both locks
+        double[] values;
+        long otherCount;
+        TDigest otherDigest = null;
+        synchronized (other) {
+            values = Arrays.copyOfRange(other.biggest.data, 1, other.biggest.count + 1);
+            otherCount = other.n;
+            if (other.digest != null) {
+                otherDigest = TDigest.createMergingDigest(other.compression);
+                otherDigest.add(other.digest);
+            }
+        }
+
+        synchronized (this) {
+            for (double x : values) {
+                if (biggest.add(x)) {
+                    dirty = true;
+                }
+            }
+            if (otherDigest != null) {
+                digest.add(otherDigest);
+            }
+            n += otherCount;
+        }
+    }
+
     /**
      * To find a particular quantile, we have to look at the top values in sorted order.
      *
      * @param q The quantile to estimate.
      * @return The value of the quantile.
      */
-    double quantile(double q) {
+    public synchronized double quantile(double q) {
         Preconditions.checkState(biggest.size() > 0, "Can't get quantile with no data");
         Preconditions.checkArgument(q >= 0, "Q must be >= 0");
         Preconditions.checkArgument(q <= 1, "Q must be <= 1");
 
         // how far from the max value?
         double item = (n - 1) * (1 - q);
+        if (item > biggest.size() - 1 && digest != null) {
+            return digest.quantile(q);
+        }
         Preconditions.checkArgument(item <= biggest.size() - 1,
-                "Can't get %.2 %-ile, only retained %d / %d items",
+                "Can't get the %s percentile, only retained %s / %s items",
                 100 * q, biggest.size(), n);
 
         // and how far is that from the beginning of our retained samples?
-        item = biggest.size() - item;
+        item = biggest.size() - 1 - item;
 
-        // only sort the data once
-        if (sorted == null) {
-            sorted = biggest.data.clone();
-            Arrays.sort(sorted, 1, sorted.length);
+        // only sort the data when it has changed
+        if (dirty) {
+            System.arraycopy(biggest.data, 1, sorted, 0, biggest.size());
+            Arrays.sort(sorted, 0, biggest.size());
+            dirty = false;
         }
 
         // may want to interpolate values
@@ -81,37 +162,57 @@ public class UpperQuantile {
         }
     }
 
-    public void clear() {
+    /**
+     * @return The number of samples seen so far.
+     */
+    public synchronized long size() {
+        return n;
+    }
+
+    public synchronized void clear() {
         biggest.clear();
+        n = 0;
+        dirty = false;
+        if (digest != null) {
+            digest = TDigest.createMergingDigest(compression);
+        }
     }
 
     /**
      * Verify that the heap is well formed.
+     *
+     * @return True if it is.
      */
-    public void validate() {
-        biggest.validate(1);
+    public synchronized boolean validate() {
+        return biggest.validate();
     }
 
     /**
      * Print the heap to standard out.
      */
-    public void print() {
+    public synchronized void print() {
         biggest.print(1);
     }
 
     /**
      * See http://en.wikipedia.org/wiki/Heap_(data_structure)
+     * <p>
+     * The root is the smallest retained value and is at index 1 so that the children of i are at
+     * 2i and 2i+1.
      */
     private static final class Heap {
         private int count = 0;
-        private double[] data;
+        private final double[] data;
 
         private Heap(int size) {
             Preconditions.checkArgument(size > 0);
             data = new double[size + 1];
         }
 
-        private void add(double x) {
+        /**
+         * @return True if x was retained.
+         */
+        private boolean add(double x) {
             if (count < data.length - 1) {
                 // if we delayed initialization until the heap fills, we could go a bit faster (Floyd's algo)
                 // if we often only add as many samples as are allowed in the heap, then that could make a significant
@@ -119,138 +220,79 @@ public class UpperQuantile {
                 count++;
                 data[count] = x;
                 bubble(count);
+                return true;
             } else if (x > data[1]) {
                 // x is bigger than the root, so x deserves to be in the heap and the current root does not
-                pop();
-                add(x);
+                data[1] = x;
+                sink(1);
+                return true;
+            } else {
+                return false;
             }
         }
 
         /**
          * After a leaf node is placed at location i, the invariants may be violated.
-         * This method restores the invariant.
+         * This method restores the invariant by moving the value up until its parent
+         * is no larger.
          *
          * @param i The index of the leaf node which has been changed.
          */
         private void bubble(int i) {
-            if (i > 1) {
-                int parent = i / 2;
-                if (data[i] < data[parent]) {
-                    double tmp = data[i];
-                    data[i] = data[parent];
-                    data[parent] = tmp;
-                    bubble(parent);
+            double x = data[i];
+            while (i > 1) {
+                int parent = i >>> 1;
+                if (data[parent] <= x) {
+                    break;
                 }
+                data[i] = data[parent];
+                i = parent;
             }
+            data[i] = x;
         }
 
         /**
-         * Remove the root of the heap and restore the invariant.
+         * After the value at location i has been increased, it may be bigger than a child.
+         * This method restores the invariant by moving it down past smaller children.
          *
-         * @return The smallest value in the heap.
+         * @param i The index of the node which has been changed.
          */
-        private double pop() {
-            Preconditions.checkState(count > 0, "Can't pop from empty heap");
-            double r = data[1];
-            pop(1);
-            return r;
-        }
-
-        private double peek() {
-            return data[1];
-        }
-
-        private void pop(int i) {
-            int left = 2 * i;
-            if (left <= count) {
-                int right = left + 1;
-                if (right <= count) {
-                    if (data[left] < data[right]) {
-                        data[i] = data[left];
-                        pop(left);
-
-                    } else {
-                        data[i] = data[right];
-                        pop(right);
-                    }
-                } else {
-                    data[i] = data[left];
-                    pop(left);
+        private void sink(int i) {
+            double x = data[i];
+            int half = count >>> 1;
+            while (i <= half) {
+                int child = 2 * i;
+                if (child < count && data[child + 1] < data[child]) {
+                    child++;
                 }
-            } else if (i < count) {
-                // leaf ... move the last element to here and rebalance upward
-                data[i] = data[count];
-                count--;
-                bubble(i);
-            } else {
-                count--;
+                if (x <= data[child]) {
+                    break;
+                }
+                data[i] = data[child];
+                i = child;
             }
+            data[i] = x;
         }
 
-        public double size() {
+        private int size() {
             return count;
         }
 
-        public void clear() {
+        private void clear() {
             count = 0;
         }
 
         /**
-         * Rebalances the entire tree from the top-down.  Floyd's algorithm would do it from
-         * the bottom up and be faster, but this isn't used so it doesn't matter.
-         *
-         * @param base The base of the sub-heap to be balanced.
-         */
-        private void rebalance(int base) {
-            int left = 2 * base;
-            if (left <= count && data[base] > data[left]) {
-                double tmp = data[left];
-                data[left] = data[base];
-                data[base] = tmp;
-                rebalance(left);
-            }
-
-            int right = left + 1;
-            if (right <= count && data[base] > data[right]) {
-                double tmp = data[right];
-                data[right] = data[base];
-                data[base] = tmp;
-                rebalance(right);
-            }
-        }
-
-        /**
-         * Verify the invariant.  Bitch if an error are found.
-         *
-         * @param i The index of the root of the tree to check.
+         * Verify the invariant.  Complain if an error is found.
          */
-        private boolean validate(int i) {
-            if (i >= count) {
-                return true;
-            }
-
-            int left = 2 * i;
-            if (left <= count) {
-                if (data[i] > data[left]) {
-                    log.warn("Data at {} > {}", i, left);
-                    log.warn("Data at {} > {}", data[i], data[left]);
+        private boolean validate() {
+            for (int i = 2; i <= count; i++) {
+                int parent = i >>> 1;
+                if (data[parent] > data[i]) {
+                    log.warn("Data at {} > {}", parent, i);
+                    log.warn("Data at {} > {}", data[parent], data[i]);
                     return false;
                 }
-                if (!validate(left)) {
-                    return false;
-                }
-
-                int right = left + 1;
-                if (right <= count) {
-                    if (data[i] > data[right]) {
-                        log.warn("Data at {} > {}", i, right);
-                        log.warn("Data at {} > {}", data[i], data[right]);
-                        return false;
-                    }
-                    if (!validate(right)) {
-                        return false;
-                    }
-                }
             }
             return true;
         }
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouples the thread that renders output from the thread that writes it to a (possibly slow)
+ * sink. Bytes are accumulated into fixed size blocks and full blocks are handed to an I/O
+ * executor which writes them in order. Only a few blocks can be in flight for any stream so a
+ * slow sink will eventually push back on the producer rather than letting memory grow without
+ * bound.
+ *
+ * Many of these streams can share a single I/O executor so that the number of threads blocked on
+ * slow sinks doesn't grow with the number of output files.
+ */
+public class AsyncOutputStream extends OutputStream {
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    private static final int DEFAULT_DEPTH = 3;
+    // how often a producer waiting for a free block checks whether the writes have died
+    private static final long POLL_MS = 100;
+
+    private final OutputStream out;
+    private final Executor writers;
+    private final BlockingQueue<byte[]> free;
+
+    private byte[] current;
+    private int n;
+
+    // writes for a single stream are chained so that blocks land in the order they were produced
+    private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+    private volatile Throwable failure;
+    private boolean closed = false;
+
+    public AsyncOutputStream(OutputStream out, Executor writers) {
+        this(out, writers, DEFAULT_BLOCK_SIZE, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param out       Where the bytes eventually go.
+     * @param writers   The executor that does the actual writing.
+     * @param blockSize How many bytes to accumulate before handing off a block.
+     * @param depth     How many blocks may be in use at once for this stream (at least 2).
+     */
+    public AsyncOutputStream(OutputStream out, Executor writers, int blockSize, int depth) {
+        if (blockSize <= 0 || depth < 2) {
+            throw new IllegalArgumentException("Must have positive block size and depth of at least 2");
+        }
+        this.out = out;
+        this.writers = writers;
+        free = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < depth - 1; i++) {
+            free.add(new byte[blockSize]);
+        }
+        current = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (n == current.length) {
+            handOff();
+        }
+        current[n++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (n == current.length) {
+                handOff();
+            }
+            int k = Math.min(len, current.length - n);
+            System.arraycopy(b, off, current, n, k);
+            n += k;
+            off += k;
+            len -= k;
+        }
+    }
+
+    /**
+     * Hands off any partial block. This does not wait for the data to actually be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (n > 0) {
+            handOff();
+        }
+    }
+
+    /**
+     * Hands off any partial block and waits until everything written so far has reached the
+     * underlying stream.
+     */
+    public void drain() throws IOException {
+        flush();
+        await();
+        out.flush();
+        checkFailure();
+    }
+
+    /**
+     * Writes any remaining data, waits for all pending writes and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            await();
+        } finally {
+            out.close();
+        }
+        checkFailure();
+    }
+
+    private void handOff() throws IOException {
+        checkFailure();
+        final byte[] block = current;
+        final int length = n;
+        // handle rather than thenRun so that a failed write can't keep later blocks from being recycled
+        pending = pending.handleAsync((ignored, previous) -> {
+            try {
+                if (failure == null) {
+                    out.write(block, 0, length);
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                free.add(block);
+            }
+            return null;
+        }, writers);
+
+        try {
+            // this is where a slow sink pushes back on the producer
+            byte[] next;
+            while ((next = free.poll(POLL_MS, TimeUnit.MILLISECONDS)) == null) {
+                if (pending.isCompletedExceptionally()) {
+                    // the executor refused the write so the block will never come back
+                    await();
+                }
+            }
+            current = next;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for output to drain");
+        }
+        n = 0;
+    }
+
+    /**
+     * Waits for all pending writes.
+     */
+    private void await() throws IOException {
+        try {
+            pending.join();
+        } catch (CompletionException e) {
+            throw new IOException("Asynchronous write failed", e.getCause());
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Asynchronous write failed", failure);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Records how far each output partition of a long generation job has progressed so that the job
+ * can be resumed after it is killed. For each partition, we keep the number of complete rows that
+ * have been written and the length of the file at that point. On resume, each file is truncated
+ * back to the recorded length (throwing away any partial rows) and generation continues from there.
+ *
+ * On resume, a partition is reseeded using a seed derived from the job seed, the partition and the
+ * row offset via {@link NestedRandom}. If every sampler in the schema can seek, stateful samplers such
+ * as {@code id} are also moved forward to the row where the partition left off. That makes the
+ * continuation deterministic, but not identical to what an uninterrupted run would have produced.
+ *
+ * The checkpoint is kept as a small JSON file in the output directory and is replaced atomically
+ * each time it is saved.
+ */
+public class Checkpoint {
+    public static final String FILE_NAME = ".synth-checkpoint.json";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private File directory;
+
+    public long seed;
+    public int count;
+    public int threads;
+    public long[] rows;
+    public long[] bytes;
+
+    @SuppressWarnings("unused")
+    public Checkpoint() {
+        // for Jackson
+    }
+
+    private Checkpoint(File directory, int count, int threads, long seed) {
+        this.directory = directory;
+        this.count = count;
+        this.threads = threads;
+        this.seed = seed;
+        rows = new long[threads];
+        bytes = new long[threads];
+    }
+
+    public static Checkpoint create(File directory, int count, int threads, long seed) {
+        return new Checkpoint(directory, count, threads, seed);
+    }
+
+    public static Checkpoint load(File directory, int count, int threads) throws IOException {
+        File f = new File(directory, FILE_NAME);
+        Preconditions.checkArgument(f.exists(), "Can't resume, no checkpoint found in %s", directory);
+        Checkpoint r = mapper.readValue(f, Checkpoint.class);
+        Preconditions.checkArgument(r.count == count && r.threads == threads,
+                "Checkpoint was for -count %s and -threads %s, but got %s and %s", r.count, r.threads, count, threads);
+        r.directory = directory;
+        return r;
+    }
+
+    public synchronized long getRows(int partition) {
+        return rows[partition];
+    }
+
+    public synchronized long getBytes(int partition) {
+        return bytes[partition];
+    }
+
+    public synchronized void update(int partition, long rows, long bytes) {
+        this.rows[partition] = rows;
+        this.bytes[partition] = bytes;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and then moves it into place so that a crash
+     * never leaves a half written checkpoint behind.
+     */
+    public synchronized void save() throws IOException {
+        Path target = new File(directory, FILE_NAME).toPath();
+        Path tmp = new File(directory, FILE_NAME + ".tmp").toPath();
+        mapper.writeValue(tmp.toFile(), this);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the seed to use when generation for a partition restarts at a particular row.
+     */
+    public long seedFor(int partition, long row) {
+        return new NestedRandom((int) (seed ^ (seed >>> 32)))
+                .get(partition)
+                .get((int) (row >>> 32))
+                .get((int) row)
+                .random().nextLong();
+    }
+}
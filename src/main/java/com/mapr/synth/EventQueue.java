@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A priority queue of (time, entity) pairs kept as a 4-ary heap in primitive arrays. This is the
+ * heart of a discrete event simulation where each entity has a single pending event and we
+ * repeatedly advance whichever entity has the earliest one. Nothing is allocated per event, so
+ * millions of entities can be interleaved in time order with no per-event garbage.
+ *
+ * Ties are broken by entity number which makes the order of events completely deterministic.
+ *
+ * Each node has four children rather than two. That halves the depth of the heap and puts all of
+ * the children of a node next to each other in memory, which matters once the heap is too large
+ * to fit in cache.
+ */
+public class EventQueue {
+    private static final int ARITY = 4;
+
+    private double[] times;
+    private int[] entities;
+    private int size = 0;
+
+    public EventQueue() {
+        this(16);
+    }
+
+    public EventQueue(int capacity) {
+        capacity = Math.max(capacity, 1);
+        times = new double[capacity];
+        entities = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds an event for an entity.
+     */
+    public void add(double time, int entity) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, 2 * size);
+            entities = Arrays.copyOf(entities, 2 * size);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (!before(time, entity, times[parent], entities[parent])) {
+                break;
+            }
+            times[i] = times[parent];
+            entities[i] = entities[parent];
+            i = parent;
+        }
+        times[i] = time;
+        entities[i] = entity;
+    }
+
+    /**
+     * @return The time of the earliest event.
+     */
+    public double peekTime() {
+        Preconditions.checkState(size > 0, "Event queue is empty");
+        return times[0];
+    }
+
+    /**
+     * @return The entity with the earliest event.
+     */
+    public int peek() {
+        Preconditions.checkState(size > 0, "Event queue is empty");
+        return entities[0];
+    }
+
+    /**
+     * Removes the earliest event.
+     *
+     * @return The entity that the event belonged to.
+     */
+    public int poll() {
+        int r = peek();
+        size--;
+        if (size > 0) {
+            siftDown(times[size], entities[size]);
+        }
+        return r;
+    }
+
+    /**
+     * Changes the time of the earliest event. This is the same as poll followed by add, but
+     * is about twice as fast.
+     */
+    public void replaceTop(double time, int entity) {
+        Preconditions.checkState(size > 0, "Event queue is empty");
+        siftDown(time, entity);
+    }
+
+    private void siftDown(double time, int entity) {
+        int i = 0;
+        while (true) {
+            int first = ARITY * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int child = first;
+            int last = Math.min(first + ARITY, size);
+            for (int k = first + 1; k < last; k++) {
+                if (before(times[k], entities[k], times[child], entities[child])) {
+                    child = k;
+                }
+            }
+            if (!before(times[child], entities[child], time, entity)) {
+                break;
+            }
+            times[i] = times[child];
+            entities[i] = entities[child];
+            i = child;
+        }
+        times[i] = time;
+        entities[i] = entity;
+    }
+
+    private static boolean before(double t1, int e1, double t2, int e2) {
+        return t1 < t2 || (t1 == t2 && e1 < e2);
+    }
+}
@@ -21,24 +21,42 @@ package com.mapr.synth;
 
 import com.google.common.collect.Lists;
 
+import java.text.DateFormatSymbols;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Much like SimpleDateFormat, but fancier. The fancy bit is that
  * we support single character formats Q and s for time since epoch in
  * milli-seconds and seconds respectively. Also, multiple formats
  * can be specified to allow alternative parsing formats.
+ *
+ * Formatting is also much faster than SimpleDateFormat. The first format is compiled into a
+ * list of fields and everything that doesn't change within a minute is rendered once and cached
+ * so that formatting a time in the same minute as the previous one only needs to fill in seconds
+ * and milliseconds. Formatting is thread safe and never allocates a Date. Patterns that use
+ * letters we don't compile fall back to a SimpleDateFormat per thread.
  */
 public class FancyTimeFormatter {
     private static String[] defaultFormats = {"yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"};
     private static String isoFormat = "yyyy-MM-dd'T'HH:mm:ss'Z'";
 
+    private static final long ONE_MINUTE = 60_000;
+    // SimpleDateFormat switches to the Julian calendar before this
+    private static final long GREGORIAN_CUTOVER = new GregorianCalendar().getGregorianChange().getTime();
+
     private List<String> formats = Lists.newArrayList();
     private List<SimpleDateFormat> formatter = Lists.newArrayList();
 
+    private CompiledFormat compiled;
+
     public FancyTimeFormatter() {
         this(defaultFormats);
     }
@@ -69,23 +87,29 @@ public class FancyTimeFormatter {
                 this.formats.add(format);
                 formatter.add(new SimpleDateFormat(format));
         }
+        if (compiled == null) {
+            compiled = new CompiledFormat(formats.get(0), formatter.get(0));
+        }
     }
 
-    @SuppressWarnings("unused")
     public String format(long t) {
-        if (formatter.get(0) != null) {
-            return formatter.get(0).format(new Date(t));
-        } else {
-            return String.format(formats.get(0), t);
-        }
+        return format(t, new StringBuilder(32)).toString();
     }
 
     public String format(Date t) {
-        if (formatter.get(0) != null) {
-            return formatter.get(0).format(t);
-        } else {
-            return String.format(formats.get(0), t);
-        }
+        return format(t.getTime());
+    }
+
+    /**
+     * Appends the formatted time to a StringBuilder.
+     *
+     * @param t   Milliseconds since the epoch.
+     * @param out Where to put the result.
+     * @return The same StringBuilder for chaining.
+     */
+    public StringBuilder format(long t, StringBuilder out) {
+        compiled.format(t, out);
+        return out;
     }
 
     public Date parse(String t) throws ParseException {
@@ -107,7 +131,10 @@ public class FancyTimeFormatter {
                 }
             } else {
                 try {
-                    return format.parse(t);
+                    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                    synchronized (format) {
+                        return format.parse(t);
+                    }
                 } catch (ParseException e) {
                     // ignore parse exceptions
                 }
@@ -115,4 +142,325 @@ public class FancyTimeFormatter {
         }
         throw new ParseException(String.format("Cannot parse %s as any of %s", t, formats), 0);
     }
+
+    /**
+     * A date format pattern broken into fields. Fields are rendered directly from the epoch time
+     * and everything above the level of seconds is cached for the most recent minute.
+     */
+    private static final class CompiledFormat {
+        private final String pattern;
+        // null if this is one of our special epoch formats
+        private final SimpleDateFormat prototype;
+        private final ThreadLocal<SimpleDateFormat> fallback;
+
+        // null if the pattern can't be compiled
+        private final Field[] fields;
+        // the fields that are rendered on every call
+        private final Field[] subMinute;
+
+        private final TimeZone zone;
+        private final DateFormatSymbols symbols;
+
+        private volatile Minute cache;
+
+        CompiledFormat(String pattern, SimpleDateFormat prototype) {
+            this.pattern = pattern;
+            this.prototype = prototype;
+            if (prototype != null) {
+                TimeZone tz = prototype.getTimeZone();
+                fallback = ThreadLocal.withInitial(() -> {
+                    SimpleDateFormat f = (SimpleDateFormat) prototype.clone();
+                    f.setTimeZone(tz);
+                    return f;
+                });
+                zone = tz;
+                Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+                symbols = DateFormatSymbols.getInstance(locale);
+                if (Calendar.getInstance(locale) instanceof GregorianCalendar) {
+                    fields = compile(prototype.toPattern());
+                } else {
+                    fields = null;
+                }
+            } else {
+                fallback = null;
+                zone = null;
+                symbols = null;
+                fields = null;
+            }
+
+            if (fields != null) {
+                List<Field> r = Lists.newArrayList();
+                for (Field field : fields) {
+                    if (field.letter == 's' || field.letter == 'S') {
+                        r.add(field);
+                    }
+                }
+                subMinute = r.toArray(new Field[0]);
+            } else {
+                subMinute = null;
+            }
+        }
+
+        void format(long t, StringBuilder out) {
+            if (prototype == null) {
+                if ("%tQ".equals(pattern)) {
+                    out.append(t);
+                } else {
+                    out.append(t / 1000);
+                }
+                return;
+            }
+
+            Minute m = null;
+            if (fields != null) {
+                long minute = Math.floorDiv(t, ONE_MINUTE);
+                m = cache;
+                if (m == null || m.minute != minute) {
+                    m = renderMinute(t, minute);
+                    if (m != null) {
+                        cache = m;
+                    }
+                }
+            }
+
+            if (m == null) {
+                out.append(fallback.get().format(new Date(t)));
+            } else {
+                int ms = (int) Math.floorMod(t, ONE_MINUTE);
+                out.append(m.pieces[0]);
+                for (int i = 0; i < subMinute.length; i++) {
+                    Field f = subMinute[i];
+                    appendNumber(out, f.letter == 's' ? ms / 1000 : ms % 1000, f.count);
+                    out.append(m.pieces[i + 1]);
+                }
+            }
+        }
+
+        /**
+         * Renders everything except seconds and milliseconds for the minute containing t.
+         *
+         * @return The rendered pieces or null if we can't handle this time.
+         */
+        private Minute renderMinute(long t, long minute) {
+            // this matches SimpleDateFormat even where the old and new time zone data disagree
+            int offset = zone.getOffset(t) / 1000;
+            if (t < GREGORIAN_CUTOVER || offset % 60 != 0) {
+                // old dates and odd historical time zones are left to SimpleDateFormat
+                return null;
+            }
+            long local = t + offset * 1000L;
+            LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(local, Util.ONE_DAY));
+            if (date.getYear() <= 0) {
+                return null;
+            }
+            int minuteOfDay = (int) (Math.floorMod(local, Util.ONE_DAY) / ONE_MINUTE);
+            int hour = minuteOfDay / 60;
+
+            String[] pieces = new String[subMinute.length + 1];
+            int k = 0;
+            StringBuilder piece = new StringBuilder();
+            for (Field f : fields) {
+                switch (f.letter) {
+                    case 0:
+                        piece.append(f.literal);
+                        break;
+                    case 's':
+                    case 'S':
+                        pieces[k++] = piece.toString();
+                        piece.setLength(0);
+                        break;
+                    case 'y':
+                        if (f.count == 2) {
+                            appendNumber(piece, date.getYear() % 100, 2);
+                        } else {
+                            appendNumber(piece, date.getYear(), f.count);
+                        }
+                        break;
+                    case 'M':
+                        if (f.count >= 4) {
+                            piece.append(symbols.getMonths()[date.getMonthValue() - 1]);
+                        } else if (f.count == 3) {
+                            piece.append(symbols.getShortMonths()[date.getMonthValue() - 1]);
+                        } else {
+                            appendNumber(piece, date.getMonthValue(), f.count);
+                        }
+                        break;
+                    case 'd':
+                        appendNumber(piece, date.getDayOfMonth(), f.count);
+                        break;
+                    case 'D':
+                        appendNumber(piece, date.getDayOfYear(), f.count);
+                        break;
+                    case 'E':
+                        // DateFormatSymbols counts from Sunday == 1
+                        int dow = date.getDayOfWeek().getValue() % 7 + 1;
+                        piece.append(f.count >= 4 ? symbols.getWeekdays()[dow] : symbols.getShortWeekdays()[dow]);
+                        break;
+                    case 'u':
+                        appendNumber(piece, date.getDayOfWeek().getValue(), f.count);
+                        break;
+                    case 'a':
+                        piece.append(symbols.getAmPmStrings()[hour < 12 ? 0 : 1]);
+                        break;
+                    case 'H':
+                        appendNumber(piece, hour, f.count);
+                        break;
+                    case 'k':
+                        appendNumber(piece, hour == 0 ? 24 : hour, f.count);
+                        break;
+                    case 'K':
+                        appendNumber(piece, hour % 12, f.count);
+                        break;
+                    case 'h':
+                        appendNumber(piece, hour % 12 == 0 ? 12 : hour % 12, f.count);
+                        break;
+                    case 'm':
+                        appendNumber(piece, minuteOfDay % 60, f.count);
+                        break;
+                    case 'Z':
+                        appendOffset(piece, offset, 4, false);
+                        break;
+                    case 'X':
+                        if (offset == 0) {
+                            piece.append('Z');
+                        } else {
+                            appendOffset(piece, offset, f.count == 1 ? 2 : 4, f.count >= 3);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Can't happen");
+                }
+            }
+            pieces[k] = piece.toString();
+            return new Minute(minute, pieces);
+        }
+
+        /**
+         * Breaks a SimpleDateFormat pattern into fields.
+         *
+         * @return The fields or null if the pattern uses something we don't handle.
+         */
+        private static Field[] compile(String pattern) {
+            List<Field> r = Lists.newArrayList();
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            int n = pattern.length();
+            while (i < n) {
+                char c = pattern.charAt(i);
+                if (c == '\'') {
+                    if (i + 1 < n && pattern.charAt(i + 1) == '\'') {
+                        literal.append('\'');
+                        i += 2;
+                    } else {
+                        // quoted text runs to the next single quote, '' inside means a quote
+                        i++;
+                        while (i < n) {
+                            char q = pattern.charAt(i);
+                            if (q == '\'') {
+                                if (i + 1 < n && pattern.charAt(i + 1) == '\'') {
+                                    literal.append('\'');
+                                    i += 2;
+                                } else {
+                                    i++;
+                                    break;
+                                }
+                            } else {
+                                literal.append(q);
+                                i++;
+                            }
+                        }
+                    }
+                } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                    if ("yMdDEuaHkKhmsSZX".indexOf(c) < 0) {
+                        return null;
+                    }
+                    int j = i;
+                    while (j < n && pattern.charAt(j) == c) {
+                        j++;
+                    }
+                    if (c == 'X' && j - i > 3) {
+                        return null;
+                    }
+                    if (literal.length() > 0) {
+                        r.add(new Field(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    r.add(new Field(c, j - i));
+                    i = j;
+                } else {
+                    literal.append(c);
+                    i++;
+                }
+            }
+            if (literal.length() > 0) {
+                r.add(new Field(literal.toString()));
+            }
+            return r.toArray(new Field[0]);
+        }
+
+        private static void appendOffset(StringBuilder out, int offsetSeconds, int digits, boolean colon) {
+            out.append(offsetSeconds < 0 ? '-' : '+');
+            int minutes = Math.abs(offsetSeconds) / 60;
+            appendNumber(out, minutes / 60, 2);
+            if (digits == 4) {
+                if (colon) {
+                    out.append(':');
+                }
+                appendNumber(out, minutes % 60, 2);
+            }
+        }
+
+        private static void appendNumber(StringBuilder out, int value, int width) {
+            if (value < 10) {
+                for (int i = 1; i < width; i++) {
+                    out.append('0');
+                }
+                out.append((char) ('0' + value));
+            } else if (value < 100) {
+                for (int i = 2; i < width; i++) {
+                    out.append('0');
+                }
+                out.append((char) ('0' + value / 10));
+                out.append((char) ('0' + value % 10));
+            } else {
+                int digits = 3;
+                for (int x = value / 1000; x > 0; x /= 10) {
+                    digits++;
+                }
+                for (int i = digits; i < width; i++) {
+                    out.append('0');
+                }
+                out.append(value);
+            }
+        }
+    }
+
+    private static final class Field {
+        // 0 for literal text
+        final char letter;
+        final int count;
+        final String literal;
+
+        Field(char letter, int count) {
+            this.letter = letter;
+            this.count = count;
+            this.literal = null;
+        }
+
+        Field(String literal) {
+            this.letter = 0;
+            this.count = 0;
+            this.literal = literal;
+        }
+    }
+
+    private static final class Minute {
+        final long minute;
+        final String[] pieces;
+
+        Minute(long minute, String[] pieces) {
+            this.minute = minute;
+            this.pieces = pieces;
+        }
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import java.util.Random;
+
+/**
+ * A fast random number generator based on xoshiro256** that can be used anywhere a
+ * {@link java.util.Random} is expected, including the Mahout distributions. Compared to
+ * java.util.Random, this avoids the compare-and-set on every draw, has 256 bits of state
+ * instead of 48 and produces a double with one step instead of two.
+ *
+ * Instances are not thread safe. Use {@link #split()} to get an independent generator for
+ * another thread or another field.
+ *
+ * Samplers should get their generators from {@link #newRandom()} or {@link #newRandom(long)}.
+ * Setting the system property {@code log-synth.random} to {@code java} makes these return
+ * plain java.util.Random instances instead which can be handy when comparing with output from
+ * older versions.
+ *
+ * See http://prng.di.unimi.it/
+ */
+public class FastRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final boolean USE_JAVA_RANDOM = "java".equals(System.getProperty("log-synth.random", "fast"));
+
+    // no initializers allowed here since Random's constructor calls setSeed before they would run
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+
+    public FastRandom() {
+        super();
+    }
+
+    public FastRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Returns the default kind of generator with a unique seed.
+     */
+    public static Random newRandom() {
+        return USE_JAVA_RANDOM ? new Random() : new FastRandom();
+    }
+
+    /**
+     * Returns the default kind of generator with the specified seed.
+     */
+    public static Random newRandom(long seed) {
+        return USE_JAVA_RANDOM ? new Random(seed) : new FastRandom(seed);
+    }
+
+    /**
+     * Returns a new generator whose sequence is independent of this one. This generator is
+     * advanced by one step.
+     */
+    public FastRandom split() {
+        return new FastRandom(nextLong());
+    }
+
+    /**
+     * Fills the state using SplitMix64 so that even similar seeds give unrelated sequences.
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+        // clears any cached gaussian
+        super.setSeed(seed);
+        s0 = NestedRandom.mix(seed, 0);
+        s1 = NestedRandom.mix(seed, 1);
+        s2 = NestedRandom.mix(seed, 2);
+        s3 = NestedRandom.mix(seed, 3);
+    }
+
+    @Override
+    public long nextLong() {
+        final long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        final long t = s1 << 17;
+
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+
+        return result;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Lemire's nearly divisionless method for an unbiased integer in [0, bound).
+     */
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        long m = (nextLong() >>> 32) * bound;
+        long low = m & 0xffffffffL;
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (low < threshold) {
+                m = (nextLong() >>> 32) * bound;
+                low = m & 0xffffffffL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+}
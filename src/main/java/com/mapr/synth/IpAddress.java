@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+/**
+ * An IP address kept as two longs. IPv4 addresses are kept in IPv4-mapped form ({@code ::ffff:a.b.c.d})
+ * so that any address fits, but code that only deals with IPv4 can just use an int and the static
+ * methods here and never create an address object at all.
+ * <p>
+ * Addresses are mutable so that a single one can be reused for many samples. Text rendering
+ * matches {@link java.net.InetAddress#getHostAddress()}.
+ */
+public class IpAddress {
+    private static final long V4_PREFIX = 0xffffL << 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // the decimal form of every possible byte of an IPv4 address
+    private static final char[][] OCTETS = new char[256][];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            OCTETS[i] = Integer.toString(i).toCharArray();
+        }
+    }
+
+    private long high;
+    private long low;
+
+    public IpAddress() {
+        setV4(0);
+    }
+
+    public IpAddress(int v4) {
+        setV4(v4);
+    }
+
+    public IpAddress(long high, long low) {
+        set(high, low);
+    }
+
+    public void setV4(int address) {
+        high = 0;
+        low = V4_PREFIX | (address & 0xffffffffL);
+    }
+
+    public void set(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public boolean isV4() {
+        return high == 0 && (low & ~0xffffffffL) == V4_PREFIX;
+    }
+
+    /**
+     * @return The IPv4 address as an int. Only meaningful if {@link #isV4()}.
+     */
+    public int getV4() {
+        return (int) low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Appends the usual text form of the address, dotted decimal for IPv4 and eight groups of hex
+     * digits for IPv6.
+     */
+    public void append(StringBuilder out) {
+        if (isV4()) {
+            append(out, getV4());
+        } else {
+            appendGroups(out, high);
+            out.append(':');
+            appendGroups(out, low);
+        }
+    }
+
+    /**
+     * Appends the address as one hex digit pair per byte, 8 digits for IPv4 and 32 for IPv6.
+     */
+    public void appendHex(StringBuilder out) {
+        if (isV4()) {
+            appendHex(out, getV4(), 8);
+        } else {
+            appendHex(out, high, 16);
+            appendHex(out, low, 16);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder r = new StringBuilder(39);
+        append(r);
+        return r.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IpAddress)) {
+            return false;
+        }
+        IpAddress other = (IpAddress) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high) * 31 + Long.hashCode(low);
+    }
+
+    /**
+     * Appends an IPv4 address in dotted decimal form.
+     */
+    public static void append(StringBuilder out, int address) {
+        out.append(OCTETS[address >>> 24]).append('.');
+        out.append(OCTETS[(address >>> 16) & 0xff]).append('.');
+        out.append(OCTETS[(address >>> 8) & 0xff]).append('.');
+        out.append(OCTETS[address & 0xff]);
+    }
+
+    public static String toString(int address) {
+        StringBuilder r = new StringBuilder(15);
+        append(r, address);
+        return r.toString();
+    }
+
+    /**
+     * Parses a dotted decimal IPv4 address without creating any objects.
+     *
+     * @param s     Where the address is.
+     * @param start The first character of the address.
+     * @param end   One past the last character of the address.
+     * @return The address as an int.
+     * @throws IllegalArgumentException If the text isn't a valid address.
+     */
+    public static int parseV4(CharSequence s, int start, int end) {
+        int r = 0;
+        int octets = 0;
+        int i = start;
+        while (i < end) {
+            int octet = 0;
+            int digits = 0;
+            while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                octet = octet * 10 + (s.charAt(i++) - '0');
+                digits++;
+            }
+            if (digits == 0 || digits > 3 || octet >= 256) {
+                throw invalidV4(s, start, end);
+            }
+            r = (r << 8) | octet;
+            octets++;
+            if (i < end) {
+                if (s.charAt(i) != '.' || octets >= 4 || i + 1 >= end) {
+                    throw invalidV4(s, start, end);
+                }
+                i++;
+            }
+        }
+        if (octets != 4) {
+            throw invalidV4(s, start, end);
+        }
+        return r;
+    }
+
+    // only called on failure so that parsing a valid address doesn't have to build the message
+    private static IllegalArgumentException invalidV4(CharSequence s, int start, int end) {
+        return new IllegalArgumentException("Invalid IP address " + s.subSequence(start, end));
+    }
+
+    public static int parseV4(CharSequence s) {
+        return parseV4(s, 0, s.length());
+    }
+
+    private static void appendGroups(StringBuilder out, long x) {
+        for (int shift = 48; shift >= 0; shift -= 16) {
+            int group = (int) (x >>> shift) & 0xffff;
+            boolean started = false;
+            for (int digit = 12; digit >= 0; digit -= 4) {
+                int d = (group >>> digit) & 0xf;
+                if (started || d != 0 || digit == 0) {
+                    out.append(HEX[d]);
+                    started = true;
+                }
+            }
+            if (shift > 0) {
+                out.append(':');
+            }
+        }
+    }
+
+    private static void appendHex(StringBuilder out, long x, int digits) {
+        for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+            out.append(HEX[(int) (x >>> shift) & 0xf]);
+        }
+    }
+}
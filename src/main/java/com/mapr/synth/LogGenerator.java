@@ -19,44 +19,60 @@
 
 package com.mapr.synth;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
 import com.mapr.synth.distributions.LongTail;
 import com.mapr.synth.distributions.TermGenerator;
 import com.mapr.synth.distributions.WordGenerator;
-import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.jet.random.AbstractContinousDistribution;
 import org.apache.mahout.math.jet.random.Uniform;
 import org.apache.mahout.math.random.Sampler;
 
-import java.net.Inet4Address;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Random;
 
 /**
  * Generates kind of realistic log lines consisting of a user id (a cookie), an IP address and a query.
+ *
+ * Users are kept as columns of primitive arrays with the time of each user's next session in an
+ * {@link EventQueue}. That keeps each user down to a few dozen bytes so that tens of millions of
+ * users fit in memory. Each user has their own seed for the timing of their sessions and queries,
+ * but all users share the samplers for IP addresses, geo codes and query terms.
  */
 public class LogGenerator implements Sampler<LogLine> {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // the average query is a bit less than 3 words long
+    private static final double QUERY_LENGTH_RATE = 0.4;
+    // queries in a session are a couple of minutes apart
+    private static final double QUERY_TIME_RATE = 1.0 / 120;
+    // sessions average about 4 queries
+    private static final double SESSION_LENGTH_RATE = 1.0 / 4;
+
+    private final Random rand = FastRandom.newRandom();
+
     private PriorityQueue<LogLine> eventBuffer = Queues.newPriorityQueue();
-    private PriorityQueue<User> users = Queues.newPriorityQueue();
 
-    private LongTail<InetAddress> ipGenerator = new LongTail<>(100, 0.5) {
-        Random gen = new Random();
+    // one entry per user, the time of each user's next session is only kept in the queue
+    private final int[] address;
+    private final String[] geoCode;
+    private final long[] cookie;
+    // session rates only need a few digits
+    private final float[] rate;
+    private final long[] seed;
+    private final EventQueue sessions;
+
+    // IPv4 addresses, only one object is created for each distinct address
+    private LongTail<Integer> ipGenerator = new LongTail<>(100, 0.5) {
+        Random gen = FastRandom.newRandom();
 
         @Override
-        protected InetAddress createThing() {
-            int address = gen.nextInt();
-            try {
-                return Inet4Address.getByAddress(new byte[]{
-                        (byte) (address >>> 24),
-                        (byte) (0xff & (address >>> 16)),
-                        (byte) (0xff & (address >>> 8)),
-                        (byte) (0xff & (address))
-                });
-            } catch (UnknownHostException e) {
-                throw new RuntimeException("Can't happen with numeric IP address", e);
-            }
+        protected Integer createThing() {
+            return gen.nextInt();
         }
     };
 
@@ -65,49 +81,141 @@ public class LogGenerator implements Sampler<LogLine> {
     private TermGenerator geo = new TermGenerator(new WordGenerator(null, "/geo-codes"), 10, 0);
 
     // the average user visits once per day, but there is a LOT of variation between users
-    private AbstractContinousDistribution sessionRateDistribution = new Uniform(1.0 / 24 / 3600, 1.0 / 24 / 3600, RandomUtils.getRandom());
+    private AbstractContinousDistribution sessionRateDistribution = new Uniform(1.0 / 24 / 3600, 1.0 / 24 / 3600, FastRandom.newRandom());
+
+    /**
+     * @return A view of all of the users. Each user is only created as it is needed.
+     */
+    public List<User> getUsers() {
+        return new AbstractList<User>() {
+            @Override
+            public User get(int i) {
+                return new User(address[i], cookie[i], geoCode[i]);
+            }
 
-    public Iterable<User> getUsers() {
-        return users;
+            @Override
+            public int size() {
+                return cookie.length;
+            }
+        };
     }
 
     public LogGenerator(int userCount) {
+        this(userCount, null);
+    }
+
+    /**
+     * Splits a population of users among several generators. The users are all created from the
+     * same IP address and geo code samplers so the population looks the same as if there were a
+     * single generator, but each generator has its own query terms and randomness and so can be
+     * run in its own thread.
+     *
+     * @param userCount How many users in all.
+     * @param parts     How many generators to split them among.
+     * @return The generators.
+     */
+    public static List<LogGenerator> partition(int userCount, int parts) {
+        Preconditions.checkArgument(parts > 0, "Must have at least one partition");
+        // a generator without users would have nothing to sample
+        Preconditions.checkArgument(parts <= userCount, "Can't split %s users among %s generators", userCount, parts);
+        List<LogGenerator> r = Lists.newArrayList();
+        LogGenerator first = null;
+        for (int i = 0; i < parts; i++) {
+            LogGenerator g = new LogGenerator(userCount / parts + (i < userCount % parts ? 1 : 0), first);
+            if (first == null) {
+                first = g;
+            }
+            r.add(g);
+        }
+        return r;
+    }
+
+    /**
+     * @param userCount How many users this generator has.
+     * @param shared    Where to get IP addresses and geo codes for users, null for this generator.
+     */
+    private LogGenerator(int userCount, LogGenerator shared) {
+        if (shared == null) {
+            shared = this;
+        }
+        address = new int[userCount];
+        geoCode = new String[userCount];
+        cookie = new long[userCount];
+        rate = new float[userCount];
+        seed = new long[userCount];
+        sessions = new EventQueue(userCount);
         for (int i = 0; i < userCount; i++) {
-            users.add(new User(ipGenerator.sample(), geo.sample(), terms, sessionRateDistribution.nextDouble()));
+            address[i] = shared.ipGenerator.sample();
+            geoCode[i] = shared.geo.sample();
+            cookie[i] = rand.nextLong();
+            rate[i] = (float) sessionRateDistribution.nextDouble();
+            seed[i] = rand.nextLong();
+            sessions.add(exponential(i, rate[i]), i);
         }
     }
 
     public LogLine sample() {
         LogLine firstEvent = eventBuffer.peek();
         double t1 = firstEvent != null ? firstEvent.getT() : Double.POSITIVE_INFINITY;
-        assert users.peek() != null;
-        double t2 = users.peek().getNextSession();
+        double t2 = sessions.peekTime();
 
         // while some user has activity before the first buffered event generate that
         // session and fill in the event buffer
         while (t2 < t1) {
-            User u = users.poll();
-            assert u != null;
+            int u = sessions.peek();
 
-            // generate a session into the event buffer
-            u.session(eventBuffer);
+            // generate a session into the event buffer and
+            // the user now has new time for next session
+            sessions.replaceTop(session(u, t2), u);
 
-            // user now has new time for next session
-            users.add(u);
-
-            // if u.session() schedules an event at the time the users session start, then this will never
+            // if session() schedules an event at the time the users session start, then this will never
             // allow another loop. On the other hand, if the first event of a session is sometime after
             // the session starts or if a session has no events, then another user might have a session
             // start time before the next event
             firstEvent = eventBuffer.peek();
             t1 = firstEvent != null ? firstEvent.getT() : Double.POSITIVE_INFINITY;
-            assert users.peek() != null;
-            t2 = users.peek().getNextSession();
+            t2 = sessions.peekTime();
         }
         return eventBuffer.poll();
     }
 
     public int getUserCount() {
-        return users.size();
+        return cookie.length;
+    }
+
+    /**
+     * Adds the queries for one session to the event buffer.
+     *
+     * @param u     The user having the session.
+     * @param start When the session starts.
+     * @return When the user's next session starts.
+     */
+    private double session(int u, double start) {
+        int sessionLength = (int) (exponential(u, SESSION_LENGTH_RATE) + 1);
+        double t = start;
+        for (int i = 0; i < sessionLength; i++) {
+            eventBuffer.add(new LogLine(t, address[u], cookie[u], query(u), rand));
+            t += exponential(u, QUERY_TIME_RATE);
+        }
+        return start + exponential(u, rate[u]);
+    }
+
+    private List<String> query(int u) {
+        int n = (int) Math.round(exponential(u, QUERY_LENGTH_RATE)) + 1;
+        String[] r = new String[n];
+        for (int i = 0; i < n; i++) {
+            r[i] = terms.sample();
+        }
+        return Arrays.asList(r);
+    }
+
+    /**
+     * Samples an exponential distribution using the random stream that belongs to one user. Each
+     * user's stream is a SplitMix64 generator whose only state is that user's seed.
+     */
+    private double exponential(int u, double rate) {
+        seed[u] += GOLDEN_GAMMA;
+        double x = (NestedRandom.mix(seed[u], -1) >>> 11) * 0x1.0p-53;
+        return -Math.log1p(-x) / rate;
     }
 }
@@ -21,8 +21,6 @@ package com.mapr.synth;
 
 import com.google.common.collect.ImmutableSet;
 
-import java.net.InetAddress;
-import java.util.Formatter;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -37,24 +35,30 @@ public class LogLine implements Comparable<LogLine> {
     // these add up to enough to cause 0.3% of the queries to be 5x slower
     private static final Set<String> slowWords = ImmutableSet.of("company", "office", "boss", "law",
             "chocolate", "drinking", "table", "english");
-    private final Random rand = new Random();
-
-    private InetAddress ip;
+    // IPv4 address
+    private int ip;
     private long cookie;
     private List<String> query;
     private double t;
     private final double responseTime;
     private int id = counter.addAndGet(1);
 
-    public LogLine(double t, InetAddress ip, long cookie, List<String> query) {
+    public LogLine(double t, int ip, long cookie, List<String> query) {
+        this(t, ip, cookie, query, FastRandom.newRandom());
+    }
+
+    /**
+     * @param rand Used to pick the response time. This is normally shared by many log lines.
+     */
+    public LogLine(double t, int ip, long cookie, List<String> query, Random rand) {
         this.t = t;
         this.cookie = cookie;
         this.ip = ip;
         this.query = query;
-        this.responseTime = sampleResponseTime(query);
+        this.responseTime = sampleResponseTime(query, rand);
     }
 
-    private double sampleResponseTime(List<String> query) {
+    private static double sampleResponseTime(List<String> query, Random rand) {
         double mean = 0;
         for (String s : query) {
             if (slowWords.contains(s)) {
@@ -66,19 +70,20 @@ public class LogLine implements Comparable<LogLine> {
         return Math.exp(Math.log(mean) + rand.nextGaussian() / 3);
     }
 
-    public LogLine(double t, User user) {
-        this(t, user.getAddress(), user.getCookie(), user.getQuery());
-    }
-
     public String toString() {
-        Formatter r = new Formatter();
-        r.format("{t: %.3f, cookie:\"%08x\", ip:\"%s\", query:", t, cookie, ip.getHostAddress());
+        StringBuilder r = new StringBuilder("{t: ");
+        LogLineFormatter.appendFixed(r, t, 3);
+        r.append(", cookie:\"");
+        LogLineFormatter.appendHex(r, cookie);
+        r.append("\", ip:\"");
+        IpAddress.append(r, ip);
+        r.append("\", query:");
         String sep = "[";
         for (String term : query) {
-            r.format("%s\"%s\"", sep, term);
+            r.append(sep).append('"').append(term).append('"');
             sep = ",";
         }
-        r.format("]}");
+        r.append("]}");
         return r.toString();
     }
 
@@ -90,7 +95,7 @@ public class LogLine implements Comparable<LogLine> {
         return id;
     }
 
-    public InetAddress getIp() {
+    public int getIp() {
         return ip;
     }
 
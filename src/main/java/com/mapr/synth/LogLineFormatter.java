@@ -19,24 +19,29 @@
 
 package com.mapr.synth;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 
 /**
  * Log lines can be formated in different ways
+ *
+ * Each line is rendered into a buffer that is reused from line to line and then written with a
+ * single call. Numbers, cookies and IP addresses are rendered directly instead of going through
+ * {@link java.util.Formatter} which is many times slower and makes a lot of garbage.
  */
 public abstract class LogLineFormatter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     private final boolean withResponseTimes;
     private PrintWriter log;
+    private final StringBuilder buffer = new StringBuilder();
 
     public LogLineFormatter(Writer log, boolean withResponseTimes) {
         this.log = new PrintWriter(log);
         this.withResponseTimes = withResponseTimes;
     }
 
-    public static LogLineFormatter create(BufferedWriter log, Main.Format format, boolean withResponseTimes) {
+    public static LogLineFormatter create(Writer log, Main.Format format, boolean withResponseTimes) {
         switch (format) {
             case JSON:
                 return new JsonFormatter(log, withResponseTimes);
@@ -48,49 +53,133 @@ public abstract class LogLineFormatter {
         return null;
     }
 
-    public abstract void write(LogLine sample);
+    public void write(LogLine sample) {
+        buffer.setLength(0);
+        format(sample, buffer);
+        log.append(buffer);
+    }
+
+    /**
+     * Renders a log line, including the final newline.
+     *
+     * @param sample The line to render.
+     * @param out    Where to put the result.
+     */
+    public abstract void format(LogLine sample, StringBuilder out);
 
     public PrintWriter getLog() {
         return log;
     }
 
+    /**
+     * Appends a non-negative number with a fixed number of decimal places, the same as
+     * {@code %.3f} would for 3 places.
+     */
+    static void appendFixed(StringBuilder out, double x, int places) {
+        long scale = 1;
+        for (int i = 0; i < places; i++) {
+            scale *= 10;
+        }
+        double scaled = x * scale;
+        if (!(scaled >= 0 && scaled < Long.MAX_VALUE)) {
+            // NaN, negative or huge numbers are rare enough to do the slow way
+            out.append(String.format("%." + places + "f", x));
+            return;
+        }
+        long n = Math.round(scaled);
+        out.append(n / scale);
+        if (places > 0) {
+            out.append('.');
+            long fraction = n % scale;
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                out.append((char) ('0' + fraction / digit % 10));
+            }
+        }
+    }
+
+    /**
+     * Appends a number in hex with at least 8 digits, the same as {@code %08x} would.
+     */
+    static void appendHex(StringBuilder out, long x) {
+        int digits = Math.max(8, (64 - Long.numberOfLeadingZeros(x) + 3) / 4);
+        for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+            out.append(HEX[(int) (x >>> shift) & 0xf]);
+        }
+    }
+
+    /**
+     * Appends a string as the inside of a JSON string, escaping anything that needs it.
+     */
+    static void appendEscaped(StringBuilder out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
     private static class CsvFormatter extends LogLineFormatter {
-        public CsvFormatter(BufferedWriter log, boolean withResponseTimes) {
+        public CsvFormatter(Writer log, boolean withResponseTimes) {
             super(log, withResponseTimes);
         }
 
-        public void write(LogLine sample) {
-            getLog().printf("%.3f,%08x,%s,", sample.getT(), sample.getCookie(), sample.getIp().getHostAddress());
-            String sep = "\"";
+        @Override
+        public void format(LogLine sample, StringBuilder out) {
+            appendFixed(out, sample.getT(), 3);
+            out.append(',');
+            appendHex(out, sample.getCookie());
+            out.append(',');
+            IpAddress.append(out, sample.getIp());
+            out.append(',');
+            char sep = '"';
             for (String term : sample.getQuery()) {
-                getLog().format("%s%s", sep, term);
-                sep = " ";
+                out.append(sep).append(term);
+                sep = ' ';
             }
-            getLog().format("\"");
+            out.append('"');
             if (super.withResponseTimes) {
-                getLog().printf(",%.1f", sample.getResponseTime() * 1000);
+                out.append(',');
+                appendFixed(out, sample.getResponseTime() * 1000, 1);
             }
-            getLog().format("\n");
+            out.append('\n');
         }
     }
 
     private static class JsonFormatter extends LogLineFormatter {
-        public JsonFormatter(BufferedWriter log, boolean withResponseTimes) {
+        public JsonFormatter(Writer log, boolean withResponseTimes) {
             super(log, withResponseTimes);
         }
 
-        public void write(LogLine sample) {
-            getLog().printf("{\"t\": %.3f, \"cookie\":\"%08x\", \"ip\":\"%s\", \"query\":", sample.getT(), sample.getCookie(), sample.getIp().getHostAddress());
-            String sep = "[";
+        @Override
+        public void format(LogLine sample, StringBuilder out) {
+            out.append("{\"t\": ");
+            appendFixed(out, sample.getT(), 3);
+            out.append(", \"cookie\":\"");
+            appendHex(out, sample.getCookie());
+            out.append("\", \"ip\":\"");
+            IpAddress.append(out, sample.getIp());
+            out.append("\", \"query\":");
+            String sep = "[\"";
             for (String term : sample.getQuery()) {
-                getLog().format("%s\"%s\"", sep, term);
-                sep = ", ";
+                out.append(sep);
+                appendEscaped(out, term);
+                out.append('"');
+                sep = ", \"";
+            }
+            if (sample.getQuery().isEmpty()) {
+                out.append('[');
             }
-            getLog().format("]");
+            out.append(']');
             if (super.withResponseTimes) {
-                getLog().printf(", \"responseTime\": %.1f", sample.getResponseTime() * 1000);
+                out.append(", \"responseTime\": ");
+                appendFixed(out, sample.getResponseTime() * 1000, 1);
             }
-            getLog().format("]}\n");
+            out.append("}\n");
         }
     }
 }
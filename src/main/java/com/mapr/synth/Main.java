@@ -21,19 +21,28 @@ package com.mapr.synth;
 
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mapr.stats.UpperQuantile;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
-import org.kohsuke.args4j.OptionDef;
-import org.kohsuke.args4j.spi.IntOptionHandler;
-import org.kohsuke.args4j.spi.Setter;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Create a query log with a specified number of log lines and an associated user profile database.
@@ -42,44 +51,235 @@ import java.util.List;
  * name of the file to store the user profile database in.
  *
  * Log lines and user profile entries are single line JSON.
+ *
+ * With -threads, the users are split among that many generators that each run in their own thread.
+ * Normally, the log lines from all of the generators are merged into a single log in time order.
+ * With -shards, each generator writes its own file instead and each of these files is in time order
+ * by itself.
  */
 public class Main {
+    // how often to report progress
+    private static final long REPORT_INTERVAL = 50000;
+
+    // how many log lines a generator passes to the merge at a time
+    private static final int BATCH_SIZE = 1000;
+
+    // response times are kept exactly for this many of the slowest lines and estimated for the rest
+    private static final int SLOWEST_RETAINED = 1000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         Options opts = new Options();
         CmdLineParser parser = new CmdLineParser(opts);
         try {
             parser.parseArgument(args);
         } catch (CmdLineException e) {
-            System.err.println("Usage: -count <number>G|M|K [ -users number ] [-format JSON|LOG|CSV ] [-with-response-time] log-file user-profiles");
+            System.err.println("Usage: -count <number>G|M|K [ -users number ] [-threads n [-shards]] [-format JSON|LOG|CSV ] [-with-response-time] log-file user-profiles");
             System.exit(1);
         }
+        Preconditions.checkArgument(opts.files != null && opts.files.size() == 2, "Need a log file and a user profile file");
+        Preconditions.checkArgument(opts.threads > 0, "Must have at least one thread");
+        Preconditions.checkArgument(opts.threads <= opts.users, "Can't have more threads (%s) than users (%s)", opts.threads, opts.users);
+
+        List<LogGenerator> generators = LogGenerator.partition(opts.users, opts.threads);
+        Progress progress = new Progress();
+        UpperQuantile responseTimes = new UpperQuantile(SLOWEST_RETAINED, 100);
+        if (opts.shards) {
+            writeShards(opts, generators, progress, responseTimes);
+        } else if (opts.threads > 1) {
+            writeMerged(opts, generators, progress, responseTimes);
+        } else {
+            LogGenerator lg = generators.get(0);
+            //noinspection UnstableApiUsage
+            BufferedWriter log = Files.newWriter(new File(opts.files.get(0)), Charsets.UTF_8);
+            LogLineFormatter out = LogLineFormatter.create(log, opts.format, opts.withResponseTimes);
+            for (long i = 0; i < opts.count; i++) {
+                progress.add(1);
+                LogLine sample = lg.sample();
+                assert out != null;
+                out.write(sample);
+                responseTimes.add(sample.getResponseTime());
+            }
+            log.close();
+        }
+        if (responseTimes.size() > 0) {
+            StringBuilder report = new StringBuilder("response time (ms):");
+            for (double p : PERCENTILES) {
+                report.append(String.format(" %s%% %.1f", BigDecimal.valueOf(p).stripTrailingZeros().toPlainString(),
+                        responseTimes.quantile(p / 100) * 1000));
+            }
+            System.out.println(report);
+        }
+
+        //noinspection UnstableApiUsage
+        BufferedWriter profile = Files.newWriter(new File(opts.files.get(1)), Charsets.UTF_8);
+        for (LogGenerator lg : generators) {
+            for (User user : lg.getUsers()) {
+                profile.write(user.toString());
+                profile.newLine();
+            }
+        }
+        profile.close();
+    }
+
+    /**
+     * Each generator writes its share of the log lines to its own file.
+     */
+    private static void writeShards(Options opts, List<LogGenerator> generators, Progress progress, UpperQuantile responseTimes) throws InterruptedException, IOException {
+        int n = generators.size();
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        try {
+            List<Future<Void>> tasks = Lists.newArrayList();
+            for (int i = 0; i < n; i++) {
+                LogGenerator lg = generators.get(i);
+                File file = new File(String.format("%s-%04d", opts.files.get(0), i));
+                long count = opts.count / n + (i < opts.count % n ? 1 : 0);
+                tasks.add(pool.submit(() -> {
+                    //noinspection UnstableApiUsage
+                    try (BufferedWriter log = Files.newWriter(file, Charsets.UTF_8)) {
+                        LogLineFormatter out = LogLineFormatter.create(log, opts.format, opts.withResponseTimes);
+                        assert out != null;
+                        // each shard keeps its own response times so that threads don't contend
+                        UpperQuantile local = new UpperQuantile(SLOWEST_RETAINED, 100);
+                        for (long j = 0; j < count; j++) {
+                            if (j % BATCH_SIZE == 0) {
+                                progress.add(Math.min(BATCH_SIZE, count - j));
+                            }
+                            LogLine sample = lg.sample();
+                            out.write(sample);
+                            local.add(sample.getResponseTime());
+                        }
+                        responseTimes.merge(local);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to write log shard", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
+    /**
+     * Each generator formats log lines in its own thread and these are merged into a single log in
+     * time order. Since each generator produces its lines in time order, the merge only needs to
+     * look at the next line from each one.
+     */
+    private static void writeMerged(Options opts, List<LogGenerator> generators, Progress progress, UpperQuantile responseTimes) throws InterruptedException, IOException {
+        int n = generators.size();
+        ExecutorService pool = Executors.newFixedThreadPool(n, new ThreadFactoryBuilder().setDaemon(true).build());
+        Producer[] producers = new Producer[n];
+        for (int i = 0; i < n; i++) {
+            producers[i] = new Producer(generators.get(i), opts);
+            pool.submit(producers[i]);
+        }
 
-        LogGenerator lg = new LogGenerator(opts.users);
         //noinspection UnstableApiUsage
-        BufferedWriter log = Files.newWriter(new File(opts.files.get(0)), Charsets.UTF_8);
-        LogLineFormatter out = LogLineFormatter.create(log, opts.format, opts.withResponseTimes);
-        long t0 = System.nanoTime();
-        for (int i = 0; i < opts.count; i++) {
-            if (i % 50000 == 0) {
+        try (BufferedWriter log = Files.newWriter(new File(opts.files.get(0)), Charsets.UTF_8)) {
+            Batch[] current = new Batch[n];
+            int[] position = new int[n];
+            EventQueue heads = new EventQueue(n);
+            for (int i = 0; i < n; i++) {
+                current[i] = producers[i].next();
+                heads.add(current[i].times[0], i);
+            }
+            for (long k = 0; k < opts.count; k++) {
+                progress.add(1);
+                int i = heads.peek();
+                responseTimes.add(current[i].responseTimes[position[i]]);
+                log.write(current[i].lines[position[i]++]);
+                if (position[i] == BATCH_SIZE) {
+                    current[i] = producers[i].next();
+                    position[i] = 0;
+                }
+                heads.replaceTop(current[i].times[position[i]], i);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Prints how many lines have been written every so often along with the time taken since the
+     * last report.
+     */
+    private static class Progress {
+        private long lines = 0;
+        private long t0 = System.nanoTime();
+
+        synchronized void add(long n) {
+            long before = lines;
+            lines += n;
+            for (long i = (before + REPORT_INTERVAL - 1) / REPORT_INTERVAL * REPORT_INTERVAL; i < lines; i += REPORT_INTERVAL) {
                 long t1 = System.nanoTime();
                 System.out.printf("%d\t%.3f\n", i, (t1 - t0) / 1e9);
                 t0 = t1;
             }
-            LogLine sample = lg.sample();
-            assert out != null;
-            out.write(sample);
         }
-        log.close();
+    }
 
-        //noinspection UnstableApiUsage
-        BufferedWriter profile = Files.newWriter(new File(opts.files.get(1)), Charsets.UTF_8);
-        for (User user : lg.getUsers()) {
-            profile.write(user.toString());
-            profile.newLine();
+    /**
+     * Formatted log lines from one generator along with their times.
+     */
+    private static class Batch {
+        final double[] times = new double[BATCH_SIZE];
+        final String[] lines = new String[BATCH_SIZE];
+        final double[] responseTimes = new double[BATCH_SIZE];
+    }
+
+    /**
+     * Runs one generator in its own thread, passing on batches of formatted lines.
+     */
+    private static class Producer implements Runnable {
+        private final LogGenerator generator;
+        private final BlockingQueue<Batch> output = new ArrayBlockingQueue<>(16);
+        private final StringBuilder buffer = new StringBuilder();
+        private final LogLineFormatter formatter;
+        private volatile Throwable failure = null;
+
+        Producer(LogGenerator generator, Options opts) {
+            this.generator = generator;
+            // lines are only formatted here, the merge does the writing
+            this.formatter = LogLineFormatter.create(Writer.nullWriter(), opts.format, opts.withResponseTimes);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Batch batch = new Batch();
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        LogLine sample = generator.sample();
+                        buffer.setLength(0);
+                        formatter.format(sample, buffer);
+                        batch.times[i] = sample.getT();
+                        batch.lines[i] = buffer.toString();
+                        batch.responseTimes[i] = sample.getResponseTime();
+                    }
+                    output.put(batch);
+                }
+            } catch (InterruptedException e) {
+                // the merge has all the lines it needs
+            } catch (Throwable e) {
+                failure = e;
+                output.offer(new Batch());
+            }
+        }
+
+        /**
+         * Waits for the next batch of lines.
+         */
+        Batch next() throws InterruptedException, IOException {
+            Batch r = output.take();
+            if (failure != null) {
+                throw new IOException("Log generator failed", failure);
+            }
+            return r;
         }
-        profile.close();
     }
 
     public enum Format {
@@ -90,8 +290,14 @@ public class Main {
         @Option(name="-users")
         int users = 100000;
 
-        @Option(name = "-count", handler = SizeParser.class)
-        int count = 1000000;
+        @Option(name = "-count", handler = Util.SizeParser.class)
+        long count = 1000000;
+
+        @Option(name = "-threads")
+        int threads = 1;
+
+        @Option(name = "-shards")
+        boolean shards = false;
 
         @Option(name = "-format")
         Format format = Format.LOG;
@@ -101,16 +307,5 @@ public class Main {
 
         @Argument()
         List<String> files;
-
-        public static class SizeParser extends IntOptionHandler {
-            public SizeParser(CmdLineParser parser, OptionDef option, Setter<? super Integer> setter) {
-                super(parser, option, setter);
-            }
-
-            @Override
-            protected Integer parse(String argument) throws NumberFormatException {
-                return Util.parseInteger(argument);
-            }
-        }
     }
 }
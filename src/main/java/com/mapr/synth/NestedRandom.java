@@ -108,6 +108,23 @@ public class NestedRandom implements Iterable<NestedRandom> {
         return new Random(hash(0));
     }
 
+    /**
+     * Derives a seed from a base seed and a counter such as a row number. Unlike the tree of
+     * generators above, this is cheap enough to use for every row and lets any row's randomness
+     * be recreated without generating any of the rows before it. This is the SplitMix64
+     * finalizer applied to a Weyl sequence.
+     *
+     * @param seed  The base seed.
+     * @param index Which value in the counter-based stream to get.
+     * @return A well mixed seed.
+     */
+    public static long mix(long seed, long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     private NestedRandom(NestedRandom parent, int value) {
         this.parent = parent;
         content = null;
@@ -25,6 +25,9 @@ import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mapr.stats.UpperQuantile;
 import com.mapr.synth.samplers.SchemaSampler;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
@@ -37,27 +40,35 @@ import org.kohsuke.args4j.OptionDef;
 import org.kohsuke.args4j.spi.IntOptionHandler;
 import org.kohsuke.args4j.spi.Setter;
 
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.security.AccessControlException;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -75,6 +86,9 @@ import java.util.stream.Collectors;
 public class Synth {
 
     private static final int REPORTING_DELTA = 500;
+    // the slowest blocks are timed exactly, the rest are estimated
+    private static final int SLOWEST_BLOCKS = 1000;
+    private static final int SHUTDOWN_GRACE_SECONDS = 60;
 
     public static void main(String[] args) throws IOException, CmdLineException, InterruptedException {
         final Options opts = new Options();
@@ -88,6 +102,10 @@ public class Synth {
                     "[-quote DOUBLE_QUOTE|BACK_SLASH|OPTIMISTIC] " +
                     "[-format JSON|TSV|CSV|XML ] " +
                     "[-threads n] " +
+                    "[-io-threads n] " +
+                    "[-checkpoint seconds] " +
+                    "[-resume] " +
+                    "[-time-order field [-lookahead events]] " +
                     "[-output output-directory-name] ");
             throw e;
         }
@@ -103,6 +121,22 @@ public class Synth {
                     "If more than on thread is used, you have to use -output to set the output directory");
         }
 
+        Preconditions.checkArgument(opts.ioThreads >= 0, "Number of I/O threads can't be negative");
+        Preconditions.checkArgument(opts.ioThreads == 0 || !"-".equals(opts.output),
+                "Asynchronous output with -io-threads requires -output");
+
+        boolean checkpointing = opts.checkpointInterval > 0 || opts.resume;
+        Preconditions.checkArgument(!checkpointing || !"-".equals(opts.output),
+                "Checkpoints and -resume require -output");
+        Preconditions.checkArgument(!checkpointing || opts.format != Format.XML,
+                "Checkpoints and -resume can't be used with XML output");
+
+        Preconditions.checkArgument(opts.timeOrder == null || !checkpointing,
+                "Checkpoints and -resume can't be used with -time-order");
+        Preconditions.checkArgument(opts.timeOrder == null || opts.format != Format.XML,
+                "-time-order can't be used with XML output");
+        Preconditions.checkArgument(opts.lookahead > 0, "Lookahead must be positive");
+
         File outputDir = new File(opts.output);
         if (!"-".equals(opts.output)) {
             if (!outputDir.exists()) {
@@ -117,6 +151,14 @@ public class Synth {
         }
         final AtomicLong rowCount = new AtomicLong();
 
+        Checkpoint checkpoint = null;
+        if (opts.resume) {
+            checkpoint = Checkpoint.load(outputDir, opts.count, opts.threads);
+        } else if (checkpointing) {
+            checkpoint = Checkpoint.create(outputDir, opts.count, opts.threads, new Random().nextLong());
+            checkpoint.save();
+        }
+
         Template template = null;
         if (opts.template != null) {
             final Configuration cfg = new Configuration(Configuration.VERSION_2_3_21);
@@ -127,6 +169,16 @@ public class Synth {
             template = cfg.getTemplate(opts.template.getName());
         }
 
+        // with asynchronous output, writing happens on separate I/O threads so generator threads
+        // don't sit blocked on a slow sink
+        ExecutorService ioPool = null;
+        if (opts.ioThreads > 0) {
+            ioPool = Executors.newFixedThreadPool(opts.ioThreads,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("synth-io-%d").build());
+        }
+
+        final AtomicBoolean stopping = new AtomicBoolean(false);
+        final CountDownLatch finished = new CountDownLatch(opts.threads);
         final List<ReportingWorker> tasks = Lists.newArrayList();
         int limit = (opts.count + opts.threads) / opts.threads;
         int remaining = opts.count;
@@ -136,11 +188,34 @@ public class Synth {
             remaining -= count;
 
             final SchemaSampler sampler = new SchemaSampler(opts.schema);
-            tasks.add(new ReportingWorker(opts, sampler, template, rowCount, count, i));
+            tasks.add(new ReportingWorker(opts, sampler, template, ioPool, checkpoint, stopping, finished, rowCount, count, i));
         }
 
+        // on SIGTERM (or ^C), workers finish their current block of rows, flush their output and
+        // record a last checkpoint before we let the JVM go down. Standard output isn't written in
+        // blocks so there is nothing to wait for in that case.
+        boolean toFiles = !"-".equals(opts.output);
+        Thread cleanShutdown = new Thread(() -> {
+            stopping.set(true);
+            try {
+                if (!finished.await(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                    System.err.println("Timed out waiting for output to be flushed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        if (toFiles) {
+            Runtime.getRuntime().addShutdownHook(cleanShutdown);
+        }
+
+        // Without -io-threads, generator threads also block on writes so there is one per output
+        // file. With it, generation only needs CPU so there are no more generator threads than
+        // cores and they take turns generating blocks of rows for all of the files.
+        int generatorThreads = ioPool == null ? opts.threads : Math.min(opts.threads, Runtime.getRuntime().availableProcessors());
+
         final double t0 = System.nanoTime() * 1e-9;
-        ExecutorService pool = Executors.newFixedThreadPool(opts.threads);
+        ExecutorService pool = Executors.newFixedThreadPool(generatorThreads);
         ScheduledExecutorService blinker = Executors.newScheduledThreadPool(1);
         final AtomicBoolean finalRun = new AtomicBoolean(false);
         final AtomicInteger liveThreads = new AtomicInteger(opts.threads);
@@ -168,9 +243,29 @@ public class Synth {
         if (!"-".equals(opts.output)) {
             blinker.scheduleAtFixedRate(blink, 0, 5, TimeUnit.SECONDS);
         }
-        Set<Future<Integer>> results = tasks.stream()
-                .map(pool::submit)
-                .collect(Collectors.toCollection(HashSet::new));
+        Set<Future<Integer>> results;
+        if (toFiles) {
+            // each generator thread takes a file from the queue, generates a block of rows for it
+            // and puts it back at the end
+            Queue<ReportingWorker> ready = new ConcurrentLinkedQueue<>(tasks);
+            for (int i = 0; i < generatorThreads; i++) {
+                pool.submit(() -> {
+                    ReportingWorker task;
+                    while ((task = ready.poll()) != null) {
+                        if (task.advance()) {
+                            ready.add(task);
+                        }
+                    }
+                });
+            }
+            results = tasks.stream()
+                    .<Future<Integer>>map(task -> task.result)
+                    .collect(Collectors.toCollection(HashSet::new));
+        } else {
+            results = tasks.stream()
+                    .map(pool::submit)
+                    .collect(Collectors.toCollection(HashSet::new));
+        }
 
         int total = 0;
         while (true) {
@@ -196,10 +291,35 @@ public class Synth {
             Thread.sleep(500);
         }
         pool.shutdownNow();
+        if (ioPool != null) {
+            ioPool.shutdown();
+        }
         blinker.shutdownNow();
         finalRun.set(true);
         sideLog.close();
         blink.run();
+        if (!"-".equals(opts.output)) {
+            UpperQuantile blockTimes = new UpperQuantile(SLOWEST_BLOCKS, 100);
+            for (ReportingWorker task : tasks) {
+                blockTimes.merge(task.blockTimes);
+            }
+            if (blockTimes.size() > 0) {
+                System.err.printf("block times (ms for %d rows): 50%% %.2f, 90%% %.2f, 99%% %.2f, max %.2f\n", REPORTING_DELTA,
+                        blockTimes.quantile(0.5), blockTimes.quantile(0.9), blockTimes.quantile(0.99), blockTimes.quantile(1));
+            }
+        }
+        if (stopping.get()) {
+            System.err.printf("Stopped early with %d of %d rows written%s\n", total, opts.count,
+                    checkpoint != null ? ", use -resume to continue" : "");
+            return;
+        }
+        if (toFiles) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(cleanShutdown);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        }
         Preconditions.checkState(total == opts.count,
                 String.format("Expected to generate %d lines of output, but actually generated %d", opts.count, total));
     }
@@ -221,12 +341,34 @@ public class Synth {
         final AtomicLong lastThreadTime;
         final AtomicLong lastRowCount;
         final Template template;
+        final Executor ioPool;
+        final Checkpoint checkpoint;
+        final AtomicBoolean stopping;
+        final CountDownLatch finished;
         final AtomicBoolean working = new AtomicBoolean(true);
-
-        private static XmlMapper xmlMapper;
-        private static XMLStreamWriter sw;
-
-        ReportingWorker(final Options opts, final SchemaSampler sampler, final Template template, final AtomicLong rowCount, final int count, final int fileNumber) {
+        // how long each block of rows took to generate, in ms
+        final UpperQuantile blockTimes = new UpperQuantile(SLOWEST_BLOCKS, 100);
+
+        // completes when the output file for this partition is done
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        // the state of an output file that is being written a block at a time
+        private Path outputPath;
+        private long startBytes = 0;
+        private AsyncOutputStream async = null;
+        private CountingOutputStream counter;
+        private TimeMerger merger;
+        private PrintStream out = null;
+        private int rows;
+        private long lastCheckpoint;
+
+        // each file needs its own since files can be worked on by any thread
+        private XmlMapper xmlMapper;
+        private XMLStreamWriter sw;
+
+        ReportingWorker(final Options opts, final SchemaSampler sampler, final Template template, final Executor ioPool,
+                        final Checkpoint checkpoint, final AtomicBoolean stopping, final CountDownLatch finished,
+                        final AtomicLong rowCount, final int count, final int fileNumber) {
             mx = ManagementFactory.getThreadMXBean();
             try {
                 if (mx.isThreadCpuTimeSupported())
@@ -244,6 +386,10 @@ public class Synth {
             this.count = count;
             this.fileNumber = fileNumber;
             this.template = template;
+            this.ioPool = ioPool;
+            this.checkpoint = checkpoint;
+            this.stopping = stopping;
+            this.finished = finished;
             switch (opts.format) {
                 default:
                 case JSON:
@@ -262,53 +408,214 @@ public class Synth {
             localCount = this.count;
             lastWall = new AtomicLong(System.nanoTime());
             wallTime = new AtomicLong(lastWall.get());
-            lastThreadTime = new AtomicLong(mx.getCurrentThreadCpuTime());
-            threadTime = new AtomicLong(lastThreadTime.get());
-            lastUserTime = new AtomicLong(mx.getCurrentThreadUserTime());
-            userTime = new AtomicLong(lastThreadTime.get());
+            // CPU times are totals for the blocks generated so far
+            lastThreadTime = new AtomicLong(0);
+            threadTime = new AtomicLong(0);
+            lastUserTime = new AtomicLong(0);
+            userTime = new AtomicLong(0);
             lastRowCount = new AtomicLong(0);
         }
 
+        /**
+         * Writes all of the rows to standard output. Output files are written using {@link #advance()} instead.
+         */
         @Override
         public Integer call() throws Exception {
-            if ("-".equals(opts.output)) {
+            Preconditions.checkState("-".equals(opts.output), "Output files are written a block at a time");
+            try {
+                if (opts.timeOrder != null) {
+                    try (TimeMerger merger = new TimeMerger(opts.timeOrder, opts.lookahead, null)) {
+                        generateEvents(merger, localCount);
+                        writeOrdered(merger, System.out);
+                    }
+                    return localCount;
+                }
                 return generateFile(opts, sampler, template, System.out, localCount);
-            } else {
-                Path outputPath = new File(opts.output, String.format("synth-%04d.%s", fileNumber, extension)).toPath();
+            } finally {
+                working.set(false);
+                finished.countDown();
+            }
+        }
 
-                try (PrintStream out = new PrintStream(Files.newOutputStream(outputPath,
-                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+        /**
+         * Generates the next block of rows for this partition's output file, opening the file first
+         * if need be. Once all of the rows are done, or we are stopping, the file is finished off and
+         * {@link #result} completes. Blocks for a file are generated one at a time, but not
+         * necessarily by the same thread.
+         *
+         * @return True if there are more blocks to generate.
+         */
+        boolean advance() {
+            try {
+                if (out == null) {
+                    open();
+                }
+                if (rows < localCount && !stopping.get()) {
+                    generateBlock();
+                    if (rows < localCount && !stopping.get()) {
+                        return true;
+                    }
+                }
+                finish();
+                result.complete(rows);
+            } catch (Throwable e) {
+                release();
+                result.completeExceptionally(e);
+            }
+            working.set(false);
+            finished.countDown();
+            return false;
+        }
 
-                    if (opts.format == Format.XML) {
-                        XMLOutputFactory f = XMLOutputFactory.newFactory();
-                        sw = f.createXMLStreamWriter(out);
-                        sw.writeStartDocument();
-                        sw.writeCharacters("\n");
-                        sw.writeStartElement("root");
-                        sw.writeCharacters("\n");
+        private void open() throws Exception {
+            outputPath = new File(opts.output, String.format("synth-%04d.%s", fileNumber, extension)).toPath();
+
+            long startRows = 0;
+            if (opts.resume) {
+                startRows = checkpoint.getRows(fileNumber);
+                startBytes = checkpoint.getBytes(fileNumber);
+                // throw away anything written after the last checkpoint, such as a partial row
+                try (FileChannel channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    Preconditions.checkState(channel.size() >= startBytes,
+                            "%s is shorter than the checkpoint says it should be", outputPath);
+                    channel.truncate(startBytes);
+                }
+                if (startRows > 0) {
+                    sampler.setSeed(checkpoint.seedFor(fileNumber, startRows));
+                    // seekable fields, including stateful ones like id, pick up where they left off
+                    sampler.seek(startRows);
+                }
+            }
 
-                        xmlMapper = new XmlMapper();
-                        xmlMapper.enable(SerializationFeature.INDENT_OUTPUT);
-                    }
+            OutputStream sink = Files.newOutputStream(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    opts.resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+            if (ioPool != null) {
+                async = new AsyncOutputStream(sink, ioPool);
+                sink = async;
+            }
+            counter = new CountingOutputStream(sink);
+            merger = opts.timeOrder == null ? null : new TimeMerger(opts.timeOrder, opts.lookahead, new File(opts.output));
+            // rows held by the merger haven't been written yet so a checkpoint would count rows that could be lost
+            Preconditions.checkState(merger == null || checkpoint == null, "Checkpoints can't be used with -time-order");
+            out = new PrintStream(counter);
+
+            if (opts.format == Format.XML) {
+                // a second prolog can't be appended to a document, so XML is never resumed
+                Preconditions.checkState(startBytes == 0, "Can't resume XML output");
+                XMLOutputFactory f = XMLOutputFactory.newFactory();
+                sw = f.createXMLStreamWriter(out);
+                sw.writeStartDocument();
+                sw.writeCharacters("\n");
+                sw.writeStartElement("root");
+                sw.writeCharacters("\n");
 
-                    header(opts.format, sampler.getFieldNames(), out);
-                    int rows = 0;
-                    while (rows < localCount) {
-                        int k = Math.min(localCount - rows, REPORTING_DELTA);
-                        rows += k;
-                        rowCount.addAndGet(generateFile(opts, sampler, template, out, k));
-                        wallTime.set(System.nanoTime());
-                        threadTime.set(mx.getCurrentThreadCpuTime());
-                        userTime.set(mx.getCurrentThreadUserTime());
-                    }
+                xmlMapper = new XmlMapper();
+                xmlMapper.enable(SerializationFeature.INDENT_OUTPUT);
+            }
+
+            // a partition stopped before its first block has a header but no rows
+            if (startBytes == 0) {
+                header(opts.format, sampler.getFieldNames(), out);
+            }
+            rows = (int) startRows;
+            lastCheckpoint = System.nanoTime();
+        }
+
+        private void generateBlock() throws Exception {
+            int k = Math.min(localCount - rows, REPORTING_DELTA);
+            rows += k;
+            long blockStart = System.nanoTime();
+            long cpuStart = mx.getCurrentThreadCpuTime();
+            long userStart = mx.getCurrentThreadUserTime();
+            if (merger == null) {
+                rowCount.addAndGet(generateFile(opts, sampler, template, out, k));
+            } else {
+                rowCount.addAndGet(generateEvents(merger, k));
+            }
+            wallTime.set(System.nanoTime());
+            blockTimes.add((wallTime.get() - blockStart) / 1e6);
+            // successive blocks can run on different threads so CPU time is added up block by block
+            threadTime.addAndGet(mx.getCurrentThreadCpuTime() - cpuStart);
+            userTime.addAndGet(mx.getCurrentThreadUserTime() - userStart);
+
+            if (checkpoint != null && opts.checkpointInterval > 0
+                    && wallTime.get() - lastCheckpoint > TimeUnit.SECONDS.toNanos(opts.checkpointInterval)) {
+                saveCheckpoint(out, async, startBytes + counter.getCount(), rows);
+                lastCheckpoint = wallTime.get();
+            }
+        }
+
+        private void finish() throws Exception {
+            try {
+                if (merger != null && !stopping.get()) {
+                    writeOrdered(merger, out);
+                }
+                if (opts.format == Format.XML) {
+                    sw.close();
+                }
+                if (checkpoint != null) {
+                    saveCheckpoint(out, async, startBytes + counter.getCount(), rows);
+                }
+            } finally {
+                release();
+            }
+            // closing lets us see any failures from the final (possibly asynchronous) writes
+            if (out.checkError()) {
+                throw new IOException("Error writing to " + outputPath);
+            }
+        }
+
+        private void release() {
+            if (out != null) {
+                out.close();
+            }
+            if (merger != null) {
+                merger.close();
+            }
+        }
+
+        /**
+         * Samples rows and hands them to a merger to be put into time order.
+         */
+        private int generateEvents(TimeMerger merger, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                merger.add(sampler.sample());
+            }
+            return count;
+        }
 
-                    if (opts.format == Format.XML) {
-                        sw.close();
+        /**
+         * Writes all of the events from a merger in time order.
+         */
+        private void writeOrdered(TimeMerger merger, PrintStream out) throws IOException {
+            PrintWriter writer = new PrintWriter(out);
+            merger.finish(event -> {
+                if (template != null) {
+                    try {
+                        template.process(event, writer);
+                    } catch (TemplateException e) {
+                        throw new IOException("Error applying template", e);
                     }
-                    working.set(false);
-                    return rows;
+                } else {
+                    format(opts.format, opts.quote, sampler.getFieldNames(), event, out);
                 }
+            });
+            writer.flush();
+        }
+
+        /**
+         * Makes sure that everything up to the current row has actually been written and then
+         * records our progress.
+         */
+        private void saveCheckpoint(PrintStream out, AsyncOutputStream async, long bytes, int rows) throws IOException {
+            if (out.checkError()) {
+                throw new IOException("Error writing output, not saving checkpoint");
+            }
+            if (async != null) {
+                async.drain();
             }
+            checkpoint.update(fileNumber, rows, bytes);
+            checkpoint.save();
         }
 
         public static void header(Format format, Iterable<String> names, PrintStream out) {
@@ -323,13 +630,14 @@ public class Synth {
         }
 
 
-        static int generateFile(Options opts, SchemaSampler s, Template template, PrintStream out, int count) throws IOException, TemplateException {
+        int generateFile(Options opts, SchemaSampler s, Template template, PrintStream out, int count) throws IOException, TemplateException {
             if (template != null) {
                 PrintWriter writer = new PrintWriter(out);
 
                 for (int i = 0; i < count; i++) {
                     template.process(s.sample(), writer);
                 }
+                writer.flush();
             } else {
                 for (int i = 0; i < count; i++) {
                     format(opts.format, opts.quote, s.getFieldNames(), s.sample(), out);
@@ -339,7 +647,7 @@ public class Synth {
             return count;
         }
 
-        private static void format(Format format, Quote quoteConvention, Iterable<String> names, JsonNode fields, PrintStream out) throws IOException {
+        private void format(Format format, Quote quoteConvention, Iterable<String> names, JsonNode fields, PrintStream out) throws IOException {
             switch (format) {
                 case JSON:
                     out.printf("%s\n", fields.toString());
@@ -355,7 +663,7 @@ public class Synth {
             }
         }
 
-        private static void printXml(JsonNode fields) throws IOException {
+        private void printXml(JsonNode fields) throws IOException {
             xmlMapper.writeValue(sw, fields);
             try {
                 sw.writeCharacters("\n");
@@ -475,6 +783,21 @@ public class Synth {
         @Option(name = "-threads")
         int threads = 1;
 
+        @Option(name = "-io-threads")
+        int ioThreads = 0;
+
+        @Option(name = "-checkpoint")
+        int checkpointInterval = 0;
+
+        @Option(name = "-resume")
+        boolean resume = false;
+
+        @Option(name = "-time-order")
+        String timeOrder = null;
+
+        @Option(name = "-lookahead")
+        int lookahead = 1_000_000;
+
         @Option(name = "-count", handler = SizeParser.class)
         int count = 1000;
 
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Puts the events from many entities into time order. Each row added is one entity and the time
+ * field is given as a dotted path such as {@code transactions.timestamp}. If the path passes
+ * through an array, the row is split into one event per array element with the array replaced by
+ * that element. The rest of the row is shared by all of its events.
+ *
+ * This is an exact external sort rather than a streaming merge. Since each entity's events can
+ * span the whole time range, no event can be emitted until every row has been added, so nothing
+ * comes out until {@link #finish(Sink)} is called. Up to {@code lookahead} events are kept in
+ * memory. If there are more than that, each batch is sorted and spilled to a temporary file as
+ * JSON lines, and the files are read back, parsed again and merged at the end. Either way, the
+ * output is completely in time order. Events with the same time come out in the order they were
+ * added.
+ */
+public class TimeMerger implements Closeable {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<String> path;
+    private final int lookahead;
+    private final File spillDirectory;
+
+    private final List<Event> buffer = Lists.newArrayList();
+    private final List<File> runs = Lists.newArrayList();
+    private long sequence = 0;
+
+    /**
+     * @param timeField      Dotted path to the time field of each event.
+     * @param lookahead      How many events to hold in memory before spilling to disk.
+     * @param spillDirectory Where to put spill files, null for the default temporary directory.
+     */
+    public TimeMerger(String timeField, int lookahead, File spillDirectory) {
+        Preconditions.checkArgument(lookahead > 0, "Lookahead must be positive");
+        this.path = Splitter.on('.').splitToList(timeField);
+        this.lookahead = lookahead;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Adds all of the events for an entity.
+     */
+    public void add(JsonNode row) throws IOException {
+        for (JsonNode event : expand(row, 0)) {
+            buffer.add(new Event(time(event), sequence++, event));
+            if (buffer.size() >= lookahead) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * Passes all of the events added so far to a sink in time order.
+     */
+    public void finish(Sink sink) throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(Event.ORDER);
+            for (Event event : buffer) {
+                sink.accept(event.value);
+            }
+            buffer.clear();
+            return;
+        }
+
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        // each run is sorted so a heap of the head of each run gives us the next event
+        BufferedReader[] readers = new BufferedReader[runs.size()];
+        JsonNode[] heads = new JsonNode[runs.size()];
+        EventQueue queue = new EventQueue(runs.size());
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                readers[i] = Files.newBufferedReader(runs.get(i).toPath(), Charsets.UTF_8);
+                heads[i] = mapper.readTree(readers[i].readLine());
+                queue.add(time(heads[i]), i);
+            }
+            while (!queue.isEmpty()) {
+                int i = queue.peek();
+                sink.accept(heads[i]);
+                String line = readers[i].readLine();
+                if (line == null) {
+                    queue.poll();
+                } else {
+                    heads[i] = mapper.readTree(line);
+                    queue.replaceTop(time(heads[i]), i);
+                }
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            close();
+        }
+    }
+
+    /**
+     * Deletes any spill files.
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            //noinspection ResultOfMethodCallIgnored
+            run.delete();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(Event.ORDER);
+        // close() deletes these, no need for deleteOnExit to keep track of every one
+        File run = File.createTempFile("synth-spill-", ".json", spillDirectory);
+        runs.add(run);
+        try (BufferedWriter out = Files.newBufferedWriter(run.toPath(), Charsets.UTF_8)) {
+            for (Event event : buffer) {
+                out.write(mapper.writeValueAsString(event.value));
+                out.write('\n');
+            }
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns copies of a node with any arrays along the time path replaced by each of their elements.
+     */
+    private List<JsonNode> expand(JsonNode node, int depth) {
+        if (depth == path.size()) {
+            return Collections.singletonList(node);
+        }
+        String key = path.get(depth);
+        JsonNode child = node.get(key);
+        Preconditions.checkArgument(node.isObject() && child != null, "No time field %s in %s", String.join(".", path), node);
+
+        List<JsonNode> r = Lists.newArrayList();
+        if (child.isArray()) {
+            for (JsonNode element : child) {
+                for (JsonNode x : expand(element, depth + 1)) {
+                    r.add(replace((ObjectNode) node, key, x));
+                }
+            }
+        } else {
+            for (JsonNode x : expand(child, depth + 1)) {
+                r.add(x == child ? node : replace((ObjectNode) node, key, x));
+            }
+        }
+        return r;
+    }
+
+    private static ObjectNode replace(ObjectNode node, String key, JsonNode value) {
+        // a shallow copy is enough since we only ever replace values
+        ObjectNode r = node.objectNode();
+        r.setAll(node);
+        r.set(key, value);
+        return r;
+    }
+
+    private double time(JsonNode event) {
+        JsonNode x = event;
+        for (String key : path) {
+            x = x.get(key);
+            Preconditions.checkArgument(x != null, "No time field %s in %s", String.join(".", path), event);
+        }
+        if (x.isNumber()) {
+            return x.asDouble();
+        } else {
+            try {
+                return Double.parseDouble(x.asText());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Time field %s must be numeric, got %s", String.join(".", path), x));
+            }
+        }
+    }
+
+    /**
+     * Where merged events go.
+     */
+    public interface Sink {
+        void accept(JsonNode event) throws IOException;
+    }
+
+    private static class Event {
+        static final Comparator<Event> ORDER = Comparator.<Event>comparingDouble(e -> e.time).thenComparingLong(e -> e.sequence);
+
+        final double time;
+        final long sequence;
+        final JsonNode value;
+
+        Event(double time, long sequence, JsonNode value) {
+            this.time = time;
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+}
@@ -26,6 +26,10 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.io.LineProcessor;
 import com.google.common.io.Resources;
 import org.apache.mahout.math.random.Multinomial;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.OptionDef;
+import org.kohsuke.args4j.spi.LongOptionHandler;
+import org.kohsuke.args4j.spi.Setter;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
@@ -68,6 +72,25 @@ public class Util {
         return n;
     }
 
+    /**
+     * Like {@link #parseInteger(String)}, but for counts that may be too big for an int.
+     */
+    public static long parseLong(String argument) {
+        long n = Long.parseLong(argument.replaceAll("[KMG]?$", ""));
+
+        switch (argument.charAt(argument.length() - 1)) {
+            case 'G':
+                return n * 1_000_000_000L;
+            case 'M':
+                return n * 1_000_000L;
+            case 'K':
+                return n * 1_000L;
+            default:
+                // no suffix leads here
+                return n;
+        }
+    }
+
     public static int parseInteger(JsonNode max) {
         if (max.isTextual()) {
             return parseInteger(max.asText());
@@ -151,4 +174,18 @@ public class Util {
             throw new RuntimeException("Nested IO Exception", e);
         }
     }
+
+    /**
+     * Parses long options such as counts with the suffixes that {@link #parseLong(String)} allows.
+     */
+    public static class SizeParser extends LongOptionHandler {
+        public SizeParser(CmdLineParser parser, OptionDef option, Setter<? super Long> setter) {
+            super(parser, option, setter);
+        }
+
+        @Override
+        protected Long parse(String argument) throws NumberFormatException {
+            return Util.parseLong(argument);
+        }
+    }
 }
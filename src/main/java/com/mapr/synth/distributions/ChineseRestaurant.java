@@ -20,7 +20,7 @@
 package com.mapr.synth.distributions;
 
 import com.google.common.base.Preconditions;
-import org.apache.mahout.common.RandomUtils;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.list.DoubleArrayList;
 import org.apache.mahout.math.random.Sampler;
 
@@ -32,13 +32,20 @@ import java.util.Random;
  * The number of values drawn exactly once will asymptotically be equal to the discount parameter
  * as the total number of draws T increases without bound.  The number of unique values sampled will
  * increase as O(alpha * log T) if discount = 0 or O(alpha * T^discount) for discount > 0.
+ * <p>
+ * The weights of the values are kept in a Fenwick tree so that sampling takes time proportional
+ * to the log of the number of values rather than a scan over all of them.
+ * <p>
+ * Not thread safe. Each thread should have its own instance.
  */
 public final class ChineseRestaurant implements Sampler<Integer> {
     private double alpha;
     private double weight = 0;
     private double discount;
     private final DoubleArrayList weights = new DoubleArrayList();
-    private final Random rand = RandomUtils.getRandom();
+    // Fenwick tree over max(0, w_j - discount), 1-based with a power of two capacity
+    private double[] tree = new double[17];
+    private final Random rand = FastRandom.newRandom();
 
     /**
      * Constructs a Dirichlet process sampler.  This is done by setting discount = 0.
@@ -64,24 +71,75 @@ public final class ChineseRestaurant implements Sampler<Integer> {
     }
 
     @Override
-    public synchronized Integer sample() {
+    public Integer sample() {
         double u = rand.nextDouble() * (alpha + weight);
-        for (int j = 0; j < weights.size(); j++) {
-            // select existing options with probability (w_j - d) / (alpha + w)
-            if (u < weights.get(j) - discount) {
-                weights.set(j, weights.get(j) + 1);
-                weight++;
-                return j;
-            } else {
-                u -= weights.get(j) - discount;
+
+        // select existing options with probability (w_j - d) / (alpha + w) by finding the
+        // first j where the sum of (w_i - d) for i <= j is more than u
+        int capacity = tree.length - 1;
+        int j = 0;
+        for (int step = capacity; step > 0; step >>= 1) {
+            if (j + step <= capacity && tree[j + step] <= u) {
+                j += step;
+                u -= tree[j];
             }
         }
+        if (j < weights.size()) {
+            double w = weights.get(j);
+            weights.set(j, w + 1);
+            adjust(j, mass(w + 1) - mass(w));
+            weight++;
+            return j;
+        }
 
         // if no existing item selected, pick new item with probability (alpha - d*t) / (alpha + w)
         // where t is number of pre-existing cases
+        // grow first, a rebuild after adding would already include the new weight
+        j = weights.size();
+        grow(j + 1);
         weights.add(1);
+        adjust(j, mass(1));
         weight++;
-        return weights.size() - 1;
+        return j;
+    }
+
+    /**
+     * How much weight an existing value with a count of w gets.
+     */
+    private double mass(double w) {
+        return Math.max(0, w - discount);
+    }
+
+    private void adjust(int j, double delta) {
+        for (int i = j + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Makes sure that the tree has room for the specified number of weights.
+     */
+    private void grow(int size) {
+        int capacity = tree.length - 1;
+        if (size > capacity) {
+            while (size > capacity) {
+                capacity *= 2;
+            }
+            rebuild(capacity);
+        }
+    }
+
+    private void rebuild(int capacity) {
+        tree = new double[capacity + 1];
+        for (int j = 0; j < weights.size(); j++) {
+            tree[j + 1] = mass(weights.get(j));
+        }
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
     }
 
     /**
@@ -116,11 +174,34 @@ public final class ChineseRestaurant implements Sampler<Integer> {
     }
 
     public void setCount(int term, double count) {
+        grow(term + 1);
         while (weights.size() <= term) {
             weights.add(0);
         }
-        weight += (count - weights.get(term));
+        double old = weights.get(term);
+        weight += (count - old);
         weights.set(term, count);
+        adjust(term, mass(count) - mass(old));
+    }
+
+    /**
+     * Verifies that every prefix sum in the tree matches the weights.
+     *
+     * @return True if it does.
+     */
+    public boolean validate() {
+        double sum = 0;
+        for (int j = 0; j < weights.size(); j++) {
+            sum += mass(weights.get(j));
+            double prefix = 0;
+            for (int i = j + 1; i > 0; i -= i & -i) {
+                prefix += tree[i];
+            }
+            if (Math.abs(prefix - sum) > 1e-9 * Math.max(1, sum)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void setSeed(long seed) {
@@ -135,5 +216,6 @@ public final class ChineseRestaurant implements Sampler<Integer> {
     public void setDiscount(double discount) {
         Preconditions.checkArgument(discount >= 0 && discount <= 1);
         this.discount = discount;
+        rebuild(tree.length - 1);
     }
 }
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth.distributions;
+
+import com.mapr.synth.Util;
+import org.apache.mahout.math.jet.random.Exponential;
+import org.apache.mahout.math.jet.random.Gamma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Models the bursty activity of a single user or host that is busy during their day and mostly
+ * quiet during their night. The entity alternates between active sessions and inactive periods.
+ * Actions happen often during a session and less often between sessions. At night, time is dilated
+ * so that sessions start less often, but sessions that do happen aren't any longer than usual.
+ *
+ * Each process keeps only a handful of numbers so that very large populations of them can be
+ * simulated at once with an {@link com.mapr.synth.EventQueue} to interleave their actions in time
+ * order.
+ */
+public class DiurnalProcess {
+    public enum Event {
+        SUNRISE, SUNSET,
+        ACTIVATE, DEACTIVATE,
+        ACTION, END
+    }
+
+    private final Parameters parameters;
+    private final Random base;
+
+    private double now;
+    private double end;
+
+    private double sunriseTime;
+    private double sunsetTime;
+    private boolean isDaytime;
+
+    private double dilation;
+    private double activeRate;
+    private double inactiveRate;
+    private double actionRate;
+    private double idle;
+
+    private boolean isActive = false;
+
+    // transitions to active happen in dilated time so that active sessions occur less often at night
+    // but transition to inactive happen in real time so sessions at night are not longer than normal
+    private double nextTransition = 0;
+
+    // next action is always in real-time. This time is reset if a session ends before the next action
+    private double nextAction = 0;
+
+    public DiurnalProcess(Parameters parameters) {
+        this.parameters = parameters;
+        this.base = parameters.base;
+    }
+
+    /**
+     * Starts the process over with newly sampled parameters.
+     *
+     * @param start       When to start.
+     * @param end         When to stop.
+     * @param sunriseTime Time of day (in ms) that the entity becomes busy.
+     */
+    public void restart(double start, double end, double sunriseTime) {
+        now = start;
+        this.end = end;
+        dilation = Math.exp(parameters.dilationDistribution.nextDouble());
+        activeRate = 1 / parameters.activeDistribution.nextDouble();
+        inactiveRate = 1 / parameters.inActiveDistribution.nextDouble();
+        actionRate = 1.0 / parameters.meanIntervalDistribution.nextDouble();
+        idle = Math.exp(parameters.idleDistribution.nextDouble());
+
+        long nightDuration = parameters.nightDuration;
+        this.sunriseTime = sunriseTime;
+        sunsetTime = sunriseTime < nightDuration ? sunriseTime - nightDuration + Util.ONE_DAY : sunriseTime - nightDuration;
+
+        // we start inactive
+        isDaytime = Util.isDaytime(Util.timeOfDay(now), sunriseTime, sunsetTime);
+        isActive = false;
+        nextTransition = getNextTransition();
+        nextAction = getNextActionTime();
+    }
+
+    /**
+     * @return The time of the most recent event.
+     */
+    public double getTime() {
+        return now;
+    }
+
+    /**
+     * Steps forward to the next action.
+     *
+     * @return True if there was an action before the end time.
+     */
+    public boolean advance() {
+        Event e;
+        do {
+            e = step();
+            if (e == Event.END) {
+                return false;
+            }
+        } while (e != Event.ACTION);
+        return true;
+    }
+
+    /**
+     * Step to the next event. This hard-coded method is simpler than the normal sort of priority queue of events
+     * because of the time dilation that we have at night.
+     *
+     * @return The next event.
+     */
+    public Event step() {
+        if (now > end) {
+            return Event.END;
+        }
+        double timeOfDay = Util.timeOfDay(now);
+        isDaytime = Util.isDaytime(timeOfDay, sunriseTime, sunsetTime);
+        if (isDaytime) {
+            // during the day, time passes in real-time
+            double sunset = Util.dayOrigin(now) + sunsetTime;
+            while (sunset <= now) {
+                sunset += Util.ONE_DAY;
+            }
+            if (sunset < nextTransition) {
+                return handleSunEvent(sunset, Event.SUNSET, dilation);
+            } else {
+                return getNextEvent();
+            }
+        } else {
+            double sunrise = Util.dayOrigin(now) + sunriseTime;
+            if (sunrise <= now) {
+                sunrise += Util.ONE_DAY;
+            }
+
+            // if inactive at night, time is dilated
+            if (sunrise < nextTransition) {
+                return handleSunEvent(sunrise, Event.SUNRISE, 1.0 / dilation);
+            } else {
+                return getNextEvent();
+            }
+        }
+    }
+
+    private Event handleSunEvent(double t, Event event, double scale) {
+        if (t < nextAction) {
+            now = t + 1;
+            if (!isActive) {
+                // start dilating time for action and state transition
+                double remainder = nextAction - now;
+                nextAction = now + scale * remainder;
+
+                remainder = nextTransition - now;
+                nextTransition = now + scale * remainder;
+            }
+            isDaytime = !isDaytime;
+            return event;
+        } else {
+            now = nextAction;
+            nextAction = getNextActionTime();
+            return Event.ACTION;
+        }
+    }
+
+    private Event getNextEvent() {
+        if (nextTransition < nextAction) {
+            // state transition
+            now = nextTransition;
+
+            // change of state gives us an entirely new next action time
+            return flipActivation();
+        } else {
+            // action comes first
+            now = nextAction;
+            nextAction = getNextActionTime();
+            return Event.ACTION;
+        }
+    }
+
+    private Event flipActivation() {
+        isActive = !isActive;
+        nextAction = getNextActionTime();
+        nextTransition = getNextTransition();
+        return isActive ? Event.ACTIVATE : Event.DEACTIVATE;
+    }
+
+    private double getNextTransition() {
+        if (isActive) {
+            return now + exponential(activeRate);
+        } else {
+            double delay = exponential(inactiveRate);
+            if (!isDaytime) {
+                delay *= dilation;
+            }
+            return now + delay;
+        }
+    }
+
+    private double getNextActionTime() {
+        double delay;
+        delay = exponential(actionRate);
+        if (!isActive) {
+            delay = exponential(actionRate) * idle;
+        }
+        if (!isDaytime) {
+            delay = exponential(actionRate) * dilation;
+        }
+        return now + delay;
+    }
+
+    private double exponential(double rate) {
+        return -Math.log1p(-base.nextDouble()) / rate;
+    }
+
+    /**
+     * The distributions that the parameters of each process are sampled from. A population of
+     * processes normally shares a single set of these.
+     */
+    public static class Parameters {
+        private final Random base;
+        private final long nightDuration;
+
+        // in some cases, these are actually a distribution that is reparametrized on each restart and sampled each action
+        private Gamma dilationDistribution;
+
+        // distribution of active times
+        private Exponential activeDistribution;
+
+        // distribution of inactive times
+        private Exponential inActiveDistribution;
+
+        // distribution of action times
+        private Exponential meanIntervalDistribution;
+
+        // distribution of how much slower actions go slower when inactive
+        private Gamma idleDistribution;
+
+        /**
+         * @param base          The source of randomness for all processes using these parameters.
+         * @param nightDuration How long the quiet part of each day lasts in ms.
+         */
+        public Parameters(Random base, long nightDuration) {
+            this.base = base;
+            this.nightDuration = nightDuration;
+            dilationDistribution = new Gamma(6, 1, base);
+            activeDistribution = new Exponential(1.0 / TimeUnit.MINUTES.toMillis(10), base);
+            inActiveDistribution = new Exponential(1.0 / TimeUnit.HOURS.toMillis(4), base);
+            meanIntervalDistribution = new Exponential(1.0 / TimeUnit.MINUTES.toMillis(1), base);
+            idleDistribution = new Gamma(6, 1.0, base);
+        }
+
+        public void setRate(String rate) {
+            meanIntervalDistribution = new Exponential(Util.parseRateAsInterval(rate), base);
+        }
+    }
+}
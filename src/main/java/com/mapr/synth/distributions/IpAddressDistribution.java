@@ -19,15 +19,14 @@
 
 package com.mapr.synth.distributions;
 
-import java.net.Inet4Address;
-import java.net.Inet6Address;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import com.mapr.synth.FastRandom;
+import com.mapr.synth.IpAddress;
+
 import java.util.Random;
 
 public class IpAddressDistribution {
     private double ipV4Probability = 0.3;
-    private Random base = new Random();
+    private Random base = FastRandom.newRandom();
 
     public void setIpV4Probability(double ipV4Probability) {
         this.ipV4Probability = ipV4Probability;
@@ -37,28 +36,31 @@ public class IpAddressDistribution {
         base.setSeed(seed);
     }
 
-    public InetAddress sample() {
+    public IpAddress sample() {
+        IpAddress r = new IpAddress();
+        sample(r);
+        return r;
+    }
+
+    /**
+     * Samples an address into an existing address to avoid creating one for every sample.
+     */
+    public void sample(IpAddress r) {
+        // the bytes come out in the same order that Random.nextBytes would give them
         if (base.nextDouble() < ipV4Probability) {
-            byte[] bits = new byte[4];
-            base.nextBytes(bits);
-            try {
-                return Inet4Address.getByAddress(bits);
-            } catch (UnknownHostException e) {
-                throw new IllegalStateException("Can't happen ... we gave the right number of bytes");
-            }
+            r.setV4(Integer.reverseBytes(base.nextInt()));
         } else {
-            byte[] bits = new byte[16];
-            base.nextBytes(bits);
+            long high = word(base.nextInt(), base.nextInt());
+            long low = word(base.nextInt(), base.nextInt());
             if (base.nextDouble() < 0.1) {
-                for (int i = 2; i < 8; i++) {
-                    bits[i] = 0;
-                }
-            }
-            try {
-                return Inet6Address.getByAddress(bits);
-            } catch (UnknownHostException e) {
-                throw new IllegalStateException("Can't happen ... we gave the right number of bytes");
+                // clear bytes 2 through 7
+                high &= 0xffffL << 48;
             }
+            r.set(high, low);
         }
     }
+
+    private static long word(int first, int second) {
+        return ((long) Integer.reverseBytes(first) << 32) | (Integer.reverseBytes(second) & 0xffffffffL);
+    }
 }
@@ -24,8 +24,9 @@ import org.apache.mahout.math.random.Sampler;
 /**
  * Generate words at random from a specialized vocabulary.  Every term generator's
  * frequency distribution has a common basis, but each will diverge after initialization.
- *
- * Thread safe for sampling
+ * <p>
+ * Sampling doesn't lock, so each thread should have its own term generator. The words
+ * themselves can be shared by any number of term generators.
  */
 public class TermGenerator implements Sampler<String> {
     // the word generator handles the problem of making up new words
@@ -55,8 +56,6 @@ public class TermGenerator implements Sampler<String> {
     }
 
     public String sample() {
-      synchronized (this) {
         return distribution.sample();
-      }
     }
 }
@@ -23,35 +23,48 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
 import com.google.common.io.Resources;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Emulates an infinite list of words, a prefix of which are taken from lists of plausible words.  The first words are
  * taken from a resource that has frequencies in it.  These frequencies can be used to initialize term generators to a
  * common language.  The next batch of words are taken from a long list of words with no frequencies. After that, words
  * are coined by using an integer count.
+ * <p>
+ * The long list of words is read on first use into a single array of characters with an array of offsets and is
+ * shared by all word generators that use the same resource.  Nothing changes after that so a word generator can be
+ * used by any number of threads without locking.
  */
 public class WordGenerator {
-    private final Logger log = LoggerFactory.getLogger(WordGenerator.class);
+    private static final Logger log = LoggerFactory.getLogger(WordGenerator.class);
 
-    private BufferedReader wordReader;
-    private final List<String> words = Lists.newArrayList();
-    private final Map<String, Integer> baseWeights = Maps.newLinkedHashMap();
+    // vocabularies that have been read so far, keyed by resource URL
+    private static final ConcurrentMap<String, Vocabulary> vocabularies = new ConcurrentHashMap<>();
+
+    private final String[] seedWords;
+    private final Map<String, Integer> baseWeights;
+
+    private final URL othersResource;
+    private volatile Vocabulary others;
 
     public WordGenerator(String seed, String others) {
         // read the common words
+        List<String> words = Lists.newArrayList();
+        Map<String, Integer> weights = Maps.newLinkedHashMap();
         if (seed != null) {
             try {
                 //noinspection UnstableApiUsage
@@ -68,7 +81,7 @@ public class WordGenerator {
                                         String word = fields.next();
                                         words.add(word);
                                         int count = (int) Math.rint(Double.parseDouble(fields.next()));
-                                        baseWeights.put(word, count);
+                                        weights.put(word, count);
                                     } else {
                                         header = false;
                                     }
@@ -84,45 +97,116 @@ public class WordGenerator {
                 log.error("Can't read resource \"{}\", will continue without realistic words", seed);
             }
         }
+        seedWords = words.toArray(new String[0]);
+        baseWeights = Collections.unmodifiableMap(weights);
 
-        InputStream s = this.getClass().getResourceAsStream(others);
-        if (s == null) {
-            s = this.getClass().getResourceAsStream("/" + others);
+        URL url = WordGenerator.class.getResource(others);
+        if (url == null) {
+            url = WordGenerator.class.getResource("/" + others);
         }
-        if (s == null) {
+        if (url == null) {
             log.error("Can't read resource \"{}\", will continue without realistic words", others);
-            wordReader = null;
-        } else {
-            wordReader = new BufferedReader(new InputStreamReader(s, Charsets.UTF_8));
         }
+        othersResource = url;
     }
 
     public String getString(int n) {
-        if (n >= words.size()) {
-            synchronized (this) {
-                while (n >= words.size()) {
-                    try {
-                        String w = wordReader != null ? wordReader.readLine() : null;
-                        if (w != null) {
-                            words.add(w);
-                        } else {
-                            words.add("w-" + n);
-                        }
-                    } catch (IOException e) {
-                        log.error("Error reading other words resource", e);
-                        words.add("w-" + n);
-                    }
-                }
+        if (n < seedWords.length) {
+            return seedWords[n];
+        }
+        Vocabulary v = vocabulary();
+        int i = n - seedWords.length;
+        if (i < v.size()) {
+            return v.get(i);
+        }
+        return "w-" + n;
+    }
+
+    private Vocabulary vocabulary() {
+        Vocabulary v = others;
+        if (v == null) {
+            if (othersResource == null) {
+                v = Vocabulary.EMPTY;
+            } else {
+                v = vocabularies.computeIfAbsent(othersResource.toString(), k -> Vocabulary.load(othersResource));
             }
+            others = v;
         }
-        return words.get(n);
+        return v;
     }
 
     public Map<String, Integer> getBaseWeights() {
         return baseWeights;
     }
 
+    /**
+     * @return The number of words that came with frequencies.
+     */
     public int size() {
-        return words.size();
+        return seedWords.length;
+    }
+
+    /**
+     * A list of words stored as one array of characters, which takes much less memory than
+     * a list of strings would.
+     */
+    private static final class Vocabulary {
+        private static final Vocabulary EMPTY = new Vocabulary(new char[0], new int[]{0});
+
+        private final char[] chars;
+        // word i starts at starts[i] and ends before the newline at starts[i+1] - 1
+        private final int[] starts;
+
+        private Vocabulary(char[] chars, int[] starts) {
+            this.chars = chars;
+            this.starts = starts;
+        }
+
+        static Vocabulary load(URL resource) {
+            CharBuffer text;
+            try {
+                //noinspection UnstableApiUsage
+                text = Charsets.UTF_8.decode(ByteBuffer.wrap(Resources.toByteArray(resource)));
+            } catch (IOException e) {
+                log.error("Error reading other words resource", e);
+                return EMPTY;
+            }
+            int length = text.remaining();
+            char[] chars = new char[length];
+            text.get(chars);
+
+            int lines = 0;
+            for (char c : chars) {
+                if (c == '\n') {
+                    lines++;
+                }
+            }
+            boolean unterminated = length > 0 && chars[length - 1] != '\n';
+            int[] starts = new int[lines + (unterminated ? 2 : 1)];
+            int k = 1;
+            for (int i = 0; i < length; i++) {
+                if (chars[i] == '\n') {
+                    starts[k++] = i + 1;
+                }
+            }
+            if (unterminated) {
+                // pretend that there is a newline at the end
+                starts[k] = length + 1;
+            }
+            return new Vocabulary(chars, starts);
+        }
+
+        int size() {
+            return starts.length - 1;
+        }
+
+        String get(int i) {
+            int start = starts[i];
+            int end = starts[i + 1] - 1;
+            if (end > start && chars[end - 1] == '\r') {
+                end--;
+            }
+            return new String(chars, start, end - start);
+        }
     }
 }
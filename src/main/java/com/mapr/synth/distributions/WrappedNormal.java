@@ -19,6 +19,7 @@
 
 package com.mapr.synth.distributions;
 
+import com.mapr.synth.FastRandom;
 import com.mapr.synth.Util;
 import org.apache.mahout.math.jet.random.AbstractContinousDistribution;
 
@@ -33,7 +34,7 @@ public class WrappedNormal extends AbstractContinousDistribution {
     private double scale;
     private double mean;
     private double sd;
-    private Random base = new Random();
+    private Random base = FastRandom.newRandom();
 
     public WrappedNormal(double scale, double mean, double sd) {
         this.scale = scale;
@@ -20,8 +20,9 @@
 package com.mapr.synth.drive;
 
 import com.google.common.collect.Lists;
-import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
@@ -66,7 +67,7 @@ import static java.lang.Math.log;
  */
 public class Car {
     // how well do the brakes work
-    private static final double BRAKING_ACCELERATION = 0.1;
+    static final double BRAKING_ACCELERATION = 0.1;
 
     private Engine engine;
     private double sampleTime = 1;
@@ -80,37 +81,11 @@ public class Car {
     }
 
     public double simulate(double t, GeoPoint currentPosition, Random rand, Segment segment, Callback progress) {
-        double targetSpeed = segment.travelSpeed();
-        double currentSpeed = 0;
-        sampleTime = 1;
-        final double dt = sampleTime;
-        final double dv = 0.1 * Constants.G * dt;
-
-        Vector3D start = currentPosition.as3D();
-        double distanceToGo = currentPosition.distance(segment.end);
-        engine.setDistance(0);
-        Vector3D travelDirection = segment.end.as3D().subtract(currentPosition.as3D()).normalize();
-        double previousDistance = distanceToGo;
-        while (distanceToGo <= previousDistance) {
-            if (rand.nextDouble() < 0.05) {
-                targetSpeed = Math.max(20 * Constants.MPH, targetSpeed + (rand.nextInt(5) - 2) * 5 * Constants.MPH);
-            }
-            targetSpeed = Math.min(segment.maxSpeed(), targetSpeed);
-
-            if (currentSpeed < targetSpeed) {
-                currentSpeed += dv;
-            } else {
-                currentSpeed -= dv;
-            }
-            currentSpeed = Math.min(currentSpeed, maxSpeed(distanceToGo * 1000, segment.exitSpeed()));
-            engine.stepToTime(t, currentSpeed, BRAKING_ACCELERATION);
-            t += dt;
-            currentPosition.setPosition(start.add(travelDirection.scalarMultiply(engine.getDistance() / 1000 / Constants.EARTH_RADIUS_KM)));
-            progress.call(t, engine, currentPosition);
-            previousDistance = distanceToGo;
-            distanceToGo = currentPosition.distance(segment.end);
+        Drive drive = new Drive(rand, t, currentPosition, Collections.singletonList(segment).iterator());
+        while (drive.step()) {
+            progress.call(drive.getTime(), engine, currentPosition);
         }
-        return t;
+        return drive.getTime();
     }
 
     /**
@@ -148,12 +123,25 @@ public class Car {
     }
 
     double driveTo(Random rand, double t, GeoPoint start, GeoPoint end, Callback callback) {
-        List<Segment> plan = plan(start, end, rand);
-        final GeoPoint currentPosition = new GeoPoint(start.as3D());
-        for (Segment segment : plan) {
-            t = simulate(t, currentPosition, rand, segment, callback);
+        Drive drive = startTrip(rand, t, start, end);
+        while (drive.step()) {
+            callback.call(drive.getTime(), engine, drive.getPosition());
         }
-        return t;
+        return drive.getTime();
+    }
+
+    /**
+     * Plans a trip from start to end that can then be driven one sample at a time.
+     */
+    Drive startTrip(Random rand, double t, GeoPoint start, GeoPoint end) {
+        return startTrip(rand, t, start, plan(start, end, rand));
+    }
+
+    /**
+     * Starts a trip along a route that has already been planned.
+     */
+    Drive startTrip(Random rand, double t, GeoPoint start, List<Segment> plan) {
+        return new Drive(rand, t, new GeoPoint(start), plan.iterator());
     }
 
     public Engine getEngine() {
@@ -165,6 +153,102 @@ public class Car {
         this.sampleTime = sampleTime;
     }
 
+    /**
+     * A trip in progress. Each call to {@link #step()} moves the car forward by one sample time
+     * so that a caller can pull samples as it needs them instead of having all of them pushed at it.
+     */
+    class Drive {
+        private final Random rand;
+        private final Iterator<Segment> plan;
+        private final GeoPoint position;
+        private double t;
+
+        // state for the current segment
+        private Segment segment;
+        private final GeoPoint start;
+        private final GeoPoint travelDirection;
+        private double targetSpeed;
+        private double currentSpeed;
+        private double distanceToGo;
+        private double previousDistance;
+
+        private Drive(Random rand, double t, GeoPoint position, Iterator<Segment> plan) {
+            this.rand = rand;
+            this.t = t;
+            this.position = position;
+            this.plan = plan;
+            start = new GeoPoint(position);
+            travelDirection = new GeoPoint(position);
+            nextSegment();
+        }
+
+        /**
+         * Moves forward by one sample.
+         *
+         * @return False if the trip was already over.
+         */
+        boolean step() {
+            // each segment ends when we stop getting closer to its end
+            while (segment != null && distanceToGo > previousDistance) {
+                nextSegment();
+            }
+            if (segment == null) {
+                return false;
+            }
+
+            final double dt = sampleTime;
+            final double dv = 0.1 * Constants.G * dt;
+            if (rand.nextDouble() < 0.05) {
+                targetSpeed = Math.max(20 * Constants.MPH, targetSpeed + (rand.nextInt(5) - 2) * 5 * Constants.MPH);
+            }
+            targetSpeed = Math.min(segment.maxSpeed(), targetSpeed);
+
+            if (currentSpeed < targetSpeed) {
+                currentSpeed += dv;
+            } else {
+                currentSpeed -= dv;
+            }
+            currentSpeed = Math.min(currentSpeed, maxSpeed(distanceToGo * 1000, segment.exitSpeed()));
+            engine.stepToTime(t, currentSpeed, BRAKING_ACCELERATION);
+            t += dt;
+            double d = engine.getDistance() / 1000 / Constants.EARTH_RADIUS_KM;
+            position.set(start.x + d * travelDirection.x, start.y + d * travelDirection.y, start.z + d * travelDirection.z);
+            previousDistance = distanceToGo;
+            distanceToGo = position.distance(segment.end);
+            return true;
+        }
+
+        /**
+         * @return The time of the latest sample, or the end of the trip once it is over.
+         */
+        double getTime() {
+            return t;
+        }
+
+        GeoPoint getPosition() {
+            return position;
+        }
+
+        Engine getEngine() {
+            return engine;
+        }
+
+        private void nextSegment() {
+            if (!plan.hasNext()) {
+                segment = null;
+                return;
+            }
+            segment = plan.next();
+            targetSpeed = segment.travelSpeed();
+            currentSpeed = 0;
+            start.copy(position);
+            distanceToGo = position.distance(segment.end);
+            previousDistance = distanceToGo;
+            engine.setDistance(0);
+            travelDirection.set(segment.end.x - start.x, segment.end.y - start.y, segment.end.z - start.z);
+        }
+    }
+
     @SuppressWarnings("WeakerAccess")
     public static abstract class Callback {
         abstract void call(double t, Engine arg, GeoPoint position);
@@ -178,7 +262,7 @@ public class Car {
      * @param exitSpeed How fast should we be going at the end
      * @return How fast we are allowed to be going right now.
      */
-    private static double maxSpeed(double distance, double exitSpeed) {
+    static double maxSpeed(double distance, double exitSpeed) {
         double margin = 0.5 * exitSpeed * exitSpeed / (BRAKING_ACCELERATION * Constants.G);
         return Math.max(5, Math.sqrt(2 * (distance + margin - 0.020) * BRAKING_ACCELERATION * Constants.G));
     }
@@ -226,14 +310,20 @@ public class Car {
     }
 
     public static class Local extends Segment {
+        Local(GeoPoint end) {
+            super.end = end;
+        }
+
         Local(GeoPoint start, GeoPoint end, Random rand) {
-            Vector3D dr = end.as3D().subtract(start.as3D());
-            double distance = dr.getNorm();
+            double dx = end.x - start.x;
+            double dy = end.y - start.y;
+            double dz = end.z - start.z;
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
 
             double step = Math.abs((rand.nextGaussian() + 2) / Constants.EARTH_RADIUS_KM);
 
-            Vector3D east = start.east();
-            double eastWest = dr.dotProduct(east);
+            GeoPoint east = start.east(new GeoPoint(start));
+            double eastWest = dx * east.x + dy * east.y + dz * east.z;
             double p = eastWest / distance;
             if (rand.nextDouble() < Math.abs(p * p)) {
 
@@ -242,17 +332,23 @@ public class Car {
                     // don't overshoot
                     step = Math.abs(eastWest);
                 }
-                super.end = new GeoPoint(start.r.add(step * Math.signum(eastWest), east));
+                super.end = move(start, step * Math.signum(eastWest), east);
             } else {
-                Vector3D north = start.north(east);
-                double northSouth = dr.dotProduct(north);
+                GeoPoint north = start.north(east, east);
+                double northSouth = dx * north.x + dy * north.y + dz * north.z;
                 if (step > Math.abs(northSouth)) {
                     step = Math.abs(northSouth);
                 }
-                super.end = new GeoPoint(start.r.add(step * Math.signum(northSouth), north));
+                super.end = move(start, step * Math.signum(northSouth), north);
             }
         }
 
+        private static GeoPoint move(GeoPoint start, double step, GeoPoint direction) {
+            // the direction gets reused for the result
+            direction.set(start.x + step * direction.x, start.y + step * direction.y, start.z + step * direction.z);
+            return direction;
+        }
+
         @Override
         public double exitSpeed() {
             return 5 * Constants.MPH;
@@ -24,19 +24,22 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.DoubleNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.mapr.synth.FancyTimeFormatter;
+import com.mapr.synth.FastRandom;
 import com.mapr.synth.samplers.FieldSampler;
 import com.mapr.synth.samplers.SchemaSampler;
 
 import java.io.IOException;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Random;
 import java.util.TimeZone;
 import java.util.concurrent.BlockingQueue;
@@ -64,6 +67,11 @@ import java.util.concurrent.LinkedBlockingQueue;
  * and longitude fields. Typically this would be a zip.
  * <p>
  * In addition, you need to specify the start and stop time for the simulation.
+ * <p>
+ * Routes can be planned in one of three ways. With "random", every trip gets a newly invented route. With
+ * "cached" (the default), the route to work and the route home are planned once for each commuter and
+ * reused every day. With "grid", all routes follow a synthetic {@link RoadGrid} and are shared between
+ * commuters whose trips start and end near the same intersections.
  */
 public class Commuter extends FieldSampler {
     private static final double ERRAND_SIZE_KM = 20;
@@ -85,13 +93,10 @@ public class Commuter extends FieldSampler {
     private double end;
 
     // internal mechanics
-    private Random rand = new Random();
-    private DateFormat df;
+    private Random rand = FastRandom.newRandom();
+    private FancyTimeFormatter df;
     final static private ThreadLocal<GregorianCalendar> cal = ThreadLocal.withInitial(GregorianCalendar::new);
 
-    // is the commuter at home?
-    private boolean atHome;
-
     private double sampleTime = 1;
     private FieldSampler homeSampler;
     private FieldSampler workSampler;
@@ -102,6 +107,11 @@ public class Commuter extends FieldSampler {
     private BlockingQueue<JsonNode> resultBuffer = new LinkedBlockingQueue<>();
 
     private boolean isFlat;
+    private int fleetSize = 0;
+
+    private Routing routing = Routing.CACHED;
+    private double gridSpacing = 1;
+    private RoadGrid grid = null;
 
     Commuter() throws ParseException {
         setFormat("yyyy-MM-dd HH:mm:ss");
@@ -118,93 +128,389 @@ public class Commuter extends FieldSampler {
 
     @Override
     public JsonNode sample() {
-        final Car car = new Car();
+        if (!isFlat) {
+            Preconditions.checkState(fleetSize == 0, "Fleet simulation requires flat output");
+            if (extraSchema != null) {
+                extrasSampler = new SchemaSampler(extraSchema);
+            }
+            Vehicle vehicle = new Vehicle(-1, rand);
+            ArrayNode trips = new ArrayNode(FACTORY);
+            while (vehicle.nextTrip()) {
+                vehicle.drive();
+                ObjectNode trip = trips.addObject();
+                ArrayNode data = trip.putArray("data");
+                for (int i = 0; i < vehicle.log.size(); i++) {
+                    data.add(vehicle.dataPoint(FACTORY.objectNode(), i));
+                }
+                trip.setAll(vehicle.trip);
+            }
+            vehicle.base.set("trips", trips);
+            return vehicle.base;
+        } else {
+            ArrayNode r = new ArrayNode(FACTORY);
+            stream().forEachRemaining(r::add);
+            return r;
+        }
+    }
+
+    @Override
+    public boolean canStream() {
+        return isFlat;
+    }
+
+    /**
+     * Returns the data points for a single vehicle, or for a whole fleet, as they are simulated.
+     * Only the trip currently being simulated for each vehicle is kept in memory, so this works
+     * for very long simulations.
+     */
+    @Override
+    public Iterator<JsonNode> stream() {
+        Preconditions.checkState(isFlat, "Only flattened commuters can stream data");
         if (extraSchema != null) {
             extrasSampler = new SchemaSampler(extraSchema);
         }
-        car.setSampleTime(sampleTime);
-        car.getEngine().setTime(start);
-
-        JsonNode homeLocation = homeSampler.sample();
-        GeoPoint home = new GeoPoint(Util.toDegrees(homeLocation, "latitude"), Util.toDegrees(homeLocation, "longitude"));
-
-        double radius = workSampler.sample().asDouble();
-        GeoPoint work = home.nearby(radius, rand);
-
-        //---------------
-        ObjectNode base = new ObjectNode(FACTORY);
-        base.putObject("home").setAll((ObjectNode) homeLocation);
-
-        work.asJson(base.putObject("work"));
-        ArrayNode trips = new ArrayNode(FACTORY);
-
-        for (double t = start; t < end; ) {
-            double tCommute = search(atHome, t, Util.nextExponentialTime(rand, 1));
-            if (atHome) {
-                double tErrand = t + Util.nextExponentialTime(rand, (isWeekend(t) ? WEEKEND_ERRAND_RATE : WEEKDAY_ERRAND_RATE) / DAY_IN_S);
-                while (tErrand < tCommute && tErrand < end) {
-                    GeoPoint nearby = home.nearby(ERRAND_SIZE_KM, rand);
-                    ObjectNode trip = trips.addObject();
-                    ArrayNode data = trip.putArray("data");
-                    t = drive(tErrand, car, home, nearby, data);
-                    recordTrip(tErrand, t - tErrand, "errand_out", 2 * home.distance(nearby), trip);
-                    t += rand.nextDouble() * 900 + 300;
-                    double t0 = t;
-                    trip = trips.addObject();
-                    data = trip.putArray("data");
-                    t = drive(t0, car, nearby, home, data);
-                    recordTrip(t0, t - t0, "errand_return", 2 * home.distance(nearby), trip);
-                    tErrand = t + Util.nextExponentialTime(rand, WEEKEND_ERRAND_RATE / DAY_IN_S);
-                }
-                if (tCommute < end) {
-                    ObjectNode trip = trips.addObject();
-                    ArrayNode data = trip.putArray("data");
-                    t = drive(tCommute, car, home, work, data);
-                    recordTrip(tCommute, t - tCommute, "to_work", home.distance(work), trip);
+        if (fleetSize > 0) {
+            return new FleetStream();
+        } else {
+            return new VehicleStream();
+        }
+    }
 
-                    atHome = !atHome;
+    /**
+     * Data points for a single vehicle that is driven with a {@link Car}.
+     */
+    private class VehicleStream implements Iterator<JsonNode> {
+        private final Vehicle vehicle = new Vehicle(-1, rand);
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (next == vehicle.log.size()) {
+                if (!vehicle.nextTrip()) {
+                    return false;
                 }
-            } else {
-                ObjectNode trip = trips.addObject();
-                ArrayNode data = trip.putArray("data");
-                t = drive(tCommute, car, work, home, data);
-                recordTrip(tCommute, t - tCommute, "to_home", home.distance(work), trip);
-                atHome = !atHome;
+                vehicle.drive();
+                next = 0;
             }
+            return true;
         }
 
-        if (!isFlat) {
-            ObjectNode x = base.deepCopy();
-            x.set("trips", trips);
-            return x;
-        } else {
-            ArrayNode r = new ArrayNode(FACTORY);
-            for (JsonNode trip : trips) {
-                ObjectNode x = base.deepCopy();
-                Iterator<String> jx = trip.fieldNames();
-                while (jx.hasNext()) {
-                    String field = jx.next();
-                    if (!field.equals("data")) {
-                        x.set(field, trip.get(field));
+        @Override
+        public JsonNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return vehicle.record(next++);
+        }
+    }
+
+    /**
+     * Data points for many vehicles that are driven together in a {@link Fleet}. The points for
+     * each trip come out together as soon as the trip is over, so trips come out in the order
+     * they end. The output as a whole is not in time order since a long trip can start well
+     * before the shorter trips that are output ahead of it, and the points of trips that overlap
+     * in time are not interleaved.
+     */
+    private class FleetStream implements Iterator<JsonNode> {
+        private final Fleet fleet = new Fleet(fleetSize, sampleTime);
+        private final Vehicle[] vehicles = new Vehicle[fleetSize];
+        private final boolean[] onTrip = new boolean[fleetSize];
+        private int driving = 0;
+
+        // vehicles whose trips are over but haven't been output yet
+        private final Queue<Integer> ready = new ArrayDeque<>();
+        private int current = -1;
+        private int next = 0;
+
+        FleetStream() {
+            for (int i = 0; i < fleetSize; i++) {
+                // each car needs its own randomness so that they can be driven in parallel
+                vehicles[i] = new Vehicle(i, FastRandom.newRandom(rand.nextLong()));
+                startTrip(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current < 0 || next == vehicles[current].log.size()) {
+                if (current >= 0) {
+                    // done with the last trip for this vehicle, so it can go again
+                    startTrip(current);
+                    current = -1;
+                }
+                if (!ready.isEmpty()) {
+                    current = ready.poll();
+                    next = 0;
+                } else if (driving > 0) {
+                    fleet.step();
+                    for (int i = 0; i < fleetSize; i++) {
+                        if (onTrip[i] && !fleet.isDriving(i)) {
+                            endTrip(i);
+                        }
                     }
+                } else {
+                    return false;
                 }
-                for (JsonNode dataPoint : trip.get("data")) {
-                    ObjectNode y = x.deepCopy();
-                    y.setAll((ObjectNode) dataPoint);
-                    r.add(y);
+            }
+            return true;
+        }
+
+        @Override
+        public JsonNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return vehicles[current].record(next++);
+        }
+
+        private void startTrip(int i) {
+            Vehicle v = vehicles[i];
+            if (v.nextTrip()) {
+                fleet.startTrip(i, v.rand, v.tripStart, v.tripFrom, v.route(), v.log);
+                onTrip[i] = true;
+                driving++;
+                if (!fleet.isDriving(i)) {
+                    // trips can be empty if the destination is very close
+                    endTrip(i);
                 }
             }
+        }
 
-            return r;
+        private void endTrip(int i) {
+            onTrip[i] = false;
+            driving--;
+            vehicles[i].endTrip(fleet.getTime(i));
+            ready.add(i);
+        }
+    }
+
+    /**
+     * Decides what trips a single vehicle takes. The trips themselves are driven either by a
+     * {@link Car} for this vehicle or by a {@link Fleet}.
+     */
+    private class Vehicle {
+        private final Random rand;
+        // only needed if we aren't part of a fleet
+        private Car car = null;
+        private final GeoPoint home;
+        private final GeoPoint work;
+
+        // fields shared by all data points
+        private final ObjectNode base = new ObjectNode(FACTORY);
+
+        // the current trip
+        private double tripStart;
+        private GeoPoint tripFrom;
+        private GeoPoint tripTo;
+        private String tripType;
+        private double tripDistance;
+        private boolean returning = false;
+
+        // commuting routes, if they are cached
+        private List<Car.Segment> toWork = null;
+        private List<Car.Segment> toHome = null;
+
+        // fields and data points for the current trip
+        private ObjectNode trip;
+        private final TripLog log = new TripLog();
+
+        // where we are in the simulation
+        private double t = start;
+        private double tCommute;
+        private double tErrand;
+        private GeoPoint errand;
+        private Phase phase = Phase.COMMUTE;
+        // is the commuter at home?
+        private boolean atHome;
+
+        /**
+         * @param id   Which vehicle in a fleet this is, negative if not part of a fleet.
+         * @param rand Randomness for driving.
+         */
+        Vehicle(int id, Random rand) {
+            this.rand = rand;
+
+            JsonNode homeLocation = homeSampler.sample();
+            home = new GeoPoint(Util.toDegrees(homeLocation, "latitude"), Util.toDegrees(homeLocation, "longitude"));
+
+            double radius = workSampler.sample().asDouble();
+            work = home.nearby(radius, Commuter.this.rand);
+
+            if (id >= 0) {
+                base.put("vehicle", id);
+            }
+            base.putObject("home").setAll((ObjectNode) homeLocation);
+            work.asJson(base.putObject("work"));
+        }
+
+        /**
+         * Decides on the next trip. The trip then has to be driven and {@link #endTrip(double)} called.
+         *
+         * @return False if there are no more trips before the end of the simulation.
+         */
+        boolean nextTrip() {
+            Random rand = Commuter.this.rand;
+            while (true) {
+                switch (phase) {
+                    case COMMUTE:
+                        if (t >= end) {
+                            return false;
+                        }
+                        tCommute = search(atHome, t, Util.nextExponentialTime(rand, 1));
+                        if (atHome) {
+                            tErrand = t + Util.nextExponentialTime(rand, (isWeekend(t) ? WEEKEND_ERRAND_RATE : WEEKDAY_ERRAND_RATE) / DAY_IN_S);
+                            phase = Phase.ERRAND;
+                        } else {
+                            setTrip(tCommute, work, home, "to_home", home.distance(work));
+                            atHome = !atHome;
+                            return true;
+                        }
+                        break;
+                    case ERRAND:
+                        if (tErrand < tCommute && tErrand < end) {
+                            errand = home.nearby(ERRAND_SIZE_KM, rand);
+                            setTrip(tErrand, home, errand, "errand_out", 2 * home.distance(errand));
+                            phase = Phase.RETURN;
+                            return true;
+                        }
+                        phase = Phase.COMMUTE;
+                        if (tCommute < end) {
+                            setTrip(tCommute, home, work, "to_work", home.distance(work));
+                            atHome = !atHome;
+                            return true;
+                        }
+                        break;
+                    case RETURN:
+                        t += rand.nextDouble() * 900 + 300;
+                        setTrip(t, errand, home, "errand_return", 2 * home.distance(errand));
+                        returning = true;
+                        return true;
+                }
+            }
+        }
+
+        private void setTrip(double start, GeoPoint from, GeoPoint to, String type, double distance) {
+            tripStart = start;
+            tripFrom = from;
+            tripTo = to;
+            tripType = type;
+            tripDistance = distance;
+        }
+
+        /**
+         * @return The route for the current trip.
+         */
+        List<Car.Segment> route() {
+            switch (routing) {
+                case GRID:
+                    return grid().plan(tripFrom, tripTo, rand);
+                case CACHED:
+                    if (tripFrom == home && tripTo == work) {
+                        if (toWork == null) {
+                            toWork = Car.plan(home, work, rand);
+                        }
+                        return toWork;
+                    } else if (tripFrom == work && tripTo == home) {
+                        if (toHome == null) {
+                            toHome = Car.plan(work, home, rand);
+                        }
+                        return toHome;
+                    }
+                    // errands go somewhere new each time
+                    return Car.plan(tripFrom, tripTo, rand);
+                default:
+                    return Car.plan(tripFrom, tripTo, rand);
+            }
+        }
+
+        /**
+         * Drives the current trip with this vehicle's own car.
+         */
+        void drive() {
+            if (car == null) {
+                car = new Car();
+                car.setSampleTime(sampleTime);
+            }
+            car.getEngine().setTime(tripStart);
+            Car.Drive drive = car.startTrip(rand, tripStart, tripFrom, route());
+            log.clear();
+            while (drive.step()) {
+                GeoPoint p = drive.getPosition();
+                Engine engine = drive.getEngine();
+                log.add(drive.getTime(), p.x, p.y, p.z, engine.getSpeed(), engine.getRpm(), engine.getThrottle());
+            }
+            endTrip(drive.getTime());
+        }
+
+        /**
+         * Records that the current trip is over.
+         *
+         * @param t1 When the trip ended.
+         */
+        void endTrip(double t1) {
+            t = t1;
+            trip = new ObjectNode(FACTORY);
+            recordTrip(tripStart, t1 - tripStart, tripType, tripDistance, trip);
+            if (returning) {
+                tErrand = t + Util.nextExponentialTime(Commuter.this.rand, WEEKEND_ERRAND_RATE / DAY_IN_S);
+                phase = Phase.ERRAND;
+                returning = false;
+            }
+        }
+
+        /**
+         * @return The flattened record for one data point of the current trip.
+         */
+        ObjectNode record(int i) {
+            ObjectNode r = new ObjectNode(FACTORY);
+            r.setAll(base);
+            r.setAll(trip);
+            return dataPoint(r, i);
+        }
+
+        private ObjectNode dataPoint(ObjectNode sample, int i) {
+            sample.put("latitude", log.latitude(i));
+            sample.put("longitude", log.longitude(i));
+            sample.put("t", log.time(i));
+            sample.put("timestamp", df.format((long) (log.time(i) * 1000)));
+            sample.put("mph", log.mph(i));
+            sample.put("rpm", log.rpm(i));
+            sample.put("throttle", log.throttle(i));
+            if (extraSchema != null) {
+                sample.setAll((ObjectNode) extrasSampler.sample());
+            }
+            return sample;
+        }
+    }
+
+    private enum Routing {
+        // a new random route for every trip
+        RANDOM,
+        // random routes, but commuting routes are reused
+        CACHED,
+        // routes follow a road grid
+        GRID
+    }
+
+    private enum Phase {
+        // deciding when the next commute is
+        COMMUTE,
+        // running errands from home until it is time to commute
+        ERRAND,
+        // coming back from an errand
+        RETURN
+    }
+
+    private RoadGrid grid() {
+        if (grid == null) {
+            grid = new RoadGrid(gridSpacing, 10);
         }
+        return grid;
     }
 
     private void recordTrip(double start, double duration, String type, double distance, ObjectNode trip) {
         trip.put("t", duration);
-        //noinspection SynchronizeOnNonFinalField
-        synchronized (df) {
-            trip.put("start", df.format(new Date((long) (start * 1000))));
-        }
+        trip.put("start", df.format((long) (start * 1000)));
         trip.put("timestamp", (long) start * 1000);
         trip.put("type", type);
         trip.put("distance_km", distance);
@@ -255,31 +561,9 @@ public class Commuter extends FieldSampler {
         }
     }
 
-    private double drive(double t, Car car, GeoPoint start, GeoPoint end, ArrayNode data) {
-        car.getEngine().setTime(t);
-        return car.driveTo(rand, t, start, end, new Car.Callback() {
-            @Override
-            void call(double t, Engine car, GeoPoint position) {
-                ObjectNode sample = data.addObject();
-                position.asJson(sample);
-                sample.put("t", t);
-                //noinspection SynchronizeOnNonFinalField
-                synchronized (df) {
-                    sample.put("timestamp", df.format(new Date((long) (t * 1000))));
-                }
-                sample.put("mph", car.getSpeed() * Constants.MPH);
-                sample.put("rpm", car.getRpm());
-                sample.put("throttle", car.getThrottle());
-                if (extraSchema != null) {
-                    sample.setAll((ObjectNode) extrasSampler.sample());
-                }
-            }
-        });
-    }
-
     @SuppressWarnings("UnusedDeclaration")
     public void setFormat(String format) {
-        df = new SimpleDateFormat(format);
+        df = new FancyTimeFormatter(format);
     }
 
     @SuppressWarnings("UnusedDeclaration")
@@ -341,6 +625,38 @@ public class Commuter extends FieldSampler {
         this.isFlat = isFlat;
     }
 
+    /**
+     * Simulates a whole fleet of vehicles in each sample instead of just one. This is much faster
+     * for large numbers of vehicles, but only works with flattened output.
+     */
+    @SuppressWarnings("unused")
+    public void setFleet(int fleetSize) {
+        Preconditions.checkArgument(fleetSize >= 0, "Fleet size can't be negative");
+        this.fleetSize = fleetSize;
+    }
+
+    /**
+     * Sets how routes are planned. Must be one of "random", "cached" or "grid".
+     */
+    @SuppressWarnings("unused")
+    public void setRoutes(String routes) {
+        try {
+            routing = Routing.valueOf(routes.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown route planning style %s, expected random, cached or grid", routes));
+        }
+    }
+
+    /**
+     * Sets the distance between roads in km when routes follow a grid.
+     */
+    @SuppressWarnings("unused")
+    public void setGridSpacing(double gridSpacing) {
+        Preconditions.checkArgument(gridSpacing > 0, "Grid spacing must be positive");
+        this.gridSpacing = gridSpacing;
+        grid = null;
+    }
+
     @Override
     public boolean isFlat() {
         return isFlat;
@@ -41,38 +41,47 @@ import java.io.Serializable;
  */
 public class Engine implements Serializable {
 
-    private static final double THROTTLE_CONTROL_GAIN = 50;
-    private static final double MAX_THROTTLE = 100;
-    private static final double ACCELERATION_BACKOFF = 30;
+    static final double THROTTLE_CONTROL_GAIN = 50;
+    static final double MAX_THROTTLE = 100;
+    static final double ACCELERATION_BACKOFF = 30;
 
     // observed transmission properties for typical turbo-diesel
-    private static final double[] MPS_BY_RPM = {
+    static final double[] MPS_BY_RPM = {
             4.4704 / 2000, 8.9408 / 2000, 13.4112 / 2000, 13.4112 / 1500, 17.8816 / 1500, 22.3520 / 1500, 22.3520 / 1000
     };
-    private static final int TOP_GEAR = MPS_BY_RPM.length - 1;
-    private static final double ZERO_TORQUE_RPM = 3500;
+    static final int TOP_GEAR = MPS_BY_RPM.length - 1;
+    static final double ZERO_TORQUE_RPM = 3500;
 
-    private static final double LOW_SHIFT = 1000;
-    private static final double HIGH_SHIFT = 2000;
+    static final double LOW_SHIFT = 1000;
+    static final double HIGH_SHIFT = 2000;
 
     // The throttle has some turbo delay.
-    private static final double THROTTLE_TIME_CONSTANT = 0.8;
+    static final double THROTTLE_TIME_CONSTANT = 0.8;
 
     // in kg, not a super light car
-    private static final double VEHICLE_MASS = 2000;
+    static final double VEHICLE_MASS = 2000;
 
     // in watts (this is about 200 HP)
     private static final double MAX_POWER = 150e3;
-    private static final double TORQUE_AT_ZERO = (4 * MAX_POWER / ZERO_TORQUE_RPM);
+    static final double TORQUE_AT_ZERO = (4 * MAX_POWER / ZERO_TORQUE_RPM);
 
     // assuming 150 MPH absolute max speed
-    private static final double DRAG_COEFFICIENT = 0.4875334;
-    private static final double SHIFT_TIME = 0.1;
-    private static final double BRAKING_GAIN = 1;
+    static final double DRAG_COEFFICIENT = 0.4875334;
+    static final double SHIFT_TIME = 0.1;
+    static final double BRAKING_GAIN = 1;
+
+    static final double DEFAULT_TOLERANCE = 0.01;
+
+    // longest step we take even when nothing much is happening (in s)
+    private static final double MAX_STEP = 0.1;
 
     // this determines the time resolution of our computation (in s)
     private double dt = 0.01;
 
+    // how much the throttle (as a fraction of full) plus the acceleration (in g's) can change in
+    // a single step. Zero forces every step to be dt long.
+    private double tolerance = DEFAULT_TOLERANCE;
+
     private double currentTime = 0;
 
     // throttle is a slow threshold function that
@@ -104,11 +113,16 @@ public class Engine implements Serializable {
         currentTime = eng.currentTime;
         shiftTimeOut = eng.shiftTimeOut;
         dt = eng.dt;
+        tolerance = eng.tolerance;
     }
 
     /**
      * Runs the simulation up to just past the desired sampleTime with a specified
      * target speed.
+     * <p>
+     * Steps are normally dt long, but when the throttle and speed are changing slowly, the
+     * steps get longer (up to the whole interval once the engine has settled down) so that
+     * cruising at a steady speed costs very little. See {@link #setTolerance(double)}.
      *
      * @param sampleTime  When to stop the simulation and return
      * @param speedTarget The speed we would like to reach
@@ -124,7 +138,10 @@ public class Engine implements Serializable {
             desiredThrottle = Math.min(MAX_THROTTLE, desiredThrottle);
             desiredThrottle = Math.max(0, desiredThrottle);
 
-            currentThrottle += (desiredThrottle - currentThrottle) / THROTTLE_TIME_CONSTANT * dt;
+            double throttleRate = (desiredThrottle - currentThrottle) / THROTTLE_TIME_CONSTANT;
+            double h = stepSize(dt, tolerance, throttleRate, currentAcceleration,
+                    shiftTimeOut > currentTime || brakeForce > 0, sampleTime - currentTime);
+            currentThrottle += throttleRate * h;
 
             // gear box with a bit of slip. We need the slip to get non-zero power when speed == 0
             currentRPM = currentSpeed / MPS_BY_RPM[currentGear] + 200;
@@ -156,7 +173,7 @@ public class Engine implements Serializable {
             double dragForce = DRAG_COEFFICIENT * currentSpeed * currentSpeed;
 
             if (maxBrake > 0 && currentThrottle < 2 && speedTarget < currentSpeed) {
-                brakeForce += VEHICLE_MASS * BRAKING_GAIN * (currentSpeed - speedTarget) * dt;
+                brakeForce += VEHICLE_MASS * BRAKING_GAIN * (currentSpeed - speedTarget) * h;
                 brakeForce = Math.min(brakeForce, VEHICLE_MASS * maxBrake * Constants.G);
             } else {
                 brakeForce = 0;
@@ -169,12 +186,36 @@ public class Engine implements Serializable {
             currentAcceleration = Math.min(8, netForce / VEHICLE_MASS);
 
             double oldSpeed = currentSpeed;
-            currentSpeed += currentAcceleration * dt;
+            currentSpeed += currentAcceleration * h;
             currentSpeed = Math.max(0, currentSpeed);
-            currentDistance += (oldSpeed + currentSpeed) * dt / 2;
+            currentDistance += (oldSpeed + currentSpeed) * h / 2;
+
+            currentTime += h;
+        }
+    }
 
-            currentTime += dt;
+    /**
+     * Picks how long the next step should be. During shifts and braking, or when the throttle or
+     * speed are changing quickly, this is just dt. Otherwise, the step is as long as it can be
+     * while keeping the change in throttle and acceleration within tolerance.
+     *
+     * @param dt           The normal step size.
+     * @param tolerance    How much change is allowed in one step, zero for fixed steps.
+     * @param throttleRate How fast the throttle is changing in percent per second.
+     * @param acceleration Current acceleration.
+     * @param shifting     True if we are shifting or braking.
+     * @param remaining    How much time is left to simulate.
+     */
+    static double stepSize(double dt, double tolerance, double throttleRate, double acceleration, boolean shifting, double remaining) {
+        if (tolerance <= 0 || shifting || remaining <= dt) {
+            return dt;
+        }
+        double rate = Math.abs(throttleRate) / MAX_THROTTLE + Math.abs(acceleration) / Constants.G;
+        if (rate * remaining <= tolerance) {
+            // close enough to steady state that we can jump straight to the end
+            return remaining;
         }
+        return Math.max(dt, Math.min(Math.min(tolerance / rate, MAX_STEP), remaining));
     }
 
     public double getSpeed() {
@@ -204,4 +245,17 @@ public class Engine implements Serializable {
     public void setTime(double time) {
         this.currentTime = time;
     }
+
+    /**
+     * Sets how closely the simulation follows a fixed step integration with steps of 0.01 s.
+     * Larger values allow longer steps when the engine is near a steady state. Zero forces fixed
+     * steps everywhere which is the most accurate, but much slower.
+     *
+     * @param tolerance How much throttle (as a fraction of full throttle) plus acceleration (in g's)
+     *                  can change in a single step.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
 }
@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth.drive;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates many cars driving at once. Rather than a {@link Car} and an {@link Engine} object for
+ * each vehicle, the positions, trip progress and engine state for all of the cars are kept in
+ * parallel arrays of primitives. All cars that are on a trip are advanced together by one sample
+ * time on each call to {@link #step()} and that work is spread across cores using fork-join.
+ * <p>
+ * The physics is exactly that of {@link Car.Drive} and {@link Engine#stepToTime(double, double, double)}.
+ * Given the same random numbers, a car in a fleet follows the same path as it would on its own.
+ * Each car needs its own random number generator so that cars can be stepped in parallel.
+ */
+public class Fleet {
+    // cars are stepped in parallel in groups of about this many
+    private static final int GRAIN = 64;
+
+    private final int n;
+    private final double sampleTime;
+    private final double dt = 0.01;
+    private double tolerance = Engine.DEFAULT_TOLERANCE;
+
+    private final Random[] rand;
+    private final TripLog[] logs;
+    private final boolean[] driving;
+
+    // the plan for each trip and which segment we are on
+    private final Car.Segment[][] plans;
+    private final int[] segment;
+
+    // current position as a unit vector
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+
+    // the current segment
+    private final double[] startX;
+    private final double[] startY;
+    private final double[] startZ;
+    private final double[] directionX;
+    private final double[] directionY;
+    private final double[] directionZ;
+    private final double[] endX;
+    private final double[] endY;
+    private final double[] endZ;
+    private final double[] maxSpeed;
+    private final double[] exitSpeed;
+    private final double[] targetSpeed;
+    private final double[] commandSpeed;
+    private final double[] distanceToGo;
+    private final double[] previousDistance;
+    private final double[] tripTime;
+
+    // engine state, see Engine for the meaning of each of these
+    private final double[] engineTime;
+    private final double[] throttle;
+    private final double[] brakeForce;
+    private final double[] shiftTimeOut;
+    private final int[] gear;
+    private final double[] speed;
+    private final double[] rpm;
+    private final double[] acceleration;
+    private final double[] distance;
+
+    /**
+     * @param n          How many cars are in the fleet.
+     * @param sampleTime Time between data points in seconds.
+     */
+    public Fleet(int n, double sampleTime) {
+        Preconditions.checkArgument(n > 0, "Fleet must have at least one car");
+        this.n = n;
+        this.sampleTime = sampleTime;
+
+        rand = new Random[n];
+        logs = new TripLog[n];
+        driving = new boolean[n];
+        plans = new Car.Segment[n][];
+        segment = new int[n];
+
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+
+        startX = new double[n];
+        startY = new double[n];
+        startZ = new double[n];
+        directionX = new double[n];
+        directionY = new double[n];
+        directionZ = new double[n];
+        endX = new double[n];
+        endY = new double[n];
+        endZ = new double[n];
+        maxSpeed = new double[n];
+        exitSpeed = new double[n];
+        targetSpeed = new double[n];
+        commandSpeed = new double[n];
+        distanceToGo = new double[n];
+        previousDistance = new double[n];
+        tripTime = new double[n];
+
+        engineTime = new double[n];
+        throttle = new double[n];
+        brakeForce = new double[n];
+        shiftTimeOut = new double[n];
+        gear = new int[n];
+        speed = new double[n];
+        rpm = new double[n];
+        acceleration = new double[n];
+        distance = new double[n];
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * See {@link Engine#setTolerance(double)}.
+     */
+    @SuppressWarnings("unused")
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Plans a trip for one car. The car's engine carries over from its previous trip.
+     *
+     * @param car  Which car.
+     * @param rand The random number generator for this car.
+     * @param t    When the trip starts.
+     * @param from Where the trip starts.
+     * @param to   Where the trip ends.
+     * @param log  Where to record each sample of the trip.
+     */
+    void startTrip(int car, Random rand, double t, GeoPoint from, GeoPoint to, TripLog log) {
+        startTrip(car, rand, t, from, Car.plan(from, to, rand), log);
+    }
+
+    /**
+     * Starts a trip for one car along a route that has already been planned.
+     */
+    void startTrip(int car, Random rand, double t, GeoPoint from, List<Car.Segment> plan, TripLog log) {
+        this.rand[car] = rand;
+        logs[car] = log;
+        log.clear();
+
+        plans[car] = plan.toArray(new Car.Segment[0]);
+        segment[car] = 0;
+
+        x[car] = from.x;
+        y[car] = from.y;
+        z[car] = from.z;
+
+        tripTime[car] = t;
+        engineTime[car] = t;
+        driving[car] = nextSegment(car);
+    }
+
+    /**
+     * @return True if this car is still on its trip.
+     */
+    boolean isDriving(int car) {
+        return driving[car];
+    }
+
+    /**
+     * @return The time of the latest sample for this car, or the end of its trip once that is over.
+     */
+    double getTime(int car) {
+        return tripTime[car];
+    }
+
+    /**
+     * Moves all cars that are on a trip forward by one sample. Cars whose trips are over stop driving.
+     */
+    public void step() {
+        if (n <= GRAIN) {
+            step(0, n);
+        } else {
+            ForkJoinPool.commonPool().invoke(new Step(0, n));
+        }
+    }
+
+    private class Step extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Step(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                step(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Step(from, mid), new Step(mid, to));
+            }
+        }
+    }
+
+    private void step(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (driving[i]) {
+                driving[i] = step(i);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link Car.Drive#step()}.
+     */
+    private boolean step(int i) {
+        // each segment ends when we stop getting closer to its end
+        while (distanceToGo[i] > previousDistance[i]) {
+            if (!nextSegment(i)) {
+                return false;
+            }
+        }
+
+        final double dv = 0.1 * Constants.G * sampleTime;
+        Random rand = this.rand[i];
+        if (rand.nextDouble() < 0.05) {
+            targetSpeed[i] = Math.max(20 * Constants.MPH, targetSpeed[i] + (rand.nextInt(5) - 2) * 5 * Constants.MPH);
+        }
+        targetSpeed[i] = Math.min(maxSpeed[i], targetSpeed[i]);
+
+        if (commandSpeed[i] < targetSpeed[i]) {
+            commandSpeed[i] += dv;
+        } else {
+            commandSpeed[i] -= dv;
+        }
+        commandSpeed[i] = Math.min(commandSpeed[i], Car.maxSpeed(distanceToGo[i] * 1000, exitSpeed[i]));
+        stepToTime(i, tripTime[i], commandSpeed[i], Car.BRAKING_ACCELERATION);
+        tripTime[i] += sampleTime;
+
+        double d = distance[i] / 1000 / Constants.EARTH_RADIUS_KM;
+        double px = startX[i] + d * directionX[i];
+        double py = startY[i] + d * directionY[i];
+        double pz = startZ[i] + d * directionZ[i];
+        double scale = 1 / Math.sqrt(px * px + py * py + pz * pz);
+        x[i] = px * scale;
+        y[i] = py * scale;
+        z[i] = pz * scale;
+
+        previousDistance[i] = distanceToGo[i];
+        distanceToGo[i] = distance(i);
+        logs[i].add(tripTime[i], x[i], y[i], z[i], speed[i], rpm[i], throttle[i]);
+        return true;
+    }
+
+    private boolean nextSegment(int i) {
+        if (segment[i] == plans[i].length) {
+            return false;
+        }
+        Car.Segment s = plans[i][segment[i]++];
+        targetSpeed[i] = s.travelSpeed();
+        maxSpeed[i] = s.maxSpeed();
+        exitSpeed[i] = s.exitSpeed();
+        commandSpeed[i] = 0;
+
+        startX[i] = x[i];
+        startY[i] = y[i];
+        startZ[i] = z[i];
+        GeoPoint end = s.getEnd();
+        endX[i] = end.x;
+        endY[i] = end.y;
+        endZ[i] = end.z;
+
+        distanceToGo[i] = distance(i);
+        previousDistance[i] = distanceToGo[i];
+        distance[i] = 0;
+
+        double dx = endX[i] - startX[i];
+        double dy = endY[i] - startY[i];
+        double dz = endZ[i] - startZ[i];
+        double scale = 1 / Math.sqrt(dx * dx + dy * dy + dz * dz);
+        directionX[i] = dx * scale;
+        directionY[i] = dy * scale;
+        directionZ[i] = dz * scale;
+        return true;
+    }
+
+    /**
+     * Same as {@link GeoPoint#distance(GeoPoint)} from the current position to the end of the segment.
+     */
+    private double distance(int i) {
+        double dx = x[i] - endX[i];
+        double dy = y[i] - endY[i];
+        double dz = z[i] - endZ[i];
+        return Constants.EARTH_RADIUS_KM * 2 * Math.asin(Math.sqrt(dx * dx + dy * dy + dz * dz) / 2);
+    }
+
+    /**
+     * Same as {@link Engine#stepToTime(double, double, double)}.
+     */
+    private void stepToTime(int i, double sampleTime, double speedTarget, double maxBrake) {
+        double currentTime = engineTime[i];
+        double currentThrottle = throttle[i];
+        double brakeForce = this.brakeForce[i];
+        double shiftTimeOut = this.shiftTimeOut[i];
+        int currentGear = gear[i];
+        double currentSpeed = speed[i];
+        double currentRPM = rpm[i];
+        double currentAcceleration = acceleration[i];
+        double currentDistance = distance[i];
+
+        while (currentTime < sampleTime) {
+            double desiredThrottle = Engine.THROTTLE_CONTROL_GAIN * (speedTarget - currentSpeed) - Engine.ACCELERATION_BACKOFF * currentAcceleration;
+            desiredThrottle = Math.min(Engine.MAX_THROTTLE, desiredThrottle);
+            desiredThrottle = Math.max(0, desiredThrottle);
+
+            double throttleRate = (desiredThrottle - currentThrottle) / Engine.THROTTLE_TIME_CONSTANT;
+            double h = Engine.stepSize(dt, tolerance, throttleRate, currentAcceleration,
+                    shiftTimeOut > currentTime || brakeForce > 0, sampleTime - currentTime);
+            currentThrottle += throttleRate * h;
+
+            currentRPM = currentSpeed / Engine.MPS_BY_RPM[currentGear] + 200;
+            if (currentRPM > Engine.HIGH_SHIFT && currentGear < Engine.TOP_GEAR) {
+                currentGear++;
+                shiftTimeOut = currentTime + Engine.SHIFT_TIME;
+            } else if (currentRPM < Engine.LOW_SHIFT && currentGear > 0) {
+                currentGear--;
+                shiftTimeOut = currentTime + Engine.SHIFT_TIME;
+            }
+            currentRPM = currentSpeed / Engine.MPS_BY_RPM[currentGear] + 200;
+
+            double powerSetting = currentThrottle / 100.0 - 0.05;
+            if (shiftTimeOut > currentTime) {
+                powerSetting = 0;
+            }
+            double engineForce = Engine.TORQUE_AT_ZERO / Engine.MPS_BY_RPM[currentGear] * (1.0 - currentRPM / Engine.ZERO_TORQUE_RPM) * powerSetting;
+            double dragForce = Engine.DRAG_COEFFICIENT * currentSpeed * currentSpeed;
+
+            if (maxBrake > 0 && currentThrottle < 2 && speedTarget < currentSpeed) {
+                brakeForce += Engine.VEHICLE_MASS * Engine.BRAKING_GAIN * (currentSpeed - speedTarget) * h;
+                brakeForce = Math.min(brakeForce, Engine.VEHICLE_MASS * maxBrake * Constants.G);
+            } else {
+                brakeForce = 0;
+            }
+
+            double netForce = engineForce - dragForce - brakeForce;
+            currentAcceleration = Math.min(8, netForce / Engine.VEHICLE_MASS);
+
+            double oldSpeed = currentSpeed;
+            currentSpeed += currentAcceleration * h;
+            currentSpeed = Math.max(0, currentSpeed);
+            currentDistance += (oldSpeed + currentSpeed) * h / 2;
+
+            currentTime += h;
+        }
+
+        engineTime[i] = currentTime;
+        throttle[i] = currentThrottle;
+        this.brakeForce[i] = brakeForce;
+        this.shiftTimeOut[i] = shiftTimeOut;
+        gear[i] = currentGear;
+        speed[i] = currentSpeed;
+        rpm[i] = currentRPM;
+        acceleration[i] = currentAcceleration;
+        distance[i] = currentDistance;
+    }
+}
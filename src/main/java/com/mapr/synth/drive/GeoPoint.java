@@ -21,41 +21,64 @@ package com.mapr.synth.drive;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
 import java.util.Random;
 
 /**
- * Created by tdunning on 9/25/15.
+ * A point on the surface of the earth represented as a unit vector. Directions on the surface
+ * (such as east and north at some point) are also unit vectors so they can be represented the same way.
+ * <p>
+ * Points are mutable and the methods that need a vector result can write it into an existing point
+ * so that simulations can move points around without allocating anything.
  */
 public class GeoPoint {
-    private static final Vector3D X = new Vector3D(1, 0, 0);
-    private static final Vector3D Z = new Vector3D(0, 0, 1);
-
     private static JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
 
-    Vector3D r;
+    double x;
+    double y;
+    double z;
 
     @SuppressWarnings("WeakerAccess")
     public GeoPoint(double latitude, double longitude) {
         double c = Math.cos(latitude);
-        r = new Vector3D(Math.cos(longitude) * c, Math.sin(longitude) * c, Math.sin(latitude));
+        x = Math.cos(longitude) * c;
+        y = Math.sin(longitude) * c;
+        z = Math.sin(latitude);
     }
 
     @SuppressWarnings("WeakerAccess")
     public GeoPoint(Vector3D r) {
-        this.r = r.normalize();
+        set(r.getX(), r.getY(), r.getZ());
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public GeoPoint(GeoPoint other) {
+        x = other.x;
+        y = other.y;
+        z = other.z;
+    }
+
+    private GeoPoint() {
     }
 
     @SuppressWarnings("WeakerAccess")
     public Vector3D as3D() {
-        return r;
+        return new Vector3D(x, y, z);
     }
 
-    public double distance(GeoPoint x) {
+    public double distance(GeoPoint other) {
         // the dot product could also be used here, but we expect small distances mostly
         // so the haversine formulation is more accurate
-        return Constants.EARTH_RADIUS_KM * 2 * Math.asin(r.subtract(x.r).getNorm() / 2);
+        double dx = x - other.x;
+        double dy = y - other.y;
+        double dz = z - other.z;
+        return Constants.EARTH_RADIUS_KM * 2 * Math.asin(Math.sqrt(dx * dx + dy * dy + dz * dz) / 2);
+    }
+
+    public double dot(GeoPoint other) {
+        return x * other.x + y * other.y + z * other.z;
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -63,41 +86,84 @@ public class GeoPoint {
         distance = distance / Constants.EARTH_RADIUS_KM;
         double u = rand.nextGaussian();
         double v = rand.nextGaussian();
-        return project(distance * u, distance * v);
+
+        GeoPoint east = east(new GeoPoint());
+        GeoPoint north = north(east, new GeoPoint());
+        double du = distance * u;
+        double dv = distance * v;
+        east.set(x + du * east.x + dv * north.x, y + du * east.y + dv * north.y, z + du * east.z + dv * north.z);
+        return east;
     }
 
-    private GeoPoint project(double u, double v) {
-        Vector3D ux = east();
-        Vector3D vx = north(ux);
+    /**
+     * Finds the direction of east at this point. Near the poles, where east isn't well defined,
+     * an arbitrary direction perpendicular to this point is used.
+     *
+     * @param result Where to put the answer.
+     * @return The result.
+     */
+    public GeoPoint east(GeoPoint result) {
+        // this is the cross product with the z axis
+        double ex = y;
+        double ey = -x;
+        if (Math.sqrt(ex * ex + ey * ey) < 1e-4) {
+            // near the poles (i.e. < 640 meters from them), the definition of east is difficult
+            // so we use the cross product with the x axis instead
+            result.set(0, z, -y);
+        } else {
+            result.set(ex, ey, 0);
+        }
+        return result;
+    }
 
-        return new GeoPoint(r.add(ux.scalarMultiply(u).add(vx.scalarMultiply(v))).normalize());
+    /**
+     * Finds the direction of north at this point.
+     *
+     * @param east   The direction of east at this point.
+     * @param result Where to put the answer.
+     * @return The result.
+     */
+    public GeoPoint north(GeoPoint east, GeoPoint result) {
+        result.set(y * east.z - z * east.y, z * east.x - x * east.z, x * east.y - y * east.x);
+        return result;
     }
 
     public Vector3D north(Vector3D ux) {
-        return r.crossProduct(ux).normalize();
+        return north(new GeoPoint(ux), new GeoPoint()).as3D();
     }
 
-    public Vector3D east(Vector3D r) {
-        Vector3D ux = r.crossProduct(Z);
-        if (ux.getNorm() < 1e-4) {
-            // near the poles (i.e. < 640 meters from them), the definition of east is difficult
-            ux = this.r.crossProduct(X);
-        }
-        ux = ux.normalize();
-        return ux;
+    public Vector3D east() {
+        return east(new GeoPoint()).as3D();
     }
 
-    public Vector3D east() {
-        return east(r);
+    /**
+     * Moves this point to the normalized version of the given vector.
+     */
+    public void set(double x, double y, double z) {
+        double norm = Math.sqrt(x * x + y * y + z * z);
+        Preconditions.checkArgument(norm > 0, "Can't locate a point at the center of the earth");
+        double scale = 1 / norm;
+        this.x = x * scale;
+        this.y = y * scale;
+        this.z = z * scale;
+    }
+
+    /**
+     * Moves this point to the same place as another.
+     */
+    public void copy(GeoPoint other) {
+        x = other.x;
+        y = other.y;
+        z = other.z;
     }
 
     public void setPosition(Vector3D position) {
-        this.r = position.normalize();
+        set(position.getX(), position.getY(), position.getZ());
     }
 
     public ObjectNode asJson(ObjectNode node) {
-        node.set("latitude", nodeFactory.numberNode(180 / Math.PI * Math.asin(r.getZ())));
-        node.set("longitude", nodeFactory.numberNode(180 / Math.PI * Math.atan2(r.getY(), r.getX())));
+        node.set("latitude", nodeFactory.numberNode(180 / Math.PI * Math.asin(z)));
+        node.set("longitude", nodeFactory.numberNode(180 / Math.PI * Math.atan2(y, x)));
         return node;
     }
 }
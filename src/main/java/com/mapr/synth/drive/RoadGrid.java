@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth.drive;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.mapr.synth.EventQueue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A synthetic road network for planning routes. Roads run along lines of constant latitude and
+ * longitude spaced a fixed distance apart. Every so often, one of these roads is a highway
+ * instead of a local road. Routes between grid intersections are found with A* search to
+ * minimize travel time and are remembered so that a commuter who makes the same trip every day
+ * doesn't have to have it planned again.
+ * <p>
+ * The grid is only used to decide on the route. Getting on to the grid at the start and off of it
+ * at the end is done by driving directly between the trip end points and the nearest intersection.
+ */
+public class RoadGrid {
+    private static final double LOCAL_SPEED = 35 * Constants.MPH;
+    private static final double HIGHWAY_SPEED = 65 * Constants.MPH;
+
+    // searches bigger than this are abandoned in favor of random planning
+    private static final int MAX_NODES = 4_000_000;
+
+    // how many routes we remember
+    private static final int CACHE_SIZE = 10_000;
+
+    // spacing between roads in radians
+    private final double spacing;
+    private final double spacingKm;
+    private final int highwayEvery;
+
+    private final Map<Route, List<Car.Segment>> cache = new LinkedHashMap<Route, List<Car.Segment>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Route, List<Car.Segment>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * @param spacingKm    Distance between roads.
+     * @param highwayEvery How many roads apart highways are.
+     */
+    public RoadGrid(double spacingKm, int highwayEvery) {
+        Preconditions.checkArgument(spacingKm > 0, "Road spacing must be positive");
+        Preconditions.checkArgument(highwayEvery > 0, "Highway spacing must be positive");
+        this.spacingKm = spacingKm;
+        this.spacing = spacingKm / Constants.EARTH_RADIUS_KM;
+        this.highwayEvery = highwayEvery;
+    }
+
+    /**
+     * Plans a route from start to end.
+     *
+     * @param rand Used to plan a route the old-fashioned way if the ends are too far apart for the grid.
+     */
+    public List<Car.Segment> plan(GeoPoint start, GeoPoint end, Random rand) {
+        int i0 = row(start);
+        int j0 = column(start);
+        int i1 = row(end);
+        int j1 = column(end);
+
+        List<Car.Segment> middle = route(i0, j0, i1, j1);
+        if (middle == null) {
+            // too far for the grid
+            return Car.plan(start, end, rand);
+        }
+
+        List<Car.Segment> r = Lists.newArrayList();
+        GeoPoint here = start;
+        GeoPoint entry = node(i0, j0);
+        if (here.distance(entry) > Constants.GEO_FUZZ) {
+            r.add(new Car.Local(entry));
+            here = entry;
+        }
+        r.addAll(middle);
+        if (!middle.isEmpty()) {
+            here = middle.get(middle.size() - 1).getEnd();
+        }
+        if (here.distance(end) > Constants.GEO_FUZZ) {
+            r.add(new Car.Local(end));
+        }
+        return r;
+    }
+
+    /**
+     * @return How many routes are remembered.
+     */
+    public synchronized int cacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Finds or remembers the route between two intersections.
+     *
+     * @return The segments of the route, or null if the intersections are too far apart.
+     */
+    synchronized List<Car.Segment> route(int i0, int j0, int i1, int j1) {
+        Route key = new Route(i0, j0, i1, j1);
+        List<Car.Segment> r = cache.get(key);
+        if (r == null) {
+            r = search(i0, j0, i1, j1);
+            if (r != null) {
+                r = Collections.unmodifiableList(r);
+                cache.put(key, r);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * A* search for the fastest route between two intersections. The search is confined to a box
+     * around the two ends that is big enough to reach the nearest highways.
+     */
+    private List<Car.Segment> search(int i0, int j0, int i1, int j1) {
+        int iMin = Math.min(i0, i1) - highwayEvery;
+        int jMin = Math.min(j0, j1) - highwayEvery;
+        int rows = Math.abs(i1 - i0) + 2 * highwayEvery + 1;
+        int columns = Math.abs(j1 - j0) + 2 * highwayEvery + 1;
+        if ((long) rows * columns > MAX_NODES) {
+            return null;
+        }
+
+        int n = rows * columns;
+        double[] cost = new double[n];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        int[] parent = new int[n];
+        boolean[] done = new boolean[n];
+
+        int source = (i0 - iMin) * columns + (j0 - jMin);
+        int target = (i1 - iMin) * columns + (j1 - jMin);
+        cost[source] = 0;
+        parent[source] = -1;
+
+        EventQueue queue = new EventQueue();
+        queue.add(estimate(i0, j0, i1, j1), source);
+        while (!queue.isEmpty()) {
+            int k = queue.poll();
+            if (done[k]) {
+                continue;
+            }
+            done[k] = true;
+            if (k == target) {
+                break;
+            }
+            int i = k / columns + iMin;
+            int j = k % columns + jMin;
+
+            // east-west along this row, north-south along this column
+            double ewTime = Math.cos(i * spacing) * spacingKm * 1000 / speed(i);
+            double nsTime = spacingKm * 1000 / speed(j);
+            for (int direction = 0; direction < 4; direction++) {
+                int di = direction == 0 ? 1 : direction == 1 ? -1 : 0;
+                int dj = direction == 2 ? 1 : direction == 3 ? -1 : 0;
+                int ni = i + di - iMin;
+                int nj = j + dj - jMin;
+                if (ni < 0 || ni >= rows || nj < 0 || nj >= columns) {
+                    continue;
+                }
+                int m = ni * columns + nj;
+                double c = cost[k] + (di == 0 ? ewTime : nsTime);
+                if (!done[m] && c < cost[m]) {
+                    cost[m] = c;
+                    parent[m] = k;
+                    queue.add(c + estimate(ni + iMin, nj + jMin, i1, j1), m);
+                }
+            }
+        }
+
+        // walk back along the path, then turn it into segments that each follow one road
+        List<Integer> path = Lists.newArrayList();
+        for (int k = target; k != -1; k = parent[k]) {
+            path.add(k);
+        }
+        Collections.reverse(path);
+
+        List<Car.Segment> r = Lists.newArrayList();
+        for (int p = 1; p < path.size(); p++) {
+            int k = path.get(p);
+            boolean last = p == path.size() - 1 || turns(path.get(p - 1), k, path.get(p + 1));
+            if (last) {
+                int i = k / columns + iMin;
+                int j = k % columns + jMin;
+                boolean eastWest = path.get(p - 1) / columns == k / columns;
+                boolean highway = speed(eastWest ? i : j) == HIGHWAY_SPEED;
+                GeoPoint node = node(i, j);
+                r.add(highway ? new Car.Highway(node) : new Car.Local(node));
+            }
+        }
+        return r;
+    }
+
+    private static boolean turns(int a, int b, int c) {
+        return b - a != c - b;
+    }
+
+    private double speed(int road) {
+        return Math.floorMod(road, highwayEvery) == 0 ? HIGHWAY_SPEED : LOCAL_SPEED;
+    }
+
+    /**
+     * Lower bound on the travel time between two intersections.
+     */
+    private double estimate(int i0, int j0, int i1, int j1) {
+        double ns = (i1 - i0) * spacingKm;
+        double ew = (j1 - j0) * spacingKm * Math.cos(Math.max(Math.abs(i0), Math.abs(i1)) * spacing);
+        return Math.sqrt(ns * ns + ew * ew) * 1000 / HIGHWAY_SPEED;
+    }
+
+    private int row(GeoPoint p) {
+        return (int) Math.round(Math.asin(p.z) / spacing);
+    }
+
+    private int column(GeoPoint p) {
+        return (int) Math.round(Math.atan2(p.y, p.x) / spacing);
+    }
+
+    private GeoPoint node(int i, int j) {
+        return new GeoPoint(i * spacing, j * spacing);
+    }
+
+    private static final class Route {
+        private final int i0;
+        private final int j0;
+        private final int i1;
+        private final int j1;
+
+        Route(int i0, int j0, int i1, int j1) {
+            this.i0 = i0;
+            this.j0 = j0;
+            this.i1 = i1;
+            this.j1 = j1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Route)) {
+                return false;
+            }
+            Route other = (Route) o;
+            return i0 == other.i0 && j0 == other.j0 && i1 == other.i1 && j1 == other.j1;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((i0 * 31 + j0) * 31 + i1) * 31 + j1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth.drive;
+
+import java.util.Arrays;
+
+/**
+ * The data points for a single trip, kept compactly in a reusable array. A trip has to be
+ * completely simulated before any of its points can be output because the duration of the trip
+ * is part of each point.
+ */
+class TripLog {
+    private static final int STRIDE = 6;
+
+    // time, latitude, longitude, mph, rpm and throttle for each point
+    private double[] data = new double[STRIDE * 1024];
+    private int size = 0;
+
+    void clear() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Records a data point.
+     *
+     * @param t        The time of the point.
+     * @param x        Position of the car as a unit vector.
+     * @param y        Position of the car as a unit vector.
+     * @param z        Position of the car as a unit vector.
+     * @param speed    Speed of the car in m/s.
+     * @param rpm      Engine speed.
+     * @param throttle Throttle setting in percent.
+     */
+    void add(double t, double x, double y, double z, double speed, double rpm, double throttle) {
+        if (STRIDE * (size + 1) > data.length) {
+            data = Arrays.copyOf(data, 2 * data.length);
+        }
+        int k = STRIDE * size++;
+        data[k] = t;
+        data[k + 1] = 180 / Math.PI * Math.asin(z);
+        data[k + 2] = 180 / Math.PI * Math.atan2(y, x);
+        data[k + 3] = speed * Constants.MPH;
+        data[k + 4] = rpm;
+        data[k + 5] = throttle;
+    }
+
+    double time(int i) {
+        return data[STRIDE * i];
+    }
+
+    double latitude(int i) {
+        return data[STRIDE * i + 1];
+    }
+
+    double longitude(int i) {
+        return data[STRIDE * i + 2];
+    }
+
+    double mph(int i) {
+        return data[STRIDE * i + 3];
+    }
+
+    double rpm(int i) {
+        return data[STRIDE * i + 4];
+    }
+
+    double throttle(int i) {
+        return data[STRIDE * i + 5];
+    }
+}
@@ -21,6 +21,7 @@ package com.mapr.synth.samplers;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.mapr.synth.NestedRandom;
 
 /**
  * Sample kind of plausible addresses
@@ -41,4 +42,21 @@ class AddressSampler extends FieldSampler {
     public JsonNode sample() {
         return new TextNode(number.sample().asInt() + " " + street.sample().asText());
     }
+
+    @Override
+    public void setSeed(long seed) {
+        street.setSeed(NestedRandom.mix(seed, 0));
+        number.setSeed(NestedRandom.mix(seed, 1));
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        street.seek(row, NestedRandom.mix(seed, 0));
+        number.seek(row, NestedRandom.mix(seed, 1));
+    }
 }
@@ -22,11 +22,11 @@ package com.mapr.synth.samplers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.mapr.synth.FancyTimeFormatter;
+import com.mapr.synth.FastRandom;
 import com.mapr.synth.Util;
-import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.jet.random.Gamma;
 
 import java.text.ParseException;
-import java.util.Date;
 import java.util.Random;
 
 /**
@@ -55,7 +55,7 @@ public class ArrivalSampler extends FieldSampler {
     private double now = start;
 
     public ArrivalSampler() {
-        base = RandomUtils.getRandom();
+        base = FastRandom.newRandom();
     }
 
     @Override
@@ -86,13 +86,33 @@ public class ArrivalSampler extends FieldSampler {
 
     @Override
     public void setSeed(long seed) {
-        base = RandomUtils.getRandom(seed);
+        base = FastRandom.newRandom(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    /**
+     * The time of the n-th arrival is the sum of n exponential intervals which has a gamma
+     * distribution, so we can jump ahead with a single sample.
+     */
+    @Override
+    public void seek(long row, long seed) {
+        synchronized (this) {
+            setSeed(seed);
+            now = start + row * minInterval;
+            if (row > 0) {
+                now += new Gamma(row, 1 / meanInterval, base).nextDouble();
+            }
+        }
     }
 
     @Override
     public JsonNode sample() {
         synchronized (this) {
-            TextNode r = new TextNode(df.format(new Date((long) now)));
+            TextNode r = new TextNode(df.format((long) now));
             double interval = -meanInterval * Math.log(1.0 - base.nextDouble());
             now += (minInterval + interval);
             return r;
@@ -21,65 +21,49 @@ package com.mapr.synth.samplers;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.base.Preconditions;
+import com.mapr.synth.EventQueue;
 import com.mapr.synth.FancyTimeFormatter;
+import com.mapr.synth.FastRandom;
 import com.mapr.synth.Util;
+import com.mapr.synth.distributions.DiurnalProcess;
 import com.mapr.synth.distributions.WrappedNormal;
-import org.apache.mahout.math.jet.random.Exponential;
-import org.apache.mahout.math.jet.random.Gamma;
 
 import java.text.ParseException;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Adds times to samples from another sampler so that they look like the bursty actions of a user
+ * who is busy during their day and quiet at night.
+ *
+ * Normally, successive samples are successive actions by one user. If {@code users} is set, that
+ * many users are simulated at once and successive samples are the actions of all of them in time
+ * order along with which user did each one.
+ */
 public class BurstyEvents extends FieldSampler {
     // this gives a 5 hour active day per user
     private static final long NIGHT_DURATION = TimeUnit.HOURS.toMillis(19);
 
     private JsonNodeFactory factory = JsonNodeFactory.withExactBigDecimals(false);
-    private Random base = new Random();
+    private Random base = FastRandom.newRandom();
 
     private FieldSampler value;
 
     // most internal parameters will be resampled on each restart
-    // in some cases, these are actually a distribution that is reparametrized on each restart and sampled each transaction
-    private Gamma dilationDistribution = new Gamma(6, 1, base);
-    private double dilation;
-
-    // distribution of active times
-    private Exponential activeDistribution = new Exponential(1.0 / TimeUnit.MINUTES.toMillis(10), base);
-    private Exponential active;
-
-    // distribution of inactive times
-    private Exponential inActiveDistribution = new Exponential(1.0 / TimeUnit.HOURS.toMillis(4), base);
-    private Exponential inActive;
-
-    // distribution of query times
-    private Exponential meanIntervalDistribution = new Exponential(1.0 / TimeUnit.MINUTES.toMillis(1), base);
-    private Exponential interval;   // interval sampled from this
-
-    // distribution of how much slower queries go slower when inactive
-    private Gamma idleDistribution = new Gamma(6, 1.0, base);
-    private double idle;
+    private DiurnalProcess.Parameters parameters = new DiurnalProcess.Parameters(base, NIGHT_DURATION);
+    private DiurnalProcess process = new DiurnalProcess(parameters);
 
     private FancyTimeFormatter df = new FancyTimeFormatter();
 
     private double start = System.currentTimeMillis() - 3 * Util.ONE_DAY;
     private double end = Double.MAX_VALUE;
-    private double now = start;
-
-    private boolean isActive = false;
-
-    // transitions to active happen in dilated time so that active sessions occur less often at night
-    // but transition to inactive happen in real time so sessions at night are not longer than normal
-    private double nextTransition = 0;
-
-    // next query is always in real-time. This time is reset if a session ends before the next query
-    private double nextQuery = 0;
 
     // emulates roughly a US dominated audience with almost a 4:1 peak to valley ratio for the distribution
     // of sunrise times. The actual times of the bursts will be more spread out than this due the length of
@@ -88,10 +72,14 @@ public class BurstyEvents extends FieldSampler {
             Util.ONE_DAY,
             TimeUnit.HOURS.toMillis(19),
             TimeUnit.HOURS.toMillis(5));
-    private double sunriseTime = sunriseGenerator.nextDouble();
-    private double sunsetTime = sunriseTime < NIGHT_DURATION ? sunriseTime - NIGHT_DURATION + Util.ONE_DAY : sunriseTime - NIGHT_DURATION;
 
-    private boolean isDaytime = Util.isDaytime(now, sunriseTime, sunsetTime);
+    // when simulating many users at once, these hold the users and the time of each one's next action
+    private int users = 0;
+    private DiurnalProcess[] population;
+    private EventQueue queue;
+
+    // set when a setting changes so that we start over before the next sample
+    private boolean restartNeeded = false;
 
     public BurstyEvents() {
         restart();
@@ -101,151 +89,45 @@ public class BurstyEvents extends FieldSampler {
         this.value = value;
     }
 
-    enum Event {
-        SUNRISE, SUNSET,
-        ACTIVATE, DEACTIVATE,
-        ACTION, END
-    }
-
-    /**
-     * Step to the next event. This hard-coded method is simpler than the normal sort of priority queue of events
-     * because of the time dilation that we have at night.
-     *
-     * @return The next event.
-     */
-    private Event step() {
-        if (now > end) {
-            return Event.END;
-        }
-        double timeOfDay = Util.timeOfDay(now);
-        isDaytime = Util.isDaytime(timeOfDay, sunriseTime, sunsetTime);
-        if (isDaytime) {
-            // during the day, time passes in real-time
-            double sunset = Util.dayOrigin(now) + sunsetTime;
-            while (sunset <= now) {
-                sunset += Util.ONE_DAY;
-            }
-            if (sunset < nextTransition) {
-                return handleSunEvent(sunset, Event.SUNSET, dilation);
-            } else {
-                return getNextEvent();
-            }
+    @Override
+    public void restart() {
+        restartNeeded = false;
+        if (users == 0) {
+            process.restart(start, end, sunriseGenerator.nextDouble());
         } else {
-            double sunrise = Util.dayOrigin(now) + sunriseTime;
-            if (sunrise <= now) {
-                sunrise += Util.ONE_DAY;
-            }
-
-            // if inactive at night, time is dilated
-            if (sunrise < nextTransition) {
-                return handleSunEvent(sunrise, Event.SUNRISE, 1.0 / dilation);
-            } else {
-                return getNextEvent();
-            }
-        }
-    }
-
-    private Event handleSunEvent(double t, Event event, double scale) {
-        if (t < nextQuery) {
-            now = t + 1;
-            if (!isActive) {
-                // start dilating time for query and state transition
-                double remainder = nextQuery - now;
-                nextQuery = now + scale * remainder;
-
-                remainder = nextTransition - now;
-                nextTransition = now + scale * remainder;
+            if (population == null || population.length != users) {
+                population = new DiurnalProcess[users];
+                queue = new EventQueue(users);
+                for (int i = 0; i < users; i++) {
+                    population[i] = new DiurnalProcess(parameters);
+                }
             }
-            isDaytime = !isDaytime;
-            return event;
-        } else {
-            now = nextQuery;
-            nextQuery = getNextQueryTime();
-            return Event.ACTION;
-        }
-    }
-
-    private Event getNextEvent() {
-        if (nextTransition < nextQuery) {
-            // state transition
-            now = nextTransition;
-
-            // change of state gives us an entirely new next query time
-            return flipActivation();
-        } else {
-            // query comes first
-            now = nextQuery;
-            nextQuery = getNextQueryTime();
-            return Event.ACTION;
-        }
-    }
-
-    private Event flipActivation() {
-        if (isActive) {
-            isActive = false;
-            nextQuery = getNextQueryTime();
-            nextTransition = getNextTransition();
-            return Event.DEACTIVATE;
-        } else {
-            isActive = true;
-            nextQuery = getNextQueryTime();
-            nextTransition = getNextTransition();
-            return Event.ACTIVATE;
-        }
-    }
-
-    private double getNextTransition() {
-        if (isActive) {
-            return now + active.nextDouble();
-        } else {
-            double delay = inActive.nextDouble();
-            if (!isDaytime) {
-                delay *= dilation;
+            queue.clear();
+            for (int i = 0; i < users; i++) {
+                population[i].restart(start, end, sunriseGenerator.nextDouble());
+                if (population[i].advance()) {
+                    queue.add(population[i].getTime(), i);
+                }
             }
-            return now + delay;
-        }
-    }
-
-    private double getNextQueryTime() {
-        double delay;
-        delay = interval.nextDouble();
-        if (!isActive) {
-            delay = interval.nextDouble() * idle;
-        }
-        if (!isDaytime) {
-            delay = interval.nextDouble() * dilation;
-        }
-        return now + delay;
-    }
-
-    @Override
-    public void restart() {
-        now = start;
-        dilation = Math.exp(dilationDistribution.nextDouble());
-        if (Double.isInfinite(dilation) || dilation > 1e4) {
-            System.out.printf("Extreme dilation: %.2f\n", dilation);
-        }
-        active = new Exponential(1 / activeDistribution.nextDouble(), base);
-        inActive = new Exponential(1 / inActiveDistribution.nextDouble(), base);
-        interval = new Exponential(1.0 / meanIntervalDistribution.nextDouble(), base);
-        idle = Math.exp(idleDistribution.nextDouble());
-        if (Double.isInfinite(idle) || idle > 1e4) {
-            System.out.printf("Extreme idle factor: %.2f\n", dilation);
         }
-
-        sunriseTime = sunriseGenerator.nextDouble();
-        sunsetTime = sunriseTime < NIGHT_DURATION ? sunriseTime - NIGHT_DURATION + Util.ONE_DAY : sunriseTime - NIGHT_DURATION;
-
-        // we start inactive
-        isDaytime = Util.isDaytime(Util.timeOfDay(now), sunriseTime, sunsetTime);
-        isActive = false;
-        nextTransition = getNextTransition();
-        nextQuery = getNextQueryTime();
     }
 
     @SuppressWarnings("UnusedDeclaration")
     public void setRate(String rate) {
-        meanIntervalDistribution = new Exponential(Util.parseRateAsInterval(rate), base);
+        parameters.setRate(rate);
+        restartNeeded = true;
+    }
+
+    /**
+     * Sets the number of users to simulate at once. If this is set, samples are the actions of
+     * all users in time order.
+     */
+    @SuppressWarnings("unused")
+    public void setUsers(int users) {
+        Preconditions.checkArgument(users >= 0, "Number of users must be non-negative");
+        this.users = users;
+        population = null;
+        restartNeeded = true;
     }
 
     @SuppressWarnings("unused")
@@ -256,10 +138,12 @@ public class BurstyEvents extends FieldSampler {
     @SuppressWarnings("UnusedDeclaration")
     public void setStart(String start) throws ParseException {
         this.start = df.parse(start).getTime();
+        restartNeeded = true;
     }
 
     public void setEnd(String end) throws ParseException {
         this.end = df.parse(end).getTime();
+        restartNeeded = true;
     }
 
     @Override
@@ -280,11 +164,17 @@ public class BurstyEvents extends FieldSampler {
         fields.add("time");
         fields.add("timestamp_s");
         fields.add("timestamp_ms");
+        if (users > 0) {
+            fields.add("user");
+        }
     }
 
 
     @Override
     public JsonNode sample() {
+        if (restartNeeded) {
+            restart();
+        }
         JsonNode r;
         if (value != null) {
             r = value.sample();
@@ -311,21 +201,25 @@ public class BurstyEvents extends FieldSampler {
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     private boolean addTimeFields(ObjectNode x) {
-        Event e = null;
-        while (e != Event.ACTION) {
-            e = step();
-//            System.out.printf("%8s/%-9s %11s %s %8.2f %8.2f %8.2f %8.2f\n",
-//                    Util.isDaytime(Util.timeOfDay(now), sunriseTime, sunsetTime) ? "day" : "night",
-//                    isActive ? "active" : "inactive",
-//                    e, df.format((long) now),
-//                    (nextQuery - now) / TimeUnit.HOURS.toMillis(1),
-//                    (nextTransition - now) / TimeUnit.HOURS.toMillis(1),
-//                    24 * Util.fractionalPart((sunriseTime - Util.timeOfDay(now)) / TimeUnit.HOURS.toMillis(24)),
-//                    24 * Util.fractionalPart((sunsetTime - Util.timeOfDay(now)) / TimeUnit.HOURS.toMillis(24))
-//            );
-            if (e == Event.END) {
+        double now;
+        if (users == 0) {
+            if (!process.advance()) {
+                return false;
+            }
+            now = process.getTime();
+        } else {
+            if (queue.isEmpty()) {
                 return false;
             }
+            int user = queue.peek();
+            now = queue.peekTime();
+            DiurnalProcess p = population[user];
+            if (p.advance()) {
+                queue.replaceTop(p.getTime(), user);
+            } else {
+                queue.poll();
+            }
+            x.set("user", new IntNode(user));
         }
         x.set("time", new TextNode(df.format((long) now)));
         x.set("timestamp_ms", new LongNode((long) now));
@@ -29,6 +29,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.mapr.synth.FancyTimeFormatter;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.jet.random.Gamma;
 
 import java.text.ParseException;
@@ -109,7 +110,7 @@ class Changer extends FieldSampler {
 
     private JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
 
-    private Random gen = new Random();
+    private Random gen = FastRandom.newRandom();
     private double end = System.currentTimeMillis();
     private double start = System.currentTimeMillis() - TimeUnit.MILLISECONDS.convert(100, TimeUnit.DAYS);
 
@@ -26,14 +26,13 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.mapr.synth.FancyTimeFormatter;
+import com.mapr.synth.FastRandom;
 import com.mapr.synth.distributions.ChineseRestaurant;
 import org.apache.mahout.math.jet.random.Exponential;
 import org.apache.mahout.math.jet.random.Gamma;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -64,14 +63,14 @@ import java.util.concurrent.TimeUnit;
  * </ul>
  */
 class CommonPointOfCompromise extends FieldSampler {
-    private Random gen = new Random();
+    private Random gen = FastRandom.newRandom();
 
     // how many average transactions per day?
     private Gamma transactionsPerDay = new Gamma(2, 1, gen);
 
     private ChineseRestaurant merchant = new ChineseRestaurant(100, 0.3);
 
-    private DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private FancyTimeFormatter df = new FancyTimeFormatter("yyyy-MM-dd HH:mm:ss");
 
 
     private JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
@@ -153,14 +152,12 @@ class CommonPointOfCompromise extends FieldSampler {
         double averageInterval = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS) / transactionsPerDay.nextDouble();
         Exponential interval = new Exponential(1 / averageInterval, gen);
 
-        Date date = new Date();
         boolean compromised = false;
         while (t < end) {
             ObjectNode transaction = new ObjectNode(nodeFactory);
             t += interval.nextDouble();
-            date.setTime((long) t);
             transaction.set("timestamp", new LongNode((long) (t / 1000)));
-            transaction.set("date", new TextNode(df.format(date)));
+            transaction.set("date", new TextNode(df.format((long) t)));
             Integer merchantId = merchant.sample();
             transaction.set("merchant", new IntNode(merchantId));
 
@@ -22,7 +22,7 @@ package com.mapr.synth.samplers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.mapr.synth.FancyTimeFormatter;
-import org.apache.mahout.common.RandomUtils;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.jet.random.AbstractContinousDistribution;
 import org.apache.mahout.math.jet.random.Exponential;
 import org.apache.mahout.math.jet.random.Uniform;
@@ -30,6 +30,7 @@ import org.apache.mahout.math.jet.random.Uniform;
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -49,8 +50,9 @@ class DateSampler extends FieldSampler {
     private long end = EPOCH;
 
     private FancyTimeFormatter df = new FancyTimeFormatter("yyyy-MM-dd");
+    private final Random rand = FastRandom.newRandom();
     private AbstractContinousDistribution base =
-            new Exponential(1.0 / TimeUnit.MILLISECONDS.convert(100, TimeUnit.DAYS), RandomUtils.getRandom());
+            new Exponential(1.0 / TimeUnit.MILLISECONDS.convert(100, TimeUnit.DAYS), rand);
 
     public DateSampler() {
     }
@@ -63,20 +65,35 @@ class DateSampler extends FieldSampler {
     @SuppressWarnings("UnusedDeclaration")
     public void setStart(String start) throws ParseException {
         this.start = df.parse(start).getTime();
-        base = new Uniform(0, this.end - this.start, RandomUtils.getRandom());
+        base = new Uniform(0, this.end - this.start, rand);
     }
 
     @SuppressWarnings("UnusedDeclaration")
     public void setEnd(String end) throws ParseException {
         this.end = df.parse(end).getTime();
-        base = new Uniform(0, this.end - this.start, RandomUtils.getRandom());
+        base = new Uniform(0, this.end - this.start, rand);
     }
 
     @Override
     public JsonNode sample() {
       synchronized (this) {
         long t = (long) Math.rint(base.nextDouble());
-        return new TextNode(df.format(new java.util.Date(end - t)));
+        return new TextNode(df.format(end - t));
       }
     }
+
+    @Override
+    public void setSeed(long seed) {
+        rand.setSeed(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
+    }
 }
@@ -27,27 +27,25 @@ import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.mapr.synth.EventQueue;
 import com.mapr.synth.FancyTimeFormatter;
+import com.mapr.synth.FastRandom;
+import com.mapr.synth.IpAddress;
 import com.mapr.synth.Util;
+import com.mapr.synth.distributions.DiurnalProcess;
 import com.mapr.synth.distributions.IpAddressDistribution;
 import com.mapr.synth.distributions.LongTail;
-import com.mapr.synth.samplers.FieldSampler;
-import com.mapr.synth.samplers.NameSampler;
-import com.mapr.synth.samplers.SchemaSampler;
-import org.apache.mahout.math.jet.random.Exponential;
-import org.apache.mahout.math.jet.random.Gamma;
 import org.apache.mahout.math.random.Multinomial;
 
 import java.io.IOException;
-import java.net.InetAddress;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Formatter;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -55,41 +53,30 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
+/**
+ * Samples DNS queries from hosts that are busy during their day and mostly quiet at night.
+ *
+ * Normally, each sample is a single host with all of its queries between the start and end times.
+ * If {@code hosts} is set, that many hosts are simulated at once and each sample is a single query
+ * so that the output comes out in time order.
+ */
 public class DnsSampler extends FieldSampler {
     private static final long NIGHT_DURATION = TimeUnit.HOURS.toMillis(10);
 
     private JsonNodeFactory factory = JsonNodeFactory.withExactBigDecimals(false);
-    private Random base = new Random();
+    private Random base = FastRandom.newRandom();
 
     private LongTail<String> domainDistribution;
     private Set<String> retainedFields = null;
 
     // most internal parameters will be resampled on each restart
-    // in some cases, these are actually a distribution that is reparametrized on each restart and sampled each transaction
-    private Gamma dilationDistribution = new Gamma(6, 1, base);
-    private double dilation;
-
-    // distribution of active times
-    private Exponential activeDistribution = new Exponential(1.0 / TimeUnit.MINUTES.toMillis(10), base);
-    private Exponential active;
-
-    // distribution of inactive times
-    private Exponential inActiveDistribution = new Exponential(1.0 / TimeUnit.HOURS.toMillis(4), base);
-    private Exponential inActive;
-
-    // distribution of query times
-    private Exponential meanIntervalDistribution = new Exponential(1.0 / TimeUnit.MINUTES.toMillis(1), base);
-    private Exponential interval;   // interval sampled from this
-
-    // distribution of how much slower queries go slower when inactive
-    private Gamma idleDistribution = new Gamma(6, 1.0, base);
-    private double idle;
+    private DiurnalProcess.Parameters parameters = new DiurnalProcess.Parameters(base, NIGHT_DURATION);
+    private DiurnalProcess process = new DiurnalProcess(parameters);
 
     private FancyTimeFormatter df = new FancyTimeFormatter();
 
     private double start = System.currentTimeMillis() - 3 * Util.ONE_DAY;
     private double end = System.currentTimeMillis();
-    private double now = start;
 
     private IpAddressDistribution ip = new IpAddressDistribution();
 
@@ -97,19 +84,16 @@ public class DnsSampler extends FieldSampler {
     private double alpha = 1000;
     private double discount = 0.3;
 
-    private boolean isActive = false;
-
-    // transitions to active happen in dilated time so that active sessions occur less often at night
-    // but transition to inactive happen in real time so sessions at night are not longer than normal
-    private double nextTransition = 0;
-
-    // next query is always in real-time. This time is reset if a session ends before the next query
-    private double nextQuery = 0;
-
     private double sunriseTime = base.nextDouble() * Util.ONE_DAY;
-    private double sunsetTime = sunriseTime < NIGHT_DURATION ? sunriseTime - NIGHT_DURATION + Util.ONE_DAY : sunriseTime - NIGHT_DURATION;
 
-    private boolean isDaytime = sunriseTime > NIGHT_DURATION;
+    // when simulating many hosts at once, these hold the hosts and the time of each one's next query
+    private int hosts = 0;
+    private DiurnalProcess[] population;
+    private long[] addressHigh;
+    private long[] addressLow;
+    private final IpAddress address = new IpAddress();
+    private EventQueue queue;
+
     private Set<String> legalFields = ImmutableSet.of(
             "ip", "ipx", "ipV4", "domain", "revDomain", "time", "timestamp_ms", "timestamp_s");
 
@@ -139,142 +123,50 @@ public class DnsSampler extends FieldSampler {
         restart();
     }
 
-    enum Event {
-        SUNRISE, SUNSET,
-        ACTIVATE, DEACTIVATE,
-        QUERY, END
+    @Override
+    public void restart() {
+        process.restart(start, end, sunriseTime);
     }
 
     /**
-     * Step to the next event. This hard-coded method is simpler than the normal sort of priority queue of events
-     * because of the time dilation that we have at night.
-     *
-     * @return The next event.
+     * Starts all of the simulated hosts over from the start time.
      */
-    private Event step() {
-        if (now > end) {
-            return Event.END;
-        }
-        double timeOfDay = Util.timeOfDay(now);
-        isDaytime = Util.isDaytime(timeOfDay, sunriseTime, sunsetTime);
-        if (isDaytime) {
-            // during the day, time passes in real-time
-            double sunset = Util.dayOrigin(now) + sunriseTime - NIGHT_DURATION;
-            if (sunset <= now) {
-                sunset += Util.ONE_DAY;
-            }
-            if (sunset < nextTransition) {
-                return handleSunEvent(sunset, Event.SUNSET, dilation);
-            } else {
-                return getNextEvent();
-            }
-        } else {
-            double sunrise = Util.dayOrigin(now) + sunriseTime;
-            if (sunrise <= now) {
-                sunrise += Util.ONE_DAY;
-            }
-
-            // if inactive at night, time is dilated
-            if (sunrise < nextTransition) {
-                return handleSunEvent(sunrise, Event.SUNRISE, 1.0 / dilation);
-            } else {
-                return getNextEvent();
-            }
-        }
-    }
-
-    private Event handleSunEvent(double t, Event event, double scale) {
-        if (t < nextQuery) {
-            now = t + 1;
-            if (!isActive) {
-                // start dilating time for query and state transition
-                double remainder = nextQuery - now;
-                nextQuery = now + scale * remainder;
-
-                remainder = nextTransition - now;
-                nextTransition = now + scale * remainder;
+    private void restartPopulation() {
+        if (population == null || population.length != hosts) {
+            population = new DiurnalProcess[hosts];
+            addressHigh = new long[hosts];
+            addressLow = new long[hosts];
+            queue = new EventQueue(hosts);
+            for (int i = 0; i < hosts; i++) {
+                population[i] = new DiurnalProcess(parameters);
             }
-            isDaytime = !isDaytime;
-            return event;
-        } else {
-            now = nextQuery;
-            nextQuery = getNextQueryTime();
-            return Event.QUERY;
         }
-    }
-
-    private Event getNextEvent() {
-        if (nextTransition < nextQuery) {
-            // state transition
-            now = nextTransition;
-
-            // change of state gives us an entirely new next query time
-            return flipActivation();
-        } else {
-            // query comes first
-            now = nextQuery;
-            nextQuery = getNextQueryTime();
-            return Event.QUERY;
-        }
-    }
-
-    private Event flipActivation() {
-        if (isActive) {
-            isActive = false;
-            nextQuery = getNextQueryTime();
-            nextTransition = getNextTransition();
-            return Event.DEACTIVATE;
-        } else {
-            isActive = true;
-            nextQuery = getNextQueryTime();
-            nextTransition = getNextTransition();
-            return Event.ACTIVATE;
-        }
-    }
-
-    private double getNextTransition() {
-        if (isActive) {
-            return now + active.nextDouble();
-        } else {
-            double delay = inActive.nextDouble();
-            if (!isDaytime) {
-                delay *= dilation;
+        queue.clear();
+        for (int i = 0; i < hosts; i++) {
+            ip.sample(address);
+            addressHigh[i] = address.getHigh();
+            addressLow[i] = address.getLow();
+            population[i].restart(start, end, base.nextDouble() * Util.ONE_DAY);
+            if (population[i].advance()) {
+                queue.add(population[i].getTime(), i);
             }
-            return now + delay;
-        }
-    }
-
-    private double getNextQueryTime() {
-        double delay;
-        delay = interval.nextDouble();
-        if (!isActive) {
-            delay = interval.nextDouble() * idle;
-        }
-        if (!isDaytime) {
-            delay = interval.nextDouble() * dilation;
         }
-        return now + delay;
-    }
-
-    @Override
-    public void restart() {
-        now = start;
-        dilation = Math.exp(dilationDistribution.nextDouble());
-        active = new Exponential(1 / activeDistribution.nextDouble(), base);
-        inActive = new Exponential(1 / inActiveDistribution.nextDouble(), base);
-        interval = new Exponential(1.0 / meanIntervalDistribution.nextDouble(), base);
-        idle = Math.exp(idleDistribution.nextDouble());
-
-        // we start inactive
-        isDaytime = Util.isDaytime(Util.timeOfDay(now), sunriseTime, sunsetTime);
-        isActive = false;
-        nextTransition = getNextTransition();
-        nextQuery = getNextQueryTime();
     }
 
     @SuppressWarnings("UnusedDeclaration")
     public void setRate(String rate) {
-        meanIntervalDistribution = new Exponential(Util.parseRateAsInterval(rate), base);
+        parameters.setRate(rate);
+    }
+
+    /**
+     * Sets the number of hosts to simulate at once. If this is set, each sample is a single query
+     * and samples are in time order.
+     */
+    @SuppressWarnings("unused")
+    public void setHosts(int hosts) {
+        Preconditions.checkArgument(hosts >= 0, "Number of hosts must be non-negative");
+        this.hosts = hosts;
+        population = null;
     }
 
     /**
@@ -346,47 +238,18 @@ public class DnsSampler extends FieldSampler {
 
     @Override
     public JsonNode sample() {
-        restart();
-
-        InetAddress address = ip.sample();
-
-        ObjectNode r = new ObjectNode(factory);
-        // set basics ... source IP and such
-        r.set("ip", new TextNode(address.toString().substring(1)));
-        byte[] addressBits = address.getAddress();
-        Formatter ip = new Formatter();
-        for (byte x : addressBits) {
-            ip.format("%02x", x);
-        }
-        r.set("ipx", new TextNode(ip.toString()));
-        r.set("ipV4", BooleanNode.valueOf(addressBits.length == 4));
-        if (retainedFields != null) {
-            r.retain(retainedFields);
+        if (hosts > 0) {
+            return sampleQuery();
         }
+        restart();
 
+        ip.sample(address);
+        ObjectNode r = hostFields(address);
 
         ArrayNode queries = new ArrayNode(factory);
-
-        Event step;
-        do {
-            step = step();
-            if (step == Event.QUERY) {
-                ObjectNode q = new ObjectNode(factory);
-                String domain = domainDistribution.sample();
-                q.set("domain", new TextNode(domain));
-                List<String> parts = Arrays.asList(domain.split("\\."));
-                Collections.reverse(parts);
-                String reversed = String.join(".", parts);
-                q.set("revDomain", new TextNode(reversed));
-                q.set("time", new TextNode(df.format((long) now)));
-                q.set("timestamp_ms", new LongNode((long) now));
-                q.set("timestamp_s", new LongNode((long) (now / 1000)));
-                if (retainedFields != null) {
-                    q.retain(retainedFields);
-                }
-                queries.add(q);
-            }
-        } while (step != Event.END);
+        while (process.advance()) {
+            queries.add(query(process.getTime()));
+        }
 
         if (!isFlat()) {
             r.set("queries", queries);
@@ -402,4 +265,61 @@ public class DnsSampler extends FieldSampler {
             return flattened;
         }
     }
+
+    /**
+     * Returns the next query from the simulated population of hosts.
+     */
+    private JsonNode sampleQuery() {
+        if (population == null || queue.isEmpty()) {
+            // first time or everybody is past the end time
+            restartPopulation();
+            Preconditions.checkState(!queue.isEmpty(), "No queries between start and end times");
+        }
+        int host = queue.peek();
+        double t = queue.peekTime();
+        DiurnalProcess p = population[host];
+        if (p.advance()) {
+            queue.replaceTop(p.getTime(), host);
+        } else {
+            queue.poll();
+        }
+
+        address.set(addressHigh[host], addressLow[host]);
+        ObjectNode r = hostFields(address);
+        r.setAll(query(t));
+        return r;
+    }
+
+    private ObjectNode hostFields(IpAddress address) {
+        ObjectNode r = new ObjectNode(factory);
+        // set basics ... source IP and such
+        StringBuilder text = new StringBuilder(39);
+        address.append(text);
+        r.set("ip", new TextNode(text.toString()));
+        text.setLength(0);
+        address.appendHex(text);
+        r.set("ipx", new TextNode(text.toString()));
+        r.set("ipV4", BooleanNode.valueOf(address.isV4()));
+        if (retainedFields != null) {
+            r.retain(retainedFields);
+        }
+        return r;
+    }
+
+    private ObjectNode query(double now) {
+        ObjectNode q = new ObjectNode(factory);
+        String domain = domainDistribution.sample();
+        q.set("domain", new TextNode(domain));
+        List<String> parts = Arrays.asList(domain.split("\\."));
+        Collections.reverse(parts);
+        String reversed = String.join(".", parts);
+        q.set("revDomain", new TextNode(reversed));
+        q.set("time", new TextNode(df.format((long) now)));
+        q.set("timestamp_ms", new LongNode((long) now));
+        q.set("timestamp_s", new LongNode((long) (now / 1000)));
+        if (retainedFields != null) {
+            q.retain(retainedFields);
+        }
+        return q;
+    }
 }
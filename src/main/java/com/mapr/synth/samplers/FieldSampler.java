@@ -31,6 +31,7 @@ import com.mapr.synth.drive.Commuter;
 import org.apache.mahout.math.random.Sampler;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.Set;
 
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "class")
@@ -125,6 +126,46 @@ public abstract class FieldSampler implements Sampler<JsonNode> {
         // do nothing by default
     }
 
+    /**
+     * Returns true if this sampler supports {@link #seek(long, long)}.
+     */
+    public boolean canSeek() {
+        return false;
+    }
+
+    /**
+     * Repositions this sampler so that the next sample is the one for the specified row. The
+     * randomness for that row comes from {@code seed} which the caller derives from the row
+     * number so that rows can be generated in any order, or on different machines, without
+     * generating the rows before them.
+     *
+     * Samplers whose only state is a random number generator simply reseed. Samplers with more
+     * state, such as {@code id} or {@code event}, jump ahead to where they would be after {@code row}
+     * samples. Samplers that can do neither (such as {@code random-walk}) don't support this.
+     *
+     * @param row  The row the next sample is for.
+     * @param seed The seed for that row.
+     */
+    public void seek(long row, long seed) {
+        throw new UnsupportedOperationException(String.format("Sampler for %s can't seek to a row", name));
+    }
+
+    /**
+     * Returns true if this sampler supports {@link #stream()}.
+     */
+    public boolean canStream() {
+        return false;
+    }
+
+    /**
+     * Returns the records that a flattened sampler would otherwise return as an array from
+     * {@link #sample()}, but lets them be generated as they are needed. This matters for samplers
+     * such as {@code commuter} where a single sample could be far too large to keep in memory.
+     */
+    public Iterator<JsonNode> stream() {
+        throw new UnsupportedOperationException(String.format("Sampler for %s can't stream", name));
+    }
+
     void setName(String name) {
         this.name = name;
     }
@@ -23,8 +23,11 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.google.common.base.Preconditions;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.random.Multinomial;
 
+import java.util.Random;
+
 /**
  * Samples from a "foreign key" which is really just an integer.
  * <p>
@@ -38,6 +41,7 @@ public class ForeignKeySampler extends FieldSampler {
     private double skew = 0.5;
 
     private Multinomial<Integer> base;
+    private final Random rand = FastRandom.newRandom();
 
     @SuppressWarnings("UnusedDeclaration")
     public ForeignKeySampler() {
@@ -74,7 +78,22 @@ public class ForeignKeySampler extends FieldSampler {
     @Override
     public JsonNode sample() {
       synchronized (this) {
-        return new IntNode(base.sample());
+        return new IntNode(base.sample(rand.nextDouble()));
       }
     }
+
+    @Override
+    public void setSeed(long seed) {
+        rand.setSeed(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
+    }
 }
@@ -21,6 +21,7 @@ package com.mapr.synth.samplers;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.jet.random.Gamma;
 
 import java.util.Random;
@@ -42,7 +43,9 @@ class GammaSampler extends FieldSampler {
     private double scale = Double.NaN;
 
     private int seed = SEED_NOT_SET;
-    private Gamma rand = new Gamma(alpha, 1 / beta, new Random());
+    // set by seek, takes precedence over the seed option
+    private Long rowSeed = null;
+    private Gamma rand = new Gamma(alpha, 1 / beta, FastRandom.newRandom());
 
     @Override
     public JsonNode sample() {
@@ -59,6 +62,18 @@ class GammaSampler extends FieldSampler {
         init();
     }
 
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        // the distribution is rebuilt so that nothing cached from earlier rows carries over
+        rowSeed = seed;
+        init();
+    }
+
     @SuppressWarnings("UnusedDeclaration")
     public void setAlpha(double alpha) {
         this.alpha = alpha;
@@ -117,10 +132,12 @@ class GammaSampler extends FieldSampler {
         } else {
             throw new IllegalArgumentException("Must use either alpha,beta,rate (or defaults) or dof,scale to parametrize gamma");
         }
-        if (seed != SEED_NOT_SET) {
-            rand = new Gamma(a, b, new Random(seed));
+        if (rowSeed != null) {
+            rand = new Gamma(a, b, FastRandom.newRandom(rowSeed));
+        } else if (seed != SEED_NOT_SET) {
+            rand = new Gamma(a, b, FastRandom.newRandom(seed));
         } else {
-            rand = new Gamma(a, b, new Random());
+            rand = new Gamma(a, b, FastRandom.newRandom());
         }
     }
 }
@@ -22,6 +22,7 @@ package com.mapr.synth.samplers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.collect.ImmutableMap;
+import com.mapr.synth.FastRandom;
 import freemarker.cache.ClassTemplateLoader;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
@@ -62,7 +63,7 @@ public class HeaderSampler extends FieldSampler {
             .build();
     private StringSampler language = new LanguageSampler();
 
-    private Random gen = new Random();
+    private Random gen = FastRandom.newRandom();
 
     public void setType(String headerType) throws IOException {
         this.headerType = Type.valueOf(headerType.toUpperCase());
@@ -41,6 +41,16 @@ public class IdSampler extends FieldSampler {
     current.set(this.start);
   }
 
+  @Override
+  public boolean canSeek() {
+    return true;
+  }
+
+  @Override
+  public void seek(long row, long seed) {
+    current.set((int) (start + row));
+  }
+
   @Override
   public JsonNode sample() {
     return new IntNode(current.getAndIncrement());
@@ -23,8 +23,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.mapr.synth.FastRandom;
 import com.mapr.synth.Util;
-import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.random.Multinomial;
 
 import java.util.Iterator;
@@ -46,7 +46,7 @@ class IntegerSampler extends FieldSampler {
 
     @SuppressWarnings("WeakerAccess")
     public IntegerSampler() {
-        base = RandomUtils.getRandom();
+        base = FastRandom.newRandom();
     }
 
     public void setMax(String max) {
@@ -118,7 +118,17 @@ class IntegerSampler extends FieldSampler {
 
     @Override
     public void setSeed(long seed) {
-        base = RandomUtils.getRandom(seed);
+        base = FastRandom.newRandom(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
     }
 
     @Override
@@ -142,7 +152,7 @@ class IntegerSampler extends FieldSampler {
                     return new TextNode(String.format(format, r));
                 }
             } else {
-                return new LongNode(dist.sample());
+                return new LongNode(dist.sample(base.nextDouble()));
             }
         }
     }
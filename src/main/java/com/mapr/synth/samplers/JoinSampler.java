@@ -56,5 +56,20 @@ class JoinSampler extends FieldSampler {
         }
         return new TextNode(r.toString());
     }
+
+    @Override
+    public void setSeed(long seed) {
+        delegate.setSeed(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return delegate.canSeek();
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        delegate.seek(row, seed);
+    }
 }
 
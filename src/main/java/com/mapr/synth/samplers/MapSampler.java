@@ -62,6 +62,17 @@ public class MapSampler extends FieldSampler {
         Iterables.addAll(fields, base.getFieldNames());
     }
 
+    @Override
+    public boolean canSeek() {
+        return base != null && base.canSeek();
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        base.setSeed(seed);
+        base.seek(row);
+    }
+
     @Override
     public JsonNode sample() {
         Preconditions.checkState(base != null, "Need to specify definition");
@@ -27,10 +27,13 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Resources;
+import com.mapr.synth.NestedRandom;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.random.Multinomial;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -47,6 +50,9 @@ public class NameSampler extends FieldSampler {
     private static AtomicReference<Multinomial<String>> last = new AtomicReference<>(null);
 
     private Type type = Type.FIRST_LAST;
+    // first and last names each get their own stream, the same as Multinomial.sample() would use
+    private final Random firstRand = RandomUtils.getRandom();
+    private final Random lastRand = RandomUtils.getRandom();
 
     @SuppressWarnings("WeakerAccess")
     public NameSampler() {
@@ -102,19 +108,35 @@ public class NameSampler extends FieldSampler {
       synchronized (this) {
         switch (type) {
             case FIRST:
-                return new TextNode(first.get().sample());
+                return new TextNode(first.get().sample(firstRand.nextDouble()));
             case LAST:
-                return new TextNode(last.get().sample());
+                return new TextNode(last.get().sample(lastRand.nextDouble()));
             case FIRST_LAST:
-                return new TextNode(first.get().sample() + " " + last.get().sample());
+                return new TextNode(first.get().sample(firstRand.nextDouble()) + " " + last.get().sample(lastRand.nextDouble()));
             case LAST_FIRST:
-                return new TextNode(last.get().sample() + ", " + first.get().sample());
+                return new TextNode(last.get().sample(lastRand.nextDouble()) + ", " + first.get().sample(firstRand.nextDouble()));
         }
       }
       // can't happen
         return null;
     }
 
+    @Override
+    public void setSeed(long seed) {
+        firstRand.setSeed(NestedRandom.mix(seed, 0));
+        lastRand.setSeed(NestedRandom.mix(seed, 1));
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
+    }
+
     @SuppressWarnings("WeakerAccess")
     public void setTypeRaw(Type type) {
         this.type = type;
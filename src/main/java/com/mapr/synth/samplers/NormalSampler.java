@@ -21,6 +21,7 @@ package com.mapr.synth.samplers;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.jet.random.Normal;
 
 import java.util.Random;
@@ -36,6 +37,8 @@ public class NormalSampler extends FieldSampler {
     private double max = Double.MAX_VALUE;
 
     private int seed = Integer.MAX_VALUE;
+    // set by seek, takes precedence over the seed option
+    private Long rowSeed = null;
     private Normal rand = null;
 
 
@@ -48,6 +51,18 @@ public class NormalSampler extends FieldSampler {
         init();
     }
 
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        // the distribution is rebuilt so that the cached second normal deviate doesn't carry over
+        rowSeed = seed;
+        init();
+    }
+
     @SuppressWarnings("UnusedDeclaration")
     public void setMean(double mean) {
         this.mean = mean;
@@ -88,10 +103,12 @@ public class NormalSampler extends FieldSampler {
         if (Double.isNaN(sd)) {
             sd = 1 / precision;
         }
-        if (seed != Integer.MAX_VALUE) {
-            rand = new Normal(mean, sd, new Random(seed));
+        if (rowSeed != null) {
+            rand = new Normal(mean, sd, FastRandom.newRandom(rowSeed));
+        } else if (seed != Integer.MAX_VALUE) {
+            rand = new Normal(mean, sd, FastRandom.newRandom(seed));
         } else {
-            rand = new Normal(mean, sd, new Random());
+            rand = new Normal(mean, sd, FastRandom.newRandom());
         }
     }
 
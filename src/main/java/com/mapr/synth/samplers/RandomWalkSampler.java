@@ -25,6 +25,7 @@ import com.fasterxml.jackson.databind.node.DoubleNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.util.concurrent.AtomicDouble;
+import com.mapr.synth.FastRandom;
 
 import java.io.IOException;
 import java.util.Random;
@@ -54,7 +55,7 @@ public class RandomWalkSampler extends FieldSampler {
     };
 
     private FieldSampler stepDistribution = null;
-    private Random rand = new Random();
+    private Random rand = FastRandom.newRandom();
     private boolean verbose = false;
 
     private AtomicDouble state = new AtomicDouble();
@@ -187,7 +188,7 @@ public class RandomWalkSampler extends FieldSampler {
 
     private void init() {
         if (seed != SEED_NOT_SET) {
-            rand = new Random(seed);
+            rand = FastRandom.newRandom(seed);
         }
     }
 
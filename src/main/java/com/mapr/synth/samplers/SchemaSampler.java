@@ -24,20 +24,21 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.mapr.synth.NestedRandom;
 import com.mapr.synth.Util;
 import org.apache.mahout.math.random.Sampler;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -51,7 +52,9 @@ public class SchemaSampler implements Sampler<JsonNode> {
 
     private List<FieldSampler> schema;
     private Set<String> fields;
-    private Queue<JsonNode> buffer = new ArrayDeque<>();
+    // records still to come from the cross product of flattened arrays in the last row
+    private Iterator<JsonNode> pending = null;
+    private long seed = 0;
 
     public SchemaSampler(List<FieldSampler> s) {
         init(s);
@@ -96,26 +99,40 @@ public class SchemaSampler implements Sampler<JsonNode> {
 
     @Override
     public JsonNode sample() {
-        // we may have buffered records
-        JsonNode x = buffer.poll();
-        while (x == null) {
-            // nothing buffered ... generate some data
+        // we may have pending records
+        while (pending == null || !pending.hasNext()) {
+            pending = null;
+            // nothing pending ... generate some data
             Map<String, JsonNode> generators = Maps.newTreeMap();
+            String streamName = null;
+            Iterator<JsonNode> stream = null;
             ObjectNode r = nodeFactory.objectNode();
-            Iterator<String> fx = fields.iterator();
             for (FieldSampler s : schema) {
                 String fieldName = s.getName();
                 if (s.isFlat()) {
                     if (fieldName == null) {
                         fieldName = FLAT_SEQUENCE_MARKER;
                     }
+                    if (s.canStream()) {
+                        if (stream == null) {
+                            // the first streaming sampler is pulled from lazily
+                            streamName = fieldName;
+                            stream = s.stream();
+                        } else {
+                            // any others have to be iterated many times, so we collect them
+                            ArrayNode v = nodeFactory.arrayNode();
+                            s.stream().forEachRemaining(v::add);
+                            generators.put(fieldName, v);
+                        }
+                        continue;
+                    }
                     // this sampler either generates an object or an array
                     JsonNode v = s.sample();
                     if (v.isObject()) {
                         // an object just produces multiple fields in a single record
                         r.setAll((ObjectNode) v);
                     } else if (v.isArray()) {
-                        // an array causes records to be buffered
+                        // an array causes multiple records
                         generators.put(fieldName, v);
                     } else {
                         r.set(fieldName, v);
@@ -125,48 +142,176 @@ public class SchemaSampler implements Sampler<JsonNode> {
                 }
             }
             // at this point r has all non generator fields
-            if (generators.size() > 0) {
-                // here we have to handle the case of more than one generator
-                crossProduct(buffer, r, Lists.newArrayList(generators.keySet()), generators, 0);
+            if (generators.size() > 0 || stream != null) {
                 // the generators may or may not have actually generated anything
                 // but that will just cause us to go once more around the circle
-                x = buffer.poll();
+                pending = new CrossProduct(r, streamName, stream, Lists.newArrayList(generators.keySet()), generators);
             } else {
                 // with no array generators, we can short-circuit the process
-                x = r;
+                return r;
             }
         }
-        // yes, there was a buffered record
-        return x;
+        return pending.next();
     }
 
+    /**
+     * Iterates through all combinations of values from the arrays produced by flattened fields.
+     * Records are built one at a time as they are needed so memory use doesn't depend on how big
+     * the product is. The last field varies fastest.
+     *
+     * Records share the base fields and array elements with each other rather than copying them.
+     * A streaming sampler can also be included, in which case its records vary slowest of all.
+     *
+     * @param r          The fields that are the same for all records.
+     * @param fields     The names of the fields that generated arrays.
+     * @param generators The arrays for each field.
+     * @return An iterator over all of the records.
+     */
     // exposed for testing
-    public static void crossProduct(Queue<JsonNode> buffer, ObjectNode r, List<String> fields, Map<String, JsonNode> generators, int currentFieldIndex) {
-        if (currentFieldIndex < fields.size()) {
-            // get this generator
-            JsonNode values = generators.get(fields.get(currentFieldIndex));
-            int n = values.size();
-            // and for each value it has
-            for (int j = 0; j < n; j++) {
-                // set that field or fields ...
-                String key = fields.get(currentFieldIndex);
-                // yes, we mean to check for pointer equality here
-                //noinspection StringEquality
-                if (key == FLAT_SEQUENCE_MARKER) {
-                    assert values.get(j).isObject();
-                    r.setAll(((ObjectNode) values.get(j)));
-                }else {
-                    r.set(key, values.get(j));
-                }
-                // and recurse
-                crossProduct(buffer, r, fields, generators, currentFieldIndex + 1);
+    public static Iterator<JsonNode> crossProduct(ObjectNode r, List<String> fields, Map<String, JsonNode> generators) {
+        return new CrossProduct(r, null, null, fields, generators);
+    }
+
+    private static class CrossProduct implements Iterator<JsonNode> {
+        private final ObjectNode base;
+        private final String[] keys;
+        private final JsonNode[] values;
+        // like an odometer, this counts through all combinations
+        private final int[] index;
+        private boolean done;
+
+        // records from a streaming sampler, if any, with the current one in streamValue
+        private final String streamKey;
+        private final Iterator<JsonNode> stream;
+        private JsonNode streamValue;
+
+        CrossProduct(ObjectNode base, String streamKey, Iterator<JsonNode> stream, List<String> fields, Map<String, JsonNode> generators) {
+            this.base = base;
+            this.streamKey = streamKey;
+            this.stream = stream;
+            keys = fields.toArray(new String[0]);
+            values = new JsonNode[keys.length];
+            index = new int[keys.length];
+            done = false;
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = generators.get(keys[i]);
+                done |= values[i].size() == 0;
+            }
+            if (!done && stream != null) {
+                done = !stream.hasNext();
+                streamValue = done ? null : stream.next();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !done;
+        }
+
+        @Override
+        public JsonNode next() {
+            if (done) {
+                throw new NoSuchElementException();
+            }
+            ObjectNode r = base.objectNode();
+            r.setAll(base);
+            if (stream != null) {
+                set(r, streamKey, streamValue);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                set(r, keys[i], values[i].get(index[i]));
+            }
+
+            // step to the next combination
+            int i = keys.length - 1;
+            while (i >= 0 && ++index[i] == values[i].size()) {
+                index[i] = 0;
+                i--;
+            }
+            if (i < 0) {
+                // all combinations of the arrays are done, on to the next streamed record
+                done = stream == null || !stream.hasNext();
+                streamValue = done ? null : stream.next();
+            }
+            return r;
+        }
+
+        private static void set(ObjectNode r, String key, JsonNode v) {
+            // yes, we mean to check for pointer equality here
+            //noinspection StringEquality
+            if (key == FLAT_SEQUENCE_MARKER) {
+                assert v.isObject();
+                r.setAll((ObjectNode) v);
+            } else {
+                r.set(key, v);
             }
-        } else {
-            // when we bottom out we add a copied record to the buffer
-            buffer.add(r.deepCopy());
         }
     }
 
+    /**
+     * Reseeds all of the field samplers in this schema. Each field gets a different seed derived
+     * from the one given here.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        NestedRandom base = new NestedRandom((int) (seed ^ (seed >>> 32)));
+        int i = 0;
+        for (FieldSampler sampler : schema) {
+            sampler.setSeed(base.get(i++).random().nextLong());
+        }
+    }
+
+    /**
+     * Returns true if every field in this schema supports {@link #seek(long)}.
+     */
+    public boolean canSeek() {
+        for (FieldSampler sampler : schema) {
+            if (!sampler.canSeek()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Positions the fields in this schema so that the next sample is the one for the specified
+     * row. Each field gets its own seed derived from the seed of this schema, the field and the row.
+     * Fields that can't seek are left where they are, so a resumed run still continues their
+     * sequences, just not the same ones an uninterrupted run would have produced.
+     * Generation can continue from that point using {@link #sample()}.
+     */
+    public void seek(long row) {
+        pending = null;
+        int i = 0;
+        for (FieldSampler sampler : schema) {
+            long fieldSeed = NestedRandom.mix(seed, i++);
+            if (sampler.canSeek()) {
+                sampler.seek(row, NestedRandom.mix(fieldSeed, row));
+            }
+        }
+    }
+
+    /**
+     * Generates the record for a particular row. The result depends only on the seed for this schema
+     * and the row number so any row can be regenerated without generating the ones before it. This
+     * requires that all fields support seeking and doesn't work with flattened arrays because those
+     * turn a single row into many records.
+     */
+    public JsonNode sampleAt(long row) {
+        for (FieldSampler sampler : schema) {
+            if (!sampler.canSeek()) {
+                throw new UnsupportedOperationException(String.format("Sampler for %s can't seek to a row", sampler.getName()));
+            }
+        }
+        seek(row);
+        JsonNode r = sample();
+        if (pending != null && pending.hasNext()) {
+            pending = null;
+            throw new UnsupportedOperationException("Can't use sampleAt with flattened arrays");
+        }
+        return r;
+    }
+
     public void restart() {
         for (FieldSampler sampler : schema) {
             sampler.restart();
@@ -26,6 +26,7 @@ import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.mapr.synth.FastRandom;
 
 import java.io.IOException;
 import java.util.List;
@@ -38,7 +39,7 @@ import java.util.Set;
 public class SequenceSampler extends FieldSampler {
     private JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
     private FieldSampler base = null;
-    private Random gen = new Random();
+    private Random gen = FastRandom.newRandom();
     private List<FieldSampler> array = null;
     private FieldSampler length = exponential(5);
 
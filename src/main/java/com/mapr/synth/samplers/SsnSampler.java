@@ -28,33 +28,39 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Resources;
-import org.apache.mahout.common.RandomUtils;
+import com.mapr.synth.FastRandom;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 /**
  * Samples from Social Security Numbers with roughly equal representation across different ages
  */
 public class SsnSampler extends FieldSampler {
-    private Random rand = RandomUtils.getRandom();
+    private static final Set<String> LEGAL_TYPES = ImmutableSet.of("normal", "extra");
+
+    private Random rand = FastRandom.newRandom();
 
     private final JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
-    private final Map<String, List<String>> values = Maps.newHashMap();
     private final List<String> codes = Lists.newArrayList();
-    private Set<String> keepTypes = Sets.newHashSet("normal");
-    private Set<String> keepFields = Sets.newHashSet("ssn", "state");
+    // the rest of the seed data for each area code, one shared node per value
+    private final List<TextNode[]> values = Lists.newArrayList();
     private List<String> names;
+    private int typeIndex;
     private boolean verbose = true;
 
+    // area codes that have one of the requested types
+    private int[] candidates;
+    // fields to return other than the ssn itself
+    private int[] projection;
+    private boolean keepSsn;
+
     public SsnSampler() {
         Splitter onComma = Splitter.on(",").trimResults();
         try {
@@ -69,9 +75,8 @@ public class SsnSampler extends FieldSampler {
 
                     List<String> fields = Lists.newArrayList(onComma.split(line));
                     for (int i = Integer.parseInt(fields.get(1)); i <= Integer.parseInt(fields.get(1)); i++) {
-                        String key = String.format("%03d", i);
-                        values.put(key, fields.subList(2, fields.size()));
-                        codes.add(key);
+                        codes.add(String.format("%03d", i));
+                        values.add(fields.subList(2, fields.size()).stream().map(TextNode::new).toArray(TextNode[]::new));
                     }
 
                 }
@@ -81,12 +86,28 @@ public class SsnSampler extends FieldSampler {
         } catch (IOException e) {
             throw new RuntimeException("Couldn't read built-in resource", e);
         }
+        for (TextNode[] v : values) {
+            Preconditions.checkState(v.length == names.size(), "Wrong number of fields in ssn-seeds");
+        }
+        typeIndex = names.indexOf("type");
+        setTypes("normal");
+        setFields("ssn, state");
     }
 
     @Override
     @SuppressWarnings("unused")
     public void setSeed(long seed) {
-        rand = new Random(seed);
+        rand = FastRandom.newRandom(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
     }
 
     /**
@@ -94,19 +115,22 @@ public class SsnSampler extends FieldSampler {
      */
     @SuppressWarnings("UnusedDeclaration")
     public void setFields(String fields) {
-        keepFields = Sets.newHashSet(Splitter.on(Pattern.compile("[\\s,;]+")).split(fields));
+        Set<String> keepFields = Sets.newHashSet(Splitter.on(Pattern.compile("[\\s,;]+")).split(fields));
         for (String field : keepFields) {
             Preconditions.checkArgument(names.contains(field) || "ssn".equals(field), "Illegal field: %s", field);
         }
+        projection = IntStream.range(0, names.size()).filter(i -> keepFields.contains(names.get(i))).toArray();
+        keepSsn = keepFields.contains("ssn");
     }
 
     @SuppressWarnings("UnusedDeclaration")
     public void setTypes(String types) {
-        keepTypes = Sets.newHashSet(Splitter.on(Pattern.compile("[\\s,;]+")).split(types));
-        Set<String> legalTypes = ImmutableSet.of("normal", "extra");
+        Set<String> keepTypes = Sets.newHashSet(Splitter.on(Pattern.compile("[\\s,;]+")).split(types));
         for (String type : keepTypes) {
-            Preconditions.checkArgument(legalTypes.contains(type), "Illegal type requested: %s, needed one of %s", type, legalTypes);
+            Preconditions.checkArgument(LEGAL_TYPES.contains(type), "Illegal type requested: %s, needed one of %s", type, LEGAL_TYPES);
         }
+        candidates = IntStream.range(0, codes.size()).filter(i -> keepTypes.contains(values.get(i)[typeIndex].asText())).toArray();
+        Preconditions.checkArgument(candidates.length > 0, "No area codes have types %s", keepTypes);
     }
 
 
@@ -117,30 +141,42 @@ public class SsnSampler extends FieldSampler {
 
     @Override
     public JsonNode sample() {
-        while (true) {
-            int i = rand.nextInt(codes.size());
-            List<String> fields = values.get(codes.get(i));
-
-            if (keepTypes.contains(fields.get(names.indexOf("type")))) {
-                if (verbose) {
-                    ObjectNode rx = new ObjectNode(nodeFactory);
-                    Iterator<String> nx = names.iterator();
-                    for (String field : fields) {
-                        Preconditions.checkState(nx.hasNext());
-                        String fieldName = nx.next();
-                        if (keepFields.contains(fieldName)) {
-                            rx.set(fieldName, new TextNode(field));
-                        }
-                    }
-                    Preconditions.checkState(!nx.hasNext());
-                    if (keepFields.contains("ssn")) {
-                        rx.set("ssn", new TextNode(String.format("%s-%02d-%04d", codes.get(i), rand.nextInt(99) + 1, rand.nextInt(9999) + 1)));
-                    }
-                    return rx;
-                } else {
-                    return new TextNode(String.format("%s-%02d-%04d", codes.get(i), rand.nextInt(99) + 1, rand.nextInt(9999) + 1));
-                }
+        int i = candidates[rand.nextInt(candidates.length)];
+        if (verbose) {
+            ObjectNode rx = new ObjectNode(nodeFactory);
+            TextNode[] fields = values.get(i);
+            for (int j : projection) {
+                rx.set(names.get(j), fields[j]);
             }
+            if (keepSsn) {
+                rx.set("ssn", new TextNode(ssn(i)));
+            }
+            return rx;
+        } else {
+            return new TextNode(ssn(i));
         }
     }
+
+    /**
+     * Builds an SSN in the area, same as {@code String.format("%s-%02d-%04d", area, group, serial)}
+     */
+    private String ssn(int area) {
+        int group = rand.nextInt(99) + 1;
+        int serial = rand.nextInt(9999) + 1;
+
+        String code = codes.get(area);
+        char[] r = new char[11];
+        r[0] = code.charAt(0);
+        r[1] = code.charAt(1);
+        r[2] = code.charAt(2);
+        r[3] = '-';
+        r[4] = (char) ('0' + group / 10);
+        r[5] = (char) ('0' + group % 10);
+        r[6] = '-';
+        r[7] = (char) ('0' + serial / 1000);
+        r[8] = (char) ('0' + serial / 100 % 10);
+        r[9] = (char) ('0' + serial / 10 % 10);
+        r[10] = (char) ('0' + serial % 10);
+        return new String(r);
+    }
 }
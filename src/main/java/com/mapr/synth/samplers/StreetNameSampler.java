@@ -25,11 +25,13 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Resources;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.random.Multinomial;
 
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Sample from a space of goofy but somewhat plausible street names.
@@ -42,6 +44,7 @@ public class StreetNameSampler extends FieldSampler {
     List<Multinomial<String>> sampler = ImmutableList.of(
             new Multinomial<>(), new Multinomial<>(), new Multinomial<>()
     );
+    private final Random rand = FastRandom.newRandom();
 
     public StreetNameSampler() {
         Splitter onTabs = Splitter.on("\t");
@@ -62,7 +65,23 @@ public class StreetNameSampler extends FieldSampler {
     @Override
     public JsonNode sample() {
         synchronized (this) {
-          return new TextNode(sampler.get(0).sample() + " " + sampler.get(1).sample() + " " + sampler.get(2).sample());
+          return new TextNode(sampler.get(0).sample(rand.nextDouble()) + " " + sampler.get(1).sample(rand.nextDouble())
+                  + " " + sampler.get(2).sample(rand.nextDouble()));
         }
     }
+
+    @Override
+    public void setSeed(long seed) {
+        rand.setSeed(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
+    }
 }
@@ -25,11 +25,13 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.io.Resources;
+import com.mapr.synth.FastRandom;
 import org.apache.mahout.math.random.Multinomial;
 
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -41,6 +43,7 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class StringSampler extends FieldSampler {
     private AtomicReference<Multinomial<String>> distribution = new AtomicReference<>();
+    private final Random rand = FastRandom.newRandom();
 
     public StringSampler() {
     }
@@ -91,7 +94,22 @@ public class StringSampler extends FieldSampler {
     @Override
     public JsonNode sample() {
       synchronized (this) {
-        return new TextNode(distribution.get().sample());
+        return new TextNode(distribution.get().sample(rand.nextDouble()));
       }
     }
+
+    @Override
+    public void setSeed(long seed) {
+        rand.setSeed(seed);
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
+    }
 }
@@ -21,6 +21,7 @@ package com.mapr.synth.samplers;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.mapr.synth.FastRandom;
 
 import java.util.Random;
 
@@ -34,7 +35,7 @@ import java.util.Random;
  */
 
 public class UUIDSampler extends FieldSampler {
-    private Random rand = new Random();
+    private Random rand = FastRandom.newRandom();
     public UUIDSampler() {
     }
 
@@ -44,13 +45,27 @@ public class UUIDSampler extends FieldSampler {
         rand.setSeed(seed);
     }
 
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
+    }
+
     @Override
     public JsonNode sample() {
-        int a = rand.nextInt();
-        int b = rand.nextInt(1 << 16);
-        int c = 0x4000 + rand.nextInt(1 << 12);
-        int d = 0x8000 + rand.nextInt(1 << 14);
-        long e = rand.nextLong() & ((1L << 48) - 1);
+        int a, b, c, d;
+        long e;
+        synchronized (this) {
+            a = rand.nextInt();
+            b = rand.nextInt(1 << 16);
+            c = 0x4000 + rand.nextInt(1 << 12);
+            d = 0x8000 + rand.nextInt(1 << 14);
+            e = rand.nextLong() & ((1L << 48) - 1);
+        }
         return new TextNode(String.format("%08x-%04x-%04x-%04x-%012x", a, b, c, d, e));
     }
 }
@@ -22,6 +22,7 @@ package com.mapr.synth.samplers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.mapr.synth.FastRandom;
 
 import java.io.IOException;
 import java.util.Random;
@@ -60,7 +61,7 @@ public class VectorSampler extends FieldSampler {
 
     private FieldSampler length = constant(10000);
 
-    private Random gen = new Random();
+    private Random gen = FastRandom.newRandom();
     private JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
     private Sampler sampler;
 
@@ -189,6 +190,6 @@ public class VectorSampler extends FieldSampler {
 
     @SuppressWarnings("unused")
     public void setSeed(int seed) {
-        gen = new Random(seed);
+        gen = FastRandom.newRandom(seed);
     }
 }
@@ -34,15 +34,17 @@ import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.io.LineProcessor;
 import com.google.common.io.Resources;
+import com.mapr.synth.FastRandom;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -86,21 +88,27 @@ public class VinSampler extends FieldSampler {
     private static Map<String, String> bmwPlants;
     private static List<String> bmwPlantCodes;
 
-    private static Map<String, Integer> letterCode;
-    private static List<String> letters;
+    // characters legal in a VIN and their values for the check digit, -1 if illegal
+    private static final char[] LETTERS = "ABCDEFGHJKLMNPRSTUVWXYZ0123456789".toCharArray();
+    private static final int[] LETTER_CODE = new int[128];
 
-    private static List<Integer> checkWeights = Lists.newArrayList(8, 7, 6, 5, 4, 3, 2, 10, 0, 9, 8, 7, 6, 5, 4, 3, 2);
+    private static final int[] CHECK_WEIGHTS = {8, 7, 6, 5, 4, 3, 2, 10, 0, 9, 8, 7, 6, 5, 4, 3, 2};
+    private static final char[] YEAR_CODES = "ABCDEFGHJKLMNPRSTVWXY123456789ABCDEFGHJK".toCharArray();
+
+    // first three characters of the VIN for each manufacturer code
+    private static Map<String, char[]> prefixes = Maps.newHashMap();
+    private static List<char[]> fordModelChars;
 
     static {
         fill();
     }
 
 
-    private Random rand = new Random();
+    private Random rand = FastRandom.newRandom();
     private List<String> legalCodes;
     private List<Integer> legalYears;
 
-    private AtomicInteger sequenceCounter = new AtomicInteger();
+    private AtomicLong sequenceCounter = new AtomicLong();
     private boolean verbose = false;
     private JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
 
@@ -112,28 +120,30 @@ public class VinSampler extends FieldSampler {
 
     @Override
     public JsonNode sample() {
-        ObjectNode r = new ObjectNode(nodeFactory);
+        ObjectNode r = verbose ? new ObjectNode(nodeFactory) : null;
 
         String manufacturer = randomCode(legalCodes);
-        String restraint = randomCode(restraintCodes);
+        char restraint = randomCode(restraintCodes).charAt(0);
 
         int year = randomCode(legalYears);
-        String yearCode = computeYearCode(year);
-        int sequence = sequenceCounter.incrementAndGet();
+        char yearCode = computeYearCode(year);
+        long sequence = sequenceCounter.incrementAndGet();
 
-        String front;
-        String plant;
+        char[] vin = new char[17];
+        System.arraycopy(prefixes.get(manufacturer), 0, vin, 0, 3);
+        vin[3] = restraint;
 
+        char plant;
         String make = makes.get(manufacturer);
-
         switch (make) {
             case "Ford": {
-                String model = randomCode(fordModelCodes);
+                int model = rand.nextInt(fordModelCodes.size());
                 String engine = randomCode(fordEngineCodes);
-                plant = randomCode(fordPlantCodes);
-                front = pad(manufacturer, 3, "AAAAAAAAAAAAAAAAAA") + restraint + pad(model, 3, "0000000000000000") + engine;
+                plant = randomCode(fordPlantCodes).charAt(0);
+                System.arraycopy(fordModelChars.get(model), 0, vin, 4, 3);
+                vin[7] = engine.charAt(0);
                 if (verbose) {
-                    r.set("model", new TextNode(fordModels.get(model)));
+                    r.set("model", new TextNode(fordModels.get(fordModelCodes.get(model))));
                     r.set("engine", new TextNode(fordEngines.get(engine)));
                 }
                 break;
@@ -141,67 +151,75 @@ public class VinSampler extends FieldSampler {
             case "BMW":
             case "BMW M": {
                 String model = randomCode(bmwModelCodes);
-                plant = randomCode(bmwPlantCodes);
-                front = pad(manufacturer, 3, "AAAAAAAAAAAAAAAAAA") + restraint + model;
+                String plantCode = randomCode(bmwPlantCodes);
+                plant = plantCode.charAt(0);
+                model.getChars(0, 4, vin, 4);
                 if (verbose) {
                     r.set("model", new TextNode(bmwModels.get(model)));
-                    r.set("plant", new TextNode(bmwPlants.get(plant)));
+                    r.set("plant", new TextNode(bmwPlants.get(plantCode)));
                 }
                 break;
             }
             default: {
-                String model = gibberish(4);
-                plant = gibberish(1);
-                front = pad(manufacturer, 3, "AAAAAAAAAAAAAAAAAA") + restraint + model;
+                for (int i = 4; i < 8; i++) {
+                    vin[i] = LETTERS[rand.nextInt(LETTERS.length)];
+                }
+                plant = LETTERS[rand.nextInt(LETTERS.length)];
                 break;
             }
         }
-        String check = "0";
-
-        String rawVin = front + check + yearCode + plant + String.format("%06d", sequence);
-        String vin = addCheckDigit(rawVin);
+        vin[9] = yearCode;
+        vin[10] = plant;
+        // only six digits are available for the sequence number, floorMod keeps them from going negative
+        sequence = Math.floorMod(sequence, 1_000_000L);
+        for (int i = 16; i > 10; i--) {
+            vin[i] = (char) ('0' + sequence % 10);
+            sequence /= 10;
+        }
+        vin[8] = checkDigit(vin);
 
         if (verbose) {
-            r.set("VIN", new TextNode(vin));
-            r.set("manufacturer", new TextNode(makes.get(manufacturer)));
+            r.set("VIN", new TextNode(new String(vin)));
+            r.set("manufacturer", new TextNode(make));
             r.set("year", new IntNode(year));
+            return r;
         } else {
-            return new TextNode(vin);
-        }
-        return r;
-    }
-
-    private String gibberish(int length) {
-        StringBuilder buf = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            buf.append(randomCode(letters));
+            return new TextNode(new String(vin));
         }
-        return buf.toString();
     }
 
-    private String computeYearCode(int year) {
+    private char computeYearCode(int year) {
         Preconditions.checkArgument(year >= 1980 && year <= 2020, "Invalid year %d", year);
-        year = year - 1980;
-        return "ABCDEFGHJKLMNPRSTVWXY123456789ABCDEFGHJK".substring(year, year + 1);
+        return YEAR_CODES[year - 1980];
     }
 
     // exposed for testing
     String addCheckDigit(String rawVin) {
+        Preconditions.checkArgument(rawVin.length() == 17, "VIN must have 17 characters: %s", rawVin);
+        char[] vin = rawVin.toCharArray();
+        vin[8] = checkDigit(vin);
+        return new String(vin);
+    }
+
+    /**
+     * Computes the check digit for a VIN. The character in the check position is ignored.
+     */
+    private static char checkDigit(char[] vin) {
         int sum = 0;
-        for (int i = 0; i < rawVin.length(); i++) {
-            Integer code = letterCode.get(rawVin.substring(i, i + 1));
-            if (code != null) {
-                sum += checkWeights.get(i) * code;
-            } else {
-                throw new IllegalArgumentException(String.format("Invalid character: %s in VIN: %s", rawVin.substring(i, i + 1), rawVin));
+        for (int i = 0; i < 17; i++) {
+            if (i == 8) {
+                // the check digit itself has zero weight
+                continue;
+            }
+            char c = vin[i];
+            int code = c < 128 ? LETTER_CODE[c] : -1;
+            if (code < 0) {
+                throw new IllegalArgumentException(String.format("Invalid character: %s in VIN: %s", c, new String(vin)));
             }
+            sum += CHECK_WEIGHTS[i] * code;
         }
         sum = sum % 11;
-        if (sum == 10) {
-            return rawVin.substring(0, 8) + "X" + rawVin.substring(9);
-        } else {
-            return rawVin.substring(0, 8) + sum + rawVin.substring(9);
-        }
+        return sum == 10 ? 'X' : (char) ('0' + sum);
     }
 
 
@@ -288,6 +306,18 @@ public class VinSampler extends FieldSampler {
         rand.setSeed(seed);
     }
 
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        rand = FastRandom.newRandom(seed);
+        // sequence numbers count rows, so they pick up where the earlier run left off
+        sequenceCounter.set(row);
+    }
+
     @SuppressWarnings("UnusedDeclaration")
     private void addYear(int year, List<String> years) {
         year = Math.max(year, 1980);
@@ -296,8 +326,8 @@ public class VinSampler extends FieldSampler {
         years.add("ABCDEFGHJKLMNPRSTVWXY123456789ABCDEFGHJK".substring(offset, offset + 1));
     }
 
-    private String pad(String s, int length, String padding) {
-        return (s + padding).substring(0, length);
+    private static char[] pad(String s, int length, String padding) {
+        return (s + padding).substring(0, length).toCharArray();
     }
 
     private static Map<String, String> mapResource(String name) throws IOException {
@@ -345,45 +375,11 @@ public class VinSampler extends FieldSampler {
     }
 
     private static void fill() {
-        letterCode = Maps.newLinkedHashMap();
-        letterCode.put("A", 1);
-        letterCode.put("B", 2);
-        letterCode.put("C", 3);
-        letterCode.put("D", 4);
-        letterCode.put("E", 5);
-        letterCode.put("F", 6);
-        letterCode.put("G", 7);
-        letterCode.put("H", 8);
-
-        letterCode.put("J", 1);
-        letterCode.put("K", 2);
-        letterCode.put("L", 3);
-        letterCode.put("M", 4);
-        letterCode.put("N", 5);
-
-        letterCode.put("P", 7);
-
-        letterCode.put("R", 9);
-        letterCode.put("S", 2);
-        letterCode.put("T", 3);
-        letterCode.put("U", 4);
-        letterCode.put("V", 5);
-        letterCode.put("W", 6);
-        letterCode.put("X", 7);
-        letterCode.put("Y", 8);
-        letterCode.put("Z", 9);
-
-        letterCode.put("0", 0);
-        letterCode.put("1", 1);
-        letterCode.put("2", 2);
-        letterCode.put("3", 3);
-        letterCode.put("4", 4);
-        letterCode.put("5", 5);
-        letterCode.put("6", 6);
-        letterCode.put("7", 7);
-        letterCode.put("8", 8);
-        letterCode.put("9", 9);
-        letters = Lists.newArrayList(letterCode.keySet());
+        Arrays.fill(LETTER_CODE, -1);
+        int[] values = {1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 7, 9, 2, 3, 4, 5, 6, 7, 8, 9, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        for (int i = 0; i < LETTERS.length; i++) {
+            LETTER_CODE[LETTERS[i]] = values[i];
+        }
 
         try {
             bmwModels = mapResource("bmw-models.tsv");
@@ -398,6 +394,13 @@ public class VinSampler extends FieldSampler {
             restraintCodes = Lists.newArrayList(restraint.keySet());
             byMake = multiMapResource("vin-by-make.tsv");
             makes = mapResource("vin-make.tsv");
+            for (String code : makes.keySet()) {
+                prefixes.put(code, pad(code, 3, "AAA"));
+            }
+            fordModelChars = Lists.newArrayList();
+            for (String model : fordModelCodes) {
+                fordModelChars.add(pad(model, 3, "000"));
+            }
             byCountry = multiMapResource("vin-by-country.tsv");
         } catch (IOException e) {
             throw new RuntimeException("Can't read resources");
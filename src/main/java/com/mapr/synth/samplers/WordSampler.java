@@ -34,6 +34,9 @@ public class WordSampler extends FieldSampler {
 
     @Override
     public JsonNode sample() {
+      // the term generator doesn't lock, but samplers can be shared between threads
+      synchronized (this) {
         return new TextNode(gen.sample());
+      }
     }
 }
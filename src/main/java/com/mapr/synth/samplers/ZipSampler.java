@@ -34,6 +34,7 @@ import com.google.common.io.Resources;
 import org.apache.mahout.common.RandomUtils;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -48,17 +49,32 @@ import java.util.stream.Collectors;
 public class ZipSampler extends FieldSampler {
     private JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
 
-    private Map<String, List<String>> values = Maps.newHashMap();
+    // the zip table is stored by column, values are shared so that records don't need new nodes
+    private String[] columnNames;
+    private TextNode[][] columns;
+    private int zipColumn;
+    private int latitudeColumn;
+    private int longitudeColumn;
+
     private Set<String> retainedFields = null;
+    // which columns appear in the output, in output order
+    private int[] projection;
     private Random rand = new Random();
     private int zipCount;
     private double latitudeFuzz = 0;
     private double longitudeFuzz = 0;
 
+    // parsed once so that location limits don't have to look at strings, NaN if missing
+    private double[] latitudes;
+    private double[] longitudes;
+
     private LocationBound limits = null;
+    // indexes of the zips that can satisfy the limits, computed lazily whenever the limits change
+    private volatile int[] candidates = null;
     private boolean verbose = true;
 
     public ZipSampler() {
+        Map<String, List<String>> values = Maps.newHashMap();
         try {
             List<String> names = null;
             //noinspection UnstableApiUsage
@@ -86,6 +102,45 @@ public class ZipSampler extends FieldSampler {
         } catch (IOException e) {
             throw new RuntimeException("Couldn't read built-in zip code data file", e);
         }
+
+        latitudes = parseLocations(values.get("latitude"));
+        longitudes = parseLocations(values.get("longitude"));
+
+        columnNames = values.keySet().toArray(new String[0]);
+        columns = new TextNode[columnNames.length][];
+        Map<String, TextNode> interned = Maps.newHashMap();
+        for (int j = 0; j < columnNames.length; j++) {
+            List<String> column = values.get(columnNames[j]);
+            columns[j] = new TextNode[zipCount];
+            for (int i = 0; i < zipCount; i++) {
+                columns[j][i] = interned.computeIfAbsent(column.get(i), TextNode::new);
+            }
+        }
+        zipColumn = columnIndex("zip");
+        latitudeColumn = columnIndex("latitude");
+        longitudeColumn = columnIndex("longitude");
+        projection = new int[columnNames.length];
+        for (int j = 0; j < projection.length; j++) {
+            projection[j] = j;
+        }
+    }
+
+    private int columnIndex(String name) {
+        for (int j = 0; j < columnNames.length; j++) {
+            if (columnNames[j].equals(name)) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private double[] parseLocations(List<String> column) {
+        double[] r = new double[zipCount];
+        for (int i = 0; i < zipCount; i++) {
+            String v = column == null ? "" : column.get(i);
+            r[i] = v == null || v.isEmpty() ? Double.NaN : Double.parseDouble(v);
+        }
+        return r;
     }
 
     @Override
@@ -94,20 +149,33 @@ public class ZipSampler extends FieldSampler {
         rand = RandomUtils.getRandom(seed);
     }
 
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void seek(long row, long seed) {
+        setSeed(seed);
+    }
+
     @SuppressWarnings("UnusedDeclaration")
     public void setLatitudeFuzz(double fuzz) {
         latitudeFuzz = fuzz;
+        candidates = null;
     }
 
     @SuppressWarnings("UnusedDeclaration")
     public void setLongitudeFuzz(double fuzz) {
         longitudeFuzz = fuzz;
+        candidates = null;
     }
 
     @SuppressWarnings("UnusedDeclaration")
     public void setOnlyContinental(boolean onlyContinental) {
         if (onlyContinental) {
             limits = new BoundingBox(22, 50, -130, -65);
+            candidates = null;
         }
     }
 
@@ -131,6 +199,7 @@ public class ZipSampler extends FieldSampler {
             Preconditions.checkArgument(limits instanceof BoundingBox);
             ((BoundingBox) limits).setLongitude(minLongitude, maxLongitude);
         }
+        candidates = null;
     }
 
     /**
@@ -153,6 +222,7 @@ public class ZipSampler extends FieldSampler {
             Preconditions.checkArgument(limits instanceof BoundingBox);
             ((BoundingBox) limits).setLatitude(minLatitude, maxLatitude);
         }
+        candidates = null;
     }
 
     /**
@@ -168,6 +238,7 @@ public class ZipSampler extends FieldSampler {
                         .trimResults().split(bounds)).stream()
                 .map(Double::parseDouble).collect(Collectors.toList());
         limits = new RadialBound(center.get(0), center.get(1), 10);
+        candidates = null;
     }
 
     /**
@@ -177,6 +248,7 @@ public class ZipSampler extends FieldSampler {
     public void setMilesFrom(double distance) {
         Preconditions.checkArgument(limits instanceof RadialBound);
         ((RadialBound) limits).setRadius(distance);
+        candidates = null;
     }
 
     /**
@@ -186,6 +258,7 @@ public class ZipSampler extends FieldSampler {
     public void setKmFrom(double distance) {
         Preconditions.checkArgument(limits instanceof RadialBound);
         ((RadialBound) limits).setRadius(distance * 0.621371);
+        candidates = null;
     }
 
     /**
@@ -195,9 +268,18 @@ public class ZipSampler extends FieldSampler {
     public void setFields(String fields) {
         Set<String> desiredFields = Sets.newHashSet(Splitter.on(Pattern.compile("[\\s,;]+")).split(fields));
         for (String field : desiredFields) {
-            Preconditions.checkArgument(values.containsKey(field), "Invalid field " + field);
+            Preconditions.checkArgument(columnIndex(field) >= 0, "Invalid field " + field);
         }
         retainedFields = desiredFields;
+
+        int[] r = new int[desiredFields.size()];
+        int k = 0;
+        for (int j = 0; j < columnNames.length; j++) {
+            if (desiredFields.contains(columnNames[j])) {
+                r[k++] = j;
+            }
+        }
+        projection = r;
     }
 
     @SuppressWarnings("UnusedDeclaration")
@@ -207,33 +289,82 @@ public class ZipSampler extends FieldSampler {
 
     @Override
     public JsonNode sample() {
+        int[] allowed = candidates();
         while (true) {
-            int i = rand.nextInt(zipCount);
-            ObjectNode r = new ObjectNode(nodeFactory);
-            for (String key : values.keySet()) {
-                r.set(key, new TextNode(values.get(key).get(i)));
+            int i = allowed == null ? rand.nextInt(zipCount) : allowed[rand.nextInt(allowed.length)];
+            double latitude = latitudes[i];
+            double longitude = longitudes[i];
+            boolean fuzzed = latitudeFuzz > 0 || longitudeFuzz > 0;
+            if (fuzzed) {
+                longitude += rand.nextDouble() * longitudeFuzz;
+                latitude += rand.nextDouble() * latitudeFuzz;
             }
 
-            if (latitudeFuzz > 0 || longitudeFuzz > 0) {
-                r.set("longitude", new TextNode(String.format("%.4f", r.get("longitude").asDouble() + rand.nextDouble() * longitudeFuzz)));
-                r.set("latitude", new TextNode(String.format("%.4f", r.get("latitude").asDouble() + rand.nextDouble() * latitudeFuzz)));
-            }
-
-            if (limits == null || limits.accept(r)) {
-                if (verbose) {
-                    if (retainedFields != null) {
-                        for (String key : values.keySet()) {
-                            if (!retainedFields.contains(key)) {
-                                r.remove(key);
-                            }
-                        }
+            // without fuzzing, every candidate is known to be good so this never rejects
+            if (limits == null || !fuzzed || limits.accept(latitude, longitude)) {
+                if (!verbose) {
+                    return columns[zipColumn][i];
+                }
+                ObjectNode r = new ObjectNode(nodeFactory);
+                for (int j : projection) {
+                    if (fuzzed && j == latitudeColumn && !Double.isNaN(latitude)) {
+                        r.set(columnNames[j], new TextNode(formatDegrees(latitude)));
+                    } else if (fuzzed && j == longitudeColumn && !Double.isNaN(longitude)) {
+                        r.set(columnNames[j], new TextNode(formatDegrees(longitude)));
+                    } else {
+                        r.set(columnNames[j], columns[j][i]);
                     }
-                    return r;
-                } else {
-                    return r.get("zip");
                 }
+                return r;
+            }
+        }
+    }
+
+    /**
+     * Formats with four decimal places like {@code String.format("%.4f", x)}, but much faster.
+     */
+    static String formatDegrees(double x) {
+        long scaled = Math.round(Math.abs(x) * 10000);
+        StringBuilder r = new StringBuilder(12);
+        if (x < 0) {
+            r.append('-');
+        }
+        r.append(scaled / 10000).append('.');
+        long fraction = scaled % 10000;
+        for (long k = 1000; k > fraction && k > 1; k /= 10) {
+            r.append('0');
+        }
+        r.append(fraction);
+        return r.toString();
+    }
+
+    /**
+     * Resolves the location limits into the list of zips that could possibly satisfy them. With
+     * fuzzing, a zip is a candidate if any point it could be fuzzed to is acceptable.
+     *
+     * @return The candidate indexes or null if there are no limits.
+     */
+    private int[] candidates() {
+        int[] r = candidates;
+        if (r == null && limits != null) {
+            // threads that race here compute identical arrays so there is no need to lock
+            r = findCandidates();
+            candidates = r;
+        }
+        return r;
+    }
+
+    private int[] findCandidates() {
+        int[] r = new int[zipCount];
+        int n = 0;
+        for (int i = 0; i < zipCount; i++) {
+            if (!Double.isNaN(latitudes[i]) && !Double.isNaN(longitudes[i])
+                    && limits.acceptAny(latitudes[i], latitudes[i] + latitudeFuzz, longitudes[i], longitudes[i] + longitudeFuzz)) {
+                r[n++] = i;
             }
         }
+        Preconditions.checkState(n > 0, "No zip codes satisfy the location limits");
+        return Arrays.copyOf(r, n);
     }
 
     @Override
@@ -242,7 +373,7 @@ public class ZipSampler extends FieldSampler {
             if (retainedFields != null) {
                 fields.addAll(retainedFields);
             } else {
-                fields.addAll(values.keySet());
+                fields.addAll(Arrays.asList(columnNames));
             }
         } else {
             fields.add(getName());
@@ -252,15 +383,18 @@ public class ZipSampler extends FieldSampler {
     private abstract class LocationBound {
         abstract boolean accept(double latitude, double longitude);
 
-        boolean accept(JsonNode location) {
-            String longitude = location.get("longitude").asText();
-            String latitude = location.get("latitude").asText();
-            //noinspection SimplifiableIfStatement
-            if (longitude == null || longitude.equals("") || latitude == null || latitude.equals("")) {
-                return false;
-            } else {
-                return accept(Double.parseDouble(latitude), Double.parseDouble(longitude));
-            }
+        abstract double centerLatitude();
+
+        abstract double centerLongitude();
+
+        /**
+         * Tests whether any point in a small box is acceptable by testing the point in the box
+         * nearest to the center of the bound.
+         */
+        boolean acceptAny(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+            return accept(
+                    Math.max(minLatitude, Math.min(maxLatitude, centerLatitude())),
+                    Math.max(minLongitude, Math.min(maxLongitude, centerLongitude())));
         }
     }
 
@@ -282,6 +416,16 @@ public class ZipSampler extends FieldSampler {
             return longitude >= minLongitude && longitude <= maxLongitude && latitude >= minLatitude && latitude <= maxLatitude;
         }
 
+        @Override
+        double centerLatitude() {
+            return (minLatitude + maxLatitude) / 2;
+        }
+
+        @Override
+        double centerLongitude() {
+            return (minLongitude + maxLongitude) / 2;
+        }
+
         @SuppressWarnings("WeakerAccess")
         public void setLongitude(double minLongitude, double maxLongitude) {
             this.minLongitude = minLongitude;
@@ -297,6 +441,8 @@ public class ZipSampler extends FieldSampler {
 
     private class RadialBound extends LocationBound {
         private static final double EARTH_RADIUS = 3959; // miles
+        private final double latitude;
+        private final double longitude;
         private final double x;
         private final double y;
         private final double z;
@@ -304,6 +450,8 @@ public class ZipSampler extends FieldSampler {
         private double radius;
 
         private RadialBound(double latitude, double longitude, double radius) {
+            this.latitude = latitude;
+            this.longitude = longitude;
             x = Math.cos(Math.toRadians(longitude)) * Math.cos(Math.toRadians(latitude));
             y = Math.sin(Math.toRadians(longitude)) * Math.cos(Math.toRadians(latitude));
             z = Math.sin(Math.toRadians(latitude));
@@ -321,6 +469,16 @@ public class ZipSampler extends FieldSampler {
             return distance <= radius;
         }
 
+        @Override
+        double centerLatitude() {
+            return latitude;
+        }
+
+        @Override
+        double centerLongitude() {
+            return longitude;
+        }
+
         public void setRadius(double radius) {
             this.radius = radius / EARTH_RADIUS;
             Preconditions.checkArgument(Math.toDegrees(this.radius) < 70, "Outrageously large radius");
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.anomaly;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.mapr.synth.IpAddress;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EventReaderTest {
+    private static final String[] ZONES = {"UTC", "America/New_York", "Asia/Kolkata", "Europe/Paris"};
+
+    @Test
+    public void testTime() throws ParseException {
+        Random rand = new Random(1);
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        for (int i = 0; i < 10000; i++) {
+            df.setTimeZone(TimeZone.getTimeZone(ZONES[i % ZONES.length]));
+            long t = (long) (rand.nextDouble() * 4e12);
+            String s = df.format(new Date(t));
+            byte[] bytes = s.getBytes(Charsets.UTF_8);
+            assertEquals(s, t, EventReader.parseTime(ByteBuffer.wrap(bytes), 0, bytes.length));
+            assertEquals(s, df.parse(s).getTime(), t);
+        }
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        File f = File.createTempFile("events", ".log");
+        try {
+            List<Event> events = writeEvents(f, 10000, 2);
+
+            // a tiny window makes lines regularly span the end of the mapped region
+            try (EventReader in = new EventReader(f, 0, f.length(), 4096)) {
+                for (Event expected : events) {
+                    Event actual = in.read();
+                    assertEquals(expected, actual);
+                }
+                assertNull(in.read());
+                assertEquals(events.size() / 100, in.getErrors());
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        File f = File.createTempFile("events", ".log");
+        try {
+            List<Event> events = writeEvents(f, 50000, 3);
+            ConcurrentLinkedQueue<Event> found = new ConcurrentLinkedQueue<>();
+            long errors = EventReader.readAll(f, 4, found::add);
+            assertEquals(events.size() / 100, errors);
+
+            List<Event> sorted = Lists.newArrayList(found);
+            Collections.sort(sorted);
+            Collections.sort(events);
+            assertEquals(events, sorted);
+
+            // more parts than lines
+            assertEquals(1, EventReader.split(writeTiny(f), 8).size());
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+    }
+
+    private File writeTiny(File f) throws IOException {
+        Files.write(f.toPath(), "[2013-10-27T22:09:14.968-04:00] /login?user=0000c200 56.165.68.30".getBytes(Charsets.UTF_8));
+        return f;
+    }
+
+    /**
+     * Writes random events with a bad line every so often, some DOS line endings and no newline
+     * at the very end.
+     */
+    private List<Event> writeEvents(File f, int n, int seed) throws IOException {
+        Random rand = new Random(seed);
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        String[] ops = {"login", "static/image-4", "home", "buy?item=3"};
+        List<Event> r = Lists.newArrayList();
+        try (BufferedWriter out = Files.newBufferedWriter(f.toPath(), Charsets.UTF_8)) {
+            for (int i = 0; i < n; i++) {
+                if (i % 100 == 50) {
+                    out.write("[2013-10-27T22:09:14.968-04:00] /login?usr=0000c200 56.165.68.30\n");
+                }
+                df.setTimeZone(TimeZone.getTimeZone(ZONES[rand.nextInt(ZONES.length)]));
+                long t = 1382920806122L + rand.nextInt(1000000000);
+                int uid = rand.nextInt(1 << 24);
+                int ip = rand.nextInt();
+                String op = ops[rand.nextInt(ops.length)];
+                out.write(String.format("[%s] /%s%suser=%08x %s", df.format(new Date(t)), op, op.contains("?") ? "&" : "?", uid, IpAddress.toString(ip)));
+                if (i < n - 1) {
+                    out.write(i % 7 == 0 ? "\r\n" : "\n");
+                }
+                r.add(new Event(uid, t, ip, op));
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.anomaly;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UserAnomalyDetectorTest {
+    @Test
+    public void testDetection() throws IOException {
+        File dir = Files.createTempDirectory("anomaly").toFile();
+        File userLog = new File(dir, "user.log");
+        File imageLog = new File(dir, "image.log");
+        try {
+            WebLogGenerator gen = new WebLogGenerator(2000, 0.01, "fraud", 1382918400000L, 3);
+            try (Writer user = Files.newBufferedWriter(userLog.toPath(), Charsets.UTF_8);
+                 Writer image = Files.newBufferedWriter(imageLog.toPath(), Charsets.UTF_8)) {
+                gen.generate(200000, user, image);
+            }
+            assertEquals(200000, Files.lines(userLog.toPath()).count());
+
+            int[] alerts = {0};
+            UserAnomalyDetector detector = new UserAnomalyDetector("fraud", 1.5,
+                    (uid, start, pages, blindPages, newAddress, score, flagged) -> {
+                        assertTrue(score > 1.5);
+                        assertTrue(blindPages <= pages);
+                        alerts[0]++;
+                    });
+            detector.run(userLog, imageLog);
+
+            assertEquals(detector.getAlerts(), alerts[0]);
+            assertTrue(detector.getFlaggedSessions() > 100);
+            double recall = (double) detector.getCaught() / detector.getFlaggedSessions();
+            double precision = (double) detector.getCaught() / detector.getAlerts();
+            assertTrue("recall = " + recall, recall > 0.9);
+            assertTrue("precision = " + precision, precision > 0.9);
+            assertTrue(detector.getRates().containsKey("login"));
+            assertTrue(detector.getRates().containsKey("buy"));
+        } finally {
+            assertTrue(userLog.delete());
+            assertTrue(imageLog.delete());
+            assertTrue(dir.delete());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.mapr.anomaly;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+public class WebLogGeneratorTest {
+    @Test
+    public void testFraudAddresses() throws IOException {
+        WebLogGenerator gen = new WebLogGenerator(1000, 0.2, "fraud", 1382918400000L, 5);
+        StringWriter user = new StringWriter();
+        gen.generate(100000, user, new StringWriter());
+
+        int logins = 0;
+        Set<String> addresses = Sets.newHashSet();
+        for (String line : user.toString().split("\n")) {
+            if (line.contains("/login?fraud=1")) {
+                logins++;
+                addresses.add(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        assertTrue(logins > 1000);
+        // fraudulent logins come from random addresses across the whole address space
+        assertTrue(String.format("%d addresses for %d logins", addresses.size(), logins), addresses.size() > 0.99 * logins);
+        assertTrue(addresses.stream().anyMatch(a -> Integer.parseInt(a.substring(0, a.indexOf('.'))) >= 128));
+    }
+}
@@ -75,6 +75,98 @@ public class UpperQuantileTest {
         Assert.assertEquals(data[950] * 0.8 + data[951] * 0.2, uq.quantile(0.9502), 0);
     }
 
+    @Test
+    public void testHeap() {
+        Random gen = RandomUtils.getRandom();
+        UpperQuantile q = new UpperQuantile(1000);
+        for (int i = 0; i < 100000; i++) {
+            q.add(gen.nextDouble());
+            if (i % 997 == 0) {
+                Assert.assertTrue(q.validate());
+            }
+        }
+        Assert.assertTrue(q.validate());
+        Assert.assertEquals(100000, q.size());
+
+        q.clear();
+        Assert.assertEquals(0, q.size());
+        for (int i = 0; i < 10; i++) {
+            q.add(i);
+        }
+        Assert.assertEquals(9, q.quantile(1), 0);
+        Assert.assertEquals(0, q.quantile(0), 0);
+        Assert.assertEquals(4.5, q.quantile(0.5), 0);
+    }
+
+    @Test
+    public void testMerge() throws InterruptedException {
+        UpperQuantile[] parts = new UpperQuantile[4];
+        Thread[] threads = new Thread[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new UpperQuantile(101);
+            UpperQuantile part = parts[i];
+            int offset = i;
+            threads[i] = new Thread(() -> {
+                // each thread sees every 4th value
+                for (int j = offset; j < data.length; j += parts.length) {
+                    part.add(data[j]);
+                }
+            });
+            threads[i].start();
+        }
+        UpperQuantile merged = new UpperQuantile(101);
+        for (int i = 0; i < parts.length; i++) {
+            threads[i].join();
+            merged.merge(parts[i]);
+        }
+        Assert.assertEquals(data.length, merged.size());
+        Assert.assertTrue(merged.validate());
+        for (double q : new double[]{0.9, 0.95, 0.9502, 0.99, 1}) {
+            Assert.assertEquals(uq.quantile(q), merged.quantile(q), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentSizes() {
+        // the smaller one may have dropped samples that the larger one needs
+        new UpperQuantile(101).merge(new UpperQuantile(10));
+    }
+
+    @Test
+    public void testDigest() throws InterruptedException {
+        Random gen = RandomUtils.getRandom();
+        UpperQuantile shared = new UpperQuantile(100, 100);
+        UpperQuantile local = new UpperQuantile(100, 100);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            long seed = gen.nextLong();
+            threads[i] = new Thread(() -> {
+                Random r = new Random(seed);
+                for (int j = 0; j < 25000; j++) {
+                    shared.add(r.nextDouble());
+                }
+            });
+            threads[i].start();
+        }
+        for (int j = 0; j < 100000; j++) {
+            local.add(gen.nextDouble());
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(100000, shared.size());
+
+        local.merge(shared);
+        Assert.assertEquals(200000, local.size());
+        // the middle comes from the digest, the top from the retained samples
+        Assert.assertEquals(0.5, local.quantile(0.5), 0.01);
+        Assert.assertEquals(0.1, local.quantile(0.1), 0.01);
+        Assert.assertEquals(0.9999, local.quantile(0.9999), 0.0002);
+
+        exception.expect(IllegalArgumentException.class);
+        local.merge(uq);
+    }
+
     @Test
     public void testSpeed() {
         long total = 0;
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncOutputStreamTest {
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testOrdering() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        // tiny blocks force lots of hand-offs
+        try (PrintStream out = new PrintStream(new AsyncOutputStream(actual, pool, 17, 2));
+             PrintStream ref = new PrintStream(expected)) {
+            for (int i = 0; i < 10000; i++) {
+                out.printf("line %d\n", i);
+                ref.printf("line %d\n", i);
+            }
+        }
+        assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFailure() {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk on fire");
+            }
+        };
+        try {
+            try (AsyncOutputStream out = new AsyncOutputStream(broken, pool, 10, 2)) {
+                for (int i = 0; i < 1000; i++) {
+                    out.write("0123456789".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            fail("Should have seen an exception");
+        } catch (IOException e) {
+            assertTrue(e.getCause().getMessage().contains("disk on fire"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testUncheckedFailure() {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) {
+                throw new IllegalStateException("sink went away");
+            }
+        };
+        try {
+            try (AsyncOutputStream out = new AsyncOutputStream(broken, pool, 10, 2)) {
+                for (int i = 0; i < 1000; i++) {
+                    out.write("0123456789".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            fail("Should have seen an exception");
+        } catch (IOException e) {
+            assertTrue(e.getCause().getMessage().contains("sink went away"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRejectedWrite() {
+        pool.shutdownNow();
+        try {
+            try (AsyncOutputStream out = new AsyncOutputStream(new ByteArrayOutputStream(), pool, 10, 2)) {
+                for (int i = 0; i < 1000; i++) {
+                    out.write("0123456789".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            fail("Should have seen an exception");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            Checkpoint c = Checkpoint.create(dir, 1000, 3, 42);
+            c.update(1, 300, 12345);
+            c.save();
+
+            Checkpoint d = Checkpoint.load(dir, 1000, 3);
+            assertEquals(0, d.getRows(0));
+            assertEquals(300, d.getRows(1));
+            assertEquals(12345, d.getBytes(1));
+            assertEquals(c.seedFor(1, 300), d.seedFor(1, 300));
+            assertTrue(c.seedFor(1, 300) != d.seedFor(2, 300));
+            assertTrue(c.seedFor(1, 300) != d.seedFor(1, 800));
+        } finally {
+            new File(dir, Checkpoint.FILE_NAME).delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testResumeBeforeFirstBlock() throws Exception {
+        File dir = Files.createTempDir();
+        String schema = Resources.getResource("schema001.json").getPath();
+        String[] args = {"-count", "1000", "-schema", schema, "-format", "CSV", "-output", dir.getPath()};
+        try {
+            Synth.main(args);
+            File[] outputs = dir.listFiles((d, name) -> name.startsWith("synth-"));
+            assertEquals(1, outputs.length);
+            File output = outputs[0];
+
+            // a partition that was stopped before its first block has only its header
+            Files.asCharSink(output, Charsets.UTF_8).write("id,size\n");
+            Checkpoint c = Checkpoint.create(dir, 1000, 1, 42);
+            c.update(0, 0, output.length());
+            c.save();
+
+            Synth.main(ObjectArrays.concat(args, "-resume"));
+
+            List<String> lines = Files.asCharSource(output, Charsets.UTF_8).readLines();
+            assertEquals(1001, lines.size());
+            assertEquals(1, lines.stream().filter(line -> line.equals("id,size")).count());
+            assertEquals("id,size", lines.get(0));
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatch() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            Checkpoint.create(dir, 1000, 3, 42).save();
+            Checkpoint.load(dir, 1000, 4);
+        } finally {
+            new File(dir, Checkpoint.FILE_NAME).delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.mapr.synth;
+
+import com.mapr.synth.distributions.ChineseRestaurant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class ChineseRestaurantTest {
+    @Test
+    public void testTreeAfterGrowth() {
+        for (double discount : new double[]{0, 0.5}) {
+            ChineseRestaurant cr = new ChineseRestaurant(100, discount);
+            cr.setSeed(1);
+            int lastSize = 0;
+            for (int i = 0; i < 20000; i++) {
+                cr.sample();
+                // check each time a new value is created, which includes every time the tree grows
+                if (cr.size() != lastSize) {
+                    lastSize = cr.size();
+                    assertTrue(String.format("discount = %.1f, size = %d", discount, lastSize), cr.validate());
+                }
+            }
+            assertTrue(lastSize > 256);
+        }
+    }
+
+    @Test
+    public void testSetCount() {
+        ChineseRestaurant cr = new ChineseRestaurant(10, 0.5);
+        cr.setCount(100, 3);
+        cr.setCount(5, 2);
+        assertTrue(cr.validate());
+        cr.setCount(100, 1);
+        assertTrue(cr.validate());
+    }
+}
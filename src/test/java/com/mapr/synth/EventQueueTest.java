@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventQueueTest {
+    @Test
+    public void testOrder() {
+        Random rand = new Random(1);
+        EventQueue q = new EventQueue(2);
+        for (int i = 0; i < 10000; i++) {
+            // lots of ties to check that they come out by entity
+            q.add(rand.nextInt(1000), i);
+        }
+        assertEquals(10000, q.size());
+
+        double lastTime = -1;
+        int lastEntity = -1;
+        while (!q.isEmpty()) {
+            double t = q.peekTime();
+            int e = q.poll();
+            assertTrue(t > lastTime || (t == lastTime && e > lastEntity));
+            lastTime = t;
+            lastEntity = e;
+        }
+    }
+
+    @Test
+    public void testSimulation() {
+        // each entity fires at a fixed interval, so the interleaved output must be in order
+        // and each entity must fire the right number of times
+        Random rand = new Random(2);
+        int n = 1000;
+        double[] interval = new double[n];
+        int[] counts = new int[n];
+        EventQueue q = new EventQueue();
+        for (int i = 0; i < n; i++) {
+            interval[i] = 1 + rand.nextDouble() * 10;
+            q.add(interval[i], i);
+        }
+        double last = 0;
+        while (q.peekTime() <= 1000) {
+            double t = q.peekTime();
+            int e = q.peek();
+            assertTrue(t >= last);
+            last = t;
+            counts[e]++;
+            q.replaceTop(t + interval[e], e);
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals((int) Math.floor(1000 / interval[i] + 1e-9), counts[i], 1);
+        }
+    }
+}
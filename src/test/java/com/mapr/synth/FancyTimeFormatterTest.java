@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class FancyTimeFormatterTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private static final String[] PATTERNS = {
+            "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd", "iso", "yy/M/d h:mm a", "EEE, d MMM yyyy HH:mm:ss Z",
+            "EEEE MMMM dd, yyyy kk:mm:ss.S", "yyyy-MM-dd'T'HH:mm:ssXXX", "D u K 'o''clock' X", "yyyyMMddHHmmssSSS",
+            "G yyyy"
+    };
+
+    @Test
+    public void testAgainstSimpleDateFormat() {
+        TimeZone old = TimeZone.getDefault();
+        try {
+            for (String zone : new String[]{"UTC", "America/Chicago", "Asia/Kolkata", "Australia/Lord_Howe"}) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                for (String pattern : PATTERNS) {
+                    FancyTimeFormatter f = new FancyTimeFormatter(pattern);
+                    SimpleDateFormat ref = new SimpleDateFormat("iso".equals(pattern) ? "yyyy-MM-dd'T'HH:mm:ss'Z'" : pattern);
+
+                    Random rand = new Random(1);
+                    // random times from 1600 to 2200, then a walk through the 2014 DST changes
+                    for (int i = 0; i < 20000; i++) {
+                        long t = (long) ((rand.nextDouble() * 600 - 370) * 365.25 * Util.ONE_DAY);
+                        assertEquals(pattern + " " + t, ref.format(new Date(t)), f.format(t));
+                    }
+                    long t = 1394000000000L;
+                    for (int i = 0; i < 20000; i++) {
+                        t += rand.nextInt(1800000);
+                        assertEquals(pattern + " " + t, ref.format(new Date(t)), f.format(t));
+                    }
+                }
+            }
+        } finally {
+            TimeZone.setDefault(old);
+        }
+    }
+
+    @Test
+    public void testEpoch() throws ParseException {
+        FancyTimeFormatter q = new FancyTimeFormatter("Q");
+        FancyTimeFormatter s = new FancyTimeFormatter("s");
+        assertEquals("1394000000123", q.format(1394000000123L));
+        assertEquals("1394000000", s.format(1394000000123L));
+        assertEquals(1394000000000L, s.parse("1394000000").getTime());
+        assertEquals("x=1394000000", s.format(1394000000123L, new StringBuilder("x=")).toString());
+    }
+
+    @Test
+    public void testSpeed() {
+        FancyTimeFormatter f = new FancyTimeFormatter("yyyy-MM-dd HH:mm:ss");
+        SimpleDateFormat ref = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        int n = 1000000;
+        long t0 = 1394000000000L;
+
+        long length = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            length += ref.format(new Date(t0 + i * 317L)).length();
+        }
+        long simple = System.nanoTime() - start;
+
+        StringBuilder buf = new StringBuilder();
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            buf.setLength(0);
+            length -= f.format(t0 + i * 317L, buf).length();
+        }
+        long fancy = System.nanoTime() - start;
+        assertEquals(0, length);
+        log.info("SimpleDateFormat {} ns/format, FancyTimeFormatter {} ns/format", simple / n, fancy / n);
+    }
+}
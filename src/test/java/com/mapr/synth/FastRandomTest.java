@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import org.apache.mahout.math.stats.OnlineSummarizer;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FastRandomTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    @Test
+    public void testRepeatable() {
+        Random r1 = new FastRandom(1);
+        Random r2 = new FastRandom(1);
+        Random r3 = new FastRandom(2);
+        int same = 0;
+        for (int i = 0; i < 1000; i++) {
+            long x = r1.nextLong();
+            assertEquals(x, r2.nextLong());
+            if (x == r3.nextLong()) {
+                same++;
+            }
+        }
+        assertEquals(0, same);
+
+        r1.setSeed(1);
+        r2 = new FastRandom(1);
+        assertEquals(r2.nextLong(), r1.nextLong());
+    }
+
+    @Test
+    public void testDistributions() {
+        FastRandom rand = new FastRandom(3);
+        int[] counts = new int[10];
+        OnlineSummarizer uniform = new OnlineSummarizer();
+        OnlineSummarizer normal = new OnlineSummarizer();
+        int n = 1000000;
+        for (int i = 0; i < n; i++) {
+            counts[rand.nextInt(10)]++;
+            double u = rand.nextDouble();
+            assertTrue(u >= 0 && u < 1);
+            uniform.add(u);
+            normal.add(rand.nextGaussian());
+        }
+        for (int count : counts) {
+            assertEquals(n / 10.0, count, 5 * Math.sqrt(n * 0.1 * 0.9));
+        }
+        assertEquals(0.5, uniform.getMean(), 0.002);
+        assertEquals(Math.sqrt(1.0 / 12), uniform.getSD(), 0.002);
+        assertEquals(0, normal.getMean(), 0.005);
+        assertEquals(1, normal.getSD(), 0.005);
+    }
+
+    @Test
+    public void testSplit() {
+        FastRandom parent = new FastRandom(5);
+        FastRandom child1 = parent.split();
+        FastRandom child2 = parent.split();
+        double sum = 0;
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            sum += (child1.nextDouble() - 0.5) * (child2.nextDouble() - 0.5);
+        }
+        // correlation should be about zero
+        assertEquals(0, sum / n * 12, 0.02);
+    }
+
+    @Test
+    public void testSpeed() {
+        int n = 20000000;
+        double javaTime = time(new Random(1), n);
+        double fastTime = time(new FastRandom(1), n);
+        // warm up done, now for real
+        javaTime = Math.min(javaTime, time(new Random(1), n));
+        fastTime = Math.min(fastTime, time(new FastRandom(1), n));
+        // typically FastRandom is several times faster, but timing depends too much on the machine to assert
+        log.debug("java.util.Random {} ns/draw, FastRandom {} ns/draw", javaTime / n * 1e9, fastTime / n * 1e9);
+    }
+
+    private double time(Random rand, int n) {
+        long t0 = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += rand.nextDouble();
+        }
+        long t1 = System.nanoTime();
+        assertTrue(sum > 0);
+        return (t1 - t0) * 1e-9;
+    }
+}
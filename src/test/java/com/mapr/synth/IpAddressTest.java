@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.mapr.synth.distributions.IpAddressDistribution;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IpAddressTest {
+    @Test
+    public void testV4() throws UnknownHostException {
+        Random rand = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            int ip = rand.nextInt();
+            InetAddress reference = InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(ip).array());
+            String text = IpAddress.toString(ip);
+            assertEquals(reference.getHostAddress(), text);
+            assertEquals(ip, IpAddress.parseV4(text));
+            assertEquals(ip, IpAddress.parseV4("x" + text + " y", 1, text.length() + 1));
+
+            IpAddress x = new IpAddress(ip);
+            assertTrue(x.isV4());
+            assertEquals(ip, x.getV4());
+            assertEquals(text, x.toString());
+        }
+    }
+
+    @Test
+    public void testV6() throws UnknownHostException {
+        Random rand = new Random(2);
+        for (int i = 0; i < 100000; i++) {
+            long high = rand.nextLong();
+            long low = rand.nextLong();
+            if (i % 3 == 0) {
+                // lots of zeros
+                high &= 0xffff_0000_0000_0000L;
+            }
+            byte[] bytes = ByteBuffer.allocate(16).putLong(high).putLong(low).array();
+            InetAddress reference = InetAddress.getByAddress(bytes);
+
+            IpAddress x = new IpAddress(high, low);
+            assertFalse(x.isV4());
+            assertEquals(reference.getHostAddress(), x.toString());
+            StringBuilder hex = new StringBuilder();
+            x.appendHex(hex);
+            assertEquals(String.format("%016x%016x", high, low), hex.toString());
+        }
+    }
+
+    @Test
+    public void testBadV4() {
+        for (String s : new String[]{"", "1.2.3", "1.2.3.4.5", "1.2.3.256", "1..2.3", "1.2.3.", "a.b.c.d", "1.2.3.4x", "1234.2.3.4"}) {
+            try {
+                IpAddress.parseV4(s);
+                fail("Should have rejected " + s);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDistribution() {
+        IpAddressDistribution d = new IpAddressDistribution();
+        d.setSeed(1);
+        IpAddress ip = new IpAddress();
+        int v4 = 0;
+        for (int i = 0; i < 10000; i++) {
+            d.sample(ip);
+            if (ip.isV4()) {
+                v4++;
+                assertEquals(4, ip.toString().split("\\.").length);
+            } else {
+                assertEquals(8, ip.toString().split(":").length);
+            }
+        }
+        assertEquals(3000, v4, 200);
+    }
+}
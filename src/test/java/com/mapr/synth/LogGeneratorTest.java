@@ -39,7 +39,7 @@ public class LogGeneratorTest {
         Multiset<Long> cookieCounter = HashMultiset.create();
         for (int i = 0; i < 100000; i++) {
             LogLine sample = gen.sample();
-            ipCounter.add(sample.getIp().toString());
+            ipCounter.add(IpAddress.toString(sample.getIp()));
             wordCounter.addAll(sample.getQuery());
             cookieCounter.add(sample.getCookie());
         }
@@ -65,6 +65,36 @@ public class LogGeneratorTest {
         assertEquals(5.0, ratio, 4.1);
     }
 
+    @Test
+    public void testManyUsers() {
+        LogGenerator gen = new LogGenerator(1000000);
+        assertEquals(1000000, gen.getUsers().size());
+        double t = 0;
+        for (int i = 0; i < 100000; i++) {
+            LogLine sample = gen.sample();
+            assertTrue(sample.getT() >= t);
+            t = sample.getT();
+        }
+        // with a million users visiting once a day, there is a lot of activity every second
+        assertTrue(String.format("Sample took too long, %.0f s", t), t < 10000);
+    }
+
+    @Test
+    public void testPartition() {
+        List<LogGenerator> parts = LogGenerator.partition(2, 2);
+        assertEquals(2, parts.size());
+        for (LogGenerator part : parts) {
+            assertEquals(1, part.getUsers().size());
+            part.sample();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartitionTooMany() {
+        // some generators would have no users at all
+        LogGenerator.partition(2, 4);
+    }
+
     private static <T> List<Integer> count(Multiset<T> counter) {
         return counter.elementSet().stream()
                 .map(counter::count).sorted(Ordering.natural().reversed())
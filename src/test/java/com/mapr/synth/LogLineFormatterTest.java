@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogLineFormatterTest {
+    @Test
+    public void testNumbers() {
+        Random rand = new Random(1);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            double t = rand.nextDouble() * Math.pow(10, rand.nextInt(10));
+            out.setLength(0);
+            LogLineFormatter.appendFixed(out, t, 3);
+            assertEquals(String.format("%.3f", t), out.toString());
+
+            out.setLength(0);
+            LogLineFormatter.appendFixed(out, t, 1);
+            assertEquals(String.format("%.1f", t), out.toString());
+
+            long cookie = i % 2 == 0 ? rand.nextLong() : rand.nextInt(1 << rand.nextInt(31));
+            out.setLength(0);
+            LogLineFormatter.appendHex(out, cookie);
+            assertEquals(String.format("%08x", cookie), out.toString());
+        }
+    }
+
+    @Test
+    public void testFormats() throws IOException {
+        int ip = IpAddress.parseV4("10.200.3.4");
+        LogLine line = new LogLine(1234.5678, ip, 0xabcdL, Arrays.asList("big", "say \"what\""), new Random(1));
+
+        StringWriter csv = new StringWriter();
+        LogLineFormatter f = LogLineFormatter.create(csv, Main.Format.CSV, false);
+        //noinspection ConstantConditions
+        f.write(line);
+        f.getLog().flush();
+        assertEquals("1234.568,0000abcd,10.200.3.4,\"big say \"what\"\"\n", csv.toString());
+
+        StringWriter json = new StringWriter();
+        f = LogLineFormatter.create(json, Main.Format.JSON, true);
+        //noinspection ConstantConditions
+        f.write(line);
+        f.getLog().flush();
+        JsonNode x = new ObjectMapper().readTree(json.toString());
+        assertEquals(1234.568, x.get("t").asDouble(), 0);
+        assertEquals("0000abcd", x.get("cookie").asText());
+        assertEquals("10.200.3.4", x.get("ip").asText());
+        assertEquals("say \"what\"", x.get("query").get(1).asText());
+        assertEquals(line.getResponseTime() * 1000, x.get("responseTime").asDouble(), 0.05);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MainTest {
+    @Test
+    public void testMerged() throws IOException, InterruptedException {
+        File dir = Files.createTempDir();
+        File log = new File(dir, "log");
+        File users = new File(dir, "users");
+        Main.main(new String[]{"-count", "20K", "-users", "1000", "-threads", "3", log.getPath(), users.getPath()});
+
+        List<String> lines = Files.readLines(log, Charsets.UTF_8);
+        assertEquals(20000, lines.size());
+        checkOrder(lines);
+        assertEquals(1000, Files.readLines(users, Charsets.UTF_8).size());
+        delete(dir);
+    }
+
+    @Test
+    public void testShards() throws IOException, InterruptedException {
+        File dir = Files.createTempDir();
+        File log = new File(dir, "log");
+        File users = new File(dir, "users");
+        Main.main(new String[]{"-count", "10001", "-users", "1000", "-threads", "2", "-shards", log.getPath(), users.getPath()});
+
+        int total = 0;
+        for (int i = 0; i < 2; i++) {
+            List<String> lines = Files.readLines(new File(dir, String.format("log-%04d", i)), Charsets.UTF_8);
+            checkOrder(lines);
+            total += lines.size();
+        }
+        assertEquals(10001, total);
+        delete(dir);
+    }
+
+    private void delete(File dir) {
+        //noinspection ConstantConditions
+        for (File f : dir.listFiles()) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    private void checkOrder(List<String> lines) {
+        double t = 0;
+        for (String line : lines) {
+            double t1 = Double.parseDouble(line.substring(0, line.indexOf(',')));
+            assertTrue(t1 >= t);
+            t = t1;
+        }
+    }
+}
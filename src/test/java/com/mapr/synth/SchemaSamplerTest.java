@@ -22,6 +22,8 @@ package com.mapr.synth;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Charsets;
 import com.google.common.collect.*;
@@ -37,11 +39,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
@@ -65,9 +65,8 @@ public class SchemaSamplerTest {
         generators.put(SchemaSampler.FLAT_SEQUENCE_MARKER, mapper.readTree("[{a: 1, b: 2}, {a: 2, b: 3}]"));
         generators.put("foo", mapper.readTree("[{foo_a: 1, foo_b: 2}, {foo_a: 2, foo_b: 3}, {foo_a: 3, foo_b: 4}]"));
 
-        Queue<JsonNode> r = new ArrayDeque<>();
-        SchemaSampler.crossProduct(r, (ObjectNode) mapper.readTree("{base_a: 23}"),
-                Lists.newArrayList(generators.keySet()), generators, 0);
+        List<JsonNode> r = Lists.newArrayList(SchemaSampler.crossProduct((ObjectNode) mapper.readTree("{base_a: 23}"),
+                Lists.newArrayList(generators.keySet()), generators));
         assertEquals(6, r.size());
         Multiset<String> counts = HashMultiset.create();
         for (JsonNode node : r) {
@@ -86,6 +85,41 @@ public class SchemaSamplerTest {
         assertEquals(1, counts.count("a=1, nest_a=2"));
     }
 
+    @Test
+    public void testLargeCross() {
+        // a product this size is generated one record at a time rather than all at once
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        TreeMap<String, JsonNode> generators = new TreeMap<>();
+        ArrayNode x = factory.arrayNode();
+        ArrayNode y = factory.arrayNode();
+        for (int i = 0; i < 1000; i++) {
+            x.add(i);
+            y.add(-i);
+        }
+        generators.put("x", x);
+        generators.put("y", y);
+        generators.put("z", factory.arrayNode().add("z"));
+
+        ObjectNode base = factory.objectNode();
+        base.put("base", 1);
+        Iterator<JsonNode> i = SchemaSampler.crossProduct(base, Lists.newArrayList(generators.keySet()), generators);
+        int n = 0;
+        while (i.hasNext()) {
+            JsonNode r = i.next();
+            // last field varies fastest
+            assertEquals(n / 1000, r.get("x").asInt());
+            assertEquals(-(n % 1000), r.get("y").asInt());
+            assertEquals("z", r.get("z").asText());
+            assertEquals(1, r.get("base").asInt());
+            n++;
+        }
+        assertEquals(1000000, n);
+
+        // an empty array means no records at all
+        generators.put("z", factory.arrayNode());
+        assertFalse(SchemaSampler.crossProduct(base, Lists.newArrayList(generators.keySet()), generators).hasNext());
+    }
+
     @Test
     public void testFieldNames() throws IOException {
         SchemaSampler s = SchemaSampler.fromResource("schema044.json");
@@ -110,6 +144,68 @@ public class SchemaSamplerTest {
         assertEquals(99 - 10, counts.elementSet().size());
     }
 
+    @Test
+    public void testSampleAt() throws IOException {
+        SchemaSampler s = SchemaSampler.fromResource("schema045.json");
+        assertTrue(s.canSeek());
+        s.setSeed(17);
+
+        List<JsonNode> forward = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            forward.add(s.sampleAt(i));
+        }
+        // any order gives the same rows
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(forward.get(i), s.sampleAt(i));
+        }
+        // and the id is positioned correctly, even far out
+        assertEquals(142, s.sampleAt(42).get("id").asInt());
+        assertEquals(100 + 7_000_000, s.sampleAt(7_000_000).get("id").asInt());
+
+        // a differently seeded schema gives different data
+        SchemaSampler other = SchemaSampler.fromResource("schema045.json");
+        other.setSeed(18);
+        assertTrue(!forward.get(3).get("tag").equals(other.sampleAt(3).get("tag")));
+
+        // random walks can't jump ahead
+        assertFalse(SchemaSampler.fromResource("schema015.json").canSeek());
+    }
+
+    @Test
+    public void testSampleAtStatelessSamplers() throws IOException {
+        SchemaSampler s = SchemaSampler.fromResource("schema050.json");
+        assertTrue(s.canSeek());
+        s.setSeed(17);
+
+        List<JsonNode> forward = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            forward.add(s.sampleAt(i));
+        }
+        for (int i = 49; i >= 0; i--) {
+            assertEquals(forward.get(i), s.sampleAt(i));
+        }
+        assertEquals(142, s.sampleAt(42).get("id").asInt());
+    }
+
+    @Test
+    public void testSeekPartial() throws IOException {
+        SchemaSampler s = SchemaSampler.fromResource("schema015.json");
+        assertFalse(s.canSeek());
+        s.setSeed(17);
+
+        // the id still seeks even though the random walks can't
+        s.seek(1000);
+        assertEquals(1000, s.sample().get("id").asInt());
+        assertEquals(1001, s.sample().get("id").asInt());
+
+        try {
+            s.sampleAt(3);
+            fail("Random walks can't support sampleAt");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(e.getMessage().contains("v1"));
+        }
+    }
+
     @Test
     public void testString() throws IOException {
         SchemaSampler s = SchemaSampler.fromResource("schema002.json");
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.mapr.synth;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SynthTest {
+    @Test
+    public void testMoreFilesThanCores() throws Exception {
+        File dir = Files.createTempDir();
+        String schema = Resources.getResource("schema001.json").getPath();
+        // generator threads are limited to the number of cores so they have to take turns on the files
+        int files = 2 * Runtime.getRuntime().availableProcessors() + 3;
+        int count = 20000;
+        try {
+            Synth.main(new String[]{"-count", Integer.toString(count), "-schema", schema, "-format", "CSV",
+                    "-threads", Integer.toString(files), "-io-threads", "2", "-output", dir.getPath()});
+
+            File[] outputs = dir.listFiles((d, name) -> name.startsWith("synth-"));
+            assertEquals(files, outputs.length);
+            int total = 0;
+            for (File output : outputs) {
+                List<String> lines = Files.asCharSource(output, Charsets.UTF_8).readLines();
+                assertEquals("id,size", lines.get(0));
+                // the blocks for each file are generated in order even if different threads do them
+                for (int i = 1; i < lines.size(); i++) {
+                    assertEquals(i - 1, Integer.parseInt(lines.get(i).split(",")[0]));
+                }
+                total += lines.size() - 1;
+            }
+            assertEquals(count, total);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -72,6 +72,33 @@ public class TermGeneratorTest {
         assertTrue(counts.count("the") > 300);
     }
 
+    @Test
+    public void threadsShareWords() throws InterruptedException {
+        // each thread has its own term generator, but they all use the same words
+        int n = 4;
+        List<Multiset<String>> counts = Lists.newArrayList();
+        Thread[] threads = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            Multiset<String> c = HashMultiset.create();
+            counts.add(c);
+            TermGenerator x = new TermGenerator(WORDS, 1, 0.8);
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 50000; j++) {
+                    c.add(x.sample());
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Multiset<String> c : counts) {
+            assertEquals(50000, c.size());
+            assertEquals(0.035, (double) c.count("the") / c.size(), 0.005);
+            assertTrue(c.elementSet().size() > 4000);
+        }
+    }
+
     @Test
     public void speciesCounts() {
         final boolean transpose = false;
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeMergerTest {
+    private final JsonNodeFactory factory = JsonNodeFactory.instance;
+
+    @Test
+    public void testInMemory() throws IOException {
+        checkMerge(100000, null);
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            checkMerge(1000, dir);
+            // spill files are cleaned up
+            //noinspection ConstantConditions
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSimplePath() throws IOException {
+        TimeMerger merger = new TimeMerger("t", 10, null);
+        for (int i = 0; i < 100; i++) {
+            ObjectNode row = factory.objectNode();
+            row.put("t", (i * 37) % 100);
+            row.put("i", i);
+            merger.add(row);
+        }
+        List<JsonNode> events = Lists.newArrayList();
+        merger.finish(events::add);
+        assertEquals(100, events.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, events.get(i).get("t").asInt());
+        }
+    }
+
+    private void checkMerge(int lookahead, File dir) throws IOException {
+        Random rand = new Random(1);
+        TimeMerger merger = new TimeMerger("user.transactions.timestamp", lookahead, dir);
+        int total = 0;
+        for (int i = 0; i < 1000; i++) {
+            ObjectNode row = factory.objectNode();
+            row.put("id", i);
+            ObjectNode user = row.putObject("user");
+            user.put("name", "u" + i);
+            ArrayNode transactions = user.putArray("transactions");
+            long t = rand.nextInt(100000);
+            int n = rand.nextInt(20);
+            for (int j = 0; j < n; j++) {
+                t += rand.nextInt(1000);
+                ObjectNode x = transactions.addObject();
+                x.put("timestamp", t);
+                x.put("amount", j);
+            }
+            total += n;
+            merger.add(row);
+        }
+
+        List<JsonNode> events = Lists.newArrayList();
+        merger.finish(events::add);
+        assertEquals(total, events.size());
+        long last = 0;
+        for (JsonNode event : events) {
+            JsonNode transaction = event.get("user").get("transactions");
+            assertTrue(transaction.isObject());
+            long t = transaction.get("timestamp").asLong();
+            assertTrue(t >= last);
+            last = t;
+            assertEquals("u" + event.get("id").asInt(), event.get("user").get("name").asText());
+        }
+    }
+}
@@ -19,9 +19,15 @@
 
 package com.mapr.synth;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
 import com.mapr.synth.distributions.WordGenerator;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -39,4 +45,18 @@ public class WordGeneratorTest {
         }
     }
 
+    @Test
+    public void sharedVocabulary() throws IOException {
+        WordGenerator words = new WordGenerator("word-frequency-seed", "other-words");
+        WordGenerator more = new WordGenerator(null, "/other-words");
+        assertEquals(0, more.size());
+
+        List<String> lines = Resources.readLines(Resources.getResource("other-words"), Charsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(lines.get(i), words.getString(words.size() + i));
+            assertEquals(lines.get(i), more.getString(i));
+        }
+        assertEquals("w-" + lines.size(), more.getString(lines.size()));
+    }
+
 }
@@ -120,6 +120,56 @@ public class CommuterTest {
         }
     }
 
+    @Test
+    public void testStreaming() throws IOException {
+        // two weeks of driving per vehicle comes out one data point at a time
+        SchemaSampler s = SchemaSampler.fromResource("schema047.json");
+        int vehicles = 0;
+        int points = 0;
+        String oldVehicle = "";
+        String oldTrip = "";
+        double oldT = 0;
+        while (vehicles < 3) {
+            JsonNode r = s.sample();
+            verifyFields(r.get("sample"), Lists.newArrayList("home", "work", "t", "start", "timestamp", "type", "distance_km", "duration", "latitude", "longitude", "mph", "rpm", "throttle"));
+            String vehicle = r.get("vehicle").asText();
+            if (!vehicle.equals(oldVehicle)) {
+                vehicles++;
+                oldVehicle = vehicle;
+                oldTrip = "";
+            }
+            String trip = r.get("sample").get("start").asText();
+            double t = r.get("sample").get("t").asDouble();
+            if (trip.equals(oldTrip)) {
+                // points within a trip are in time order
+                assertTrue(t > oldT);
+            }
+            oldTrip = trip;
+            oldT = t;
+            points++;
+        }
+        assertTrue(String.format("Only saw %d points", points), points > 10000);
+    }
+
+    @Test
+    public void testGridRoutes() throws IOException {
+        SchemaSampler s = SchemaSampler.fromResource("schema049.json");
+        int points = 0;
+        String vehicle = null;
+        while (true) {
+            JsonNode r = s.sample();
+            if (vehicle == null) {
+                vehicle = r.get("vehicle").asText();
+            } else if (!vehicle.equals(r.get("vehicle").asText())) {
+                break;
+            }
+            JsonNode sample = r.get("sample");
+            assertTrue(sample.get("mph").asDouble() < 80);
+            points++;
+        }
+        assertTrue(String.format("Only saw %d points", points), points > 1000);
+    }
+
     private void verifyFields(JsonNode jsonNode, Collection<String> expectedFields) {
         TreeSet<String> c = Sets.newTreeSet(Lists.newArrayList(jsonNode.fieldNames()));
         assertEquals(String.format("Expected fields %s but got %s", expectedFields.toString(), c.toString()),
@@ -21,11 +21,13 @@ package com.mapr.synth.drive;
 
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.util.List;
 import java.util.Random;
 
@@ -128,4 +130,36 @@ public class DriveTest {
     static Vector3D project(Vector3D east, Vector3D north, Vector3D step) {
         return new Vector3D(step.dotProduct(east) * Constants.EARTH_RADIUS_KM, step.dotProduct(north) * Constants.EARTH_RADIUS_KM, 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNoAllocation() {
+        // driving shouldn't allocate anything per step once the trip is planned
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        Random rand = new Random(5);
+        GeoPoint home = new GeoPoint(0.65, -2.13);
+        Car car = new Car();
+        long steps = 0;
+        long allocated = 0;
+        for (int i = 0; i < 40; i++) {
+            GeoPoint end = home.nearby(20, rand);
+            car.getEngine().setTime(0);
+            Car.Drive drive = car.startTrip(rand, 0, home, end);
+            long before = mx.getThreadAllocatedBytes(thread);
+            int n = 0;
+            while (drive.step()) {
+                n++;
+            }
+            if (i >= 20) {
+                // the first trips let the JIT compiler warm up
+                allocated += mx.getThreadAllocatedBytes(thread) - before;
+                steps += n;
+            }
+        }
+        System.out.printf("%d bytes allocated in %d steps\n", allocated, steps);
+        assertTrue(steps > 10000);
+        assertTrue(allocated < steps / 100);
+    }
+}
@@ -19,11 +19,13 @@
 
 package com.mapr.synth.drive;
 
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -136,4 +138,77 @@ public class EngineTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAdaptiveAccuracy() {
+        // adaptive steps should track fixed steps closely on a realistic driving profile
+        double[] speeds = drivingProfile(new Random(1), 3600);
+        Engine fixed = new Engine();
+        fixed.setTolerance(0);
+        Engine adaptive = new Engine();
+
+        double maxSpeedError = 0;
+        double maxRpmError = 0;
+        for (int i = 0; i < speeds.length; i++) {
+            double brake = speeds[i] == 0 ? 0.2 : 0.1;
+            fixed.stepToTime(i, speeds[i], brake);
+            adaptive.stepToTime(i, speeds[i], brake);
+            maxSpeedError = Math.max(maxSpeedError, Math.abs(fixed.getSpeed() - adaptive.getSpeed()));
+            maxRpmError = Math.max(maxRpmError, Math.abs(fixed.getRpm() - adaptive.getRpm()));
+        }
+        double distanceError = Math.abs(fixed.getDistance() - adaptive.getDistance()) / fixed.getDistance();
+        System.out.printf("max speed error = %.3f m/s, max rpm error = %.1f, distance error = %.4f%%\n",
+                maxSpeedError, maxRpmError, 100 * distanceError);
+        assertEquals(0, maxSpeedError, 0.5);
+        assertEquals(0, distanceError, 0.005);
+    }
+
+    @Test
+    @Ignore("Benchmark, timings depend too much on the machine to assert on")
+    public void testAdaptiveSpeed() {
+        double[] speeds = drivingProfile(new Random(2), 3600);
+        for (int k = 0; k < 3; k++) {
+            double t0 = System.nanoTime();
+            for (int j = 0; j < 10; j++) {
+                Engine fixed = new Engine();
+                fixed.setTolerance(0);
+                for (int i = 0; i < speeds.length; i++) {
+                    fixed.stepToTime(i, speeds[i], 0.1);
+                }
+            }
+            double t1 = System.nanoTime();
+            for (int j = 0; j < 10; j++) {
+                Engine adaptive = new Engine();
+                for (int i = 0; i < speeds.length; i++) {
+                    adaptive.stepToTime(i, speeds[i], 0.1);
+                }
+            }
+            double t2 = System.nanoTime();
+            System.out.printf("fixed = %.1f ms, adaptive = %.1f ms per simulated hour\n", (t1 - t0) / 10e6, (t2 - t1) / 10e6);
+        }
+    }
+
+    /**
+     * Speed targets for each second in the same style that {@link Car} uses, with a mix of
+     * cruising at various speeds, creeping back and forth around a target and stopping.
+     */
+    private double[] drivingProfile(Random rand, int n) {
+        double[] r = new double[n];
+        double target = 0;
+        double speed = 0;
+        for (int i = 0; i < n; i++) {
+            if (rand.nextDouble() < 0.01) {
+                target = rand.nextDouble() < 0.2 ? 0 : (20 + rand.nextInt(12) * 5) * MPH_TO_M_S;
+            }
+            if (rand.nextDouble() < 0.5) {
+                // sometimes hold steady
+                speed = Math.abs(speed - target) < 1 ? target : speed + Math.signum(target - speed);
+            } else {
+                speed += speed < target ? 0.98 : -0.98;
+                speed = Math.max(0, speed);
+            }
+            r[i] = speed;
+        }
+        return r;
+    }
+}
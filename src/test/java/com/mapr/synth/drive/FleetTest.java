@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth.drive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Maps;
+import com.mapr.synth.FastRandom;
+import com.mapr.synth.samplers.SchemaSampler;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FleetTest {
+    private static final GeoPoint HOME = new GeoPoint(Math.toRadians(37.4), Math.toRadians(-122.1));
+
+    @Test
+    public void testSameAsCar() {
+        // enough cars that they get stepped in parallel
+        int n = 300;
+        Random rand = new Random(1);
+        long[] seeds = new long[n];
+        GeoPoint[] destinations = new GeoPoint[n];
+        for (int i = 0; i < n; i++) {
+            seeds[i] = rand.nextLong();
+            destinations[i] = HOME.nearby(10, rand);
+        }
+
+        Fleet fleet = new Fleet(n, 1);
+        TripLog[] logs = new TripLog[n];
+        for (int i = 0; i < n; i++) {
+            logs[i] = new TripLog();
+            fleet.startTrip(i, FastRandom.newRandom(seeds[i]), 1000, HOME, destinations[i], logs[i]);
+        }
+        boolean driving = true;
+        while (driving) {
+            fleet.step();
+            driving = false;
+            for (int i = 0; i < n; i++) {
+                driving |= fleet.isDriving(i);
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            Car car = new Car();
+            car.getEngine().setTime(1000);
+            Car.Drive drive = car.startTrip(FastRandom.newRandom(seeds[i]), 1000, HOME, destinations[i]);
+            int k = 0;
+            while (drive.step()) {
+                assertEquals(drive.getTime(), logs[i].time(k), 0);
+                assertEquals(drive.getEngine().getRpm(), logs[i].rpm(k), 0);
+                assertEquals(180 / Math.PI * Math.asin(drive.getPosition().as3D().getZ()), logs[i].latitude(k), 0);
+                k++;
+            }
+            assertEquals(k, logs[i].size());
+            assertEquals(drive.getTime(), fleet.getTime(i), 0);
+        }
+    }
+
+    @Test
+    public void testFleetCommuters() throws IOException {
+        SchemaSampler s = SchemaSampler.fromResource("schema048.json");
+        Map<Integer, Double> lastTime = Maps.newHashMap();
+        Map<Integer, String> lastTrip = Maps.newHashMap();
+        int points = 0;
+        JsonNode r = s.sample();
+        while (r.get("fleet").asInt() == 0) {
+            JsonNode sample = r.get("sample");
+            int vehicle = sample.get("vehicle").asInt();
+            assertTrue(vehicle >= 0 && vehicle < 50);
+            String trip = sample.get("start").asText();
+            double t = sample.get("t").asDouble();
+            if (trip.equals(lastTrip.get(vehicle))) {
+                assertTrue(t > lastTime.get(vehicle));
+            }
+            lastTrip.put(vehicle, trip);
+            lastTime.put(vehicle, t);
+            points++;
+            r = s.sample();
+        }
+        assertEquals(50, lastTrip.size());
+        assertTrue(points > 50 * 1000);
+        // the next fleet starts over with the first vehicle
+        assertEquals(1, r.get("fleet").asInt());
+    }
+
+    @Test
+    public void testSpeed() {
+        int n = 500;
+        Random rand = new Random(2);
+        GeoPoint[] destinations = new GeoPoint[n];
+        for (int i = 0; i < n; i++) {
+            destinations[i] = HOME.nearby(20, rand);
+        }
+
+        for (int k = 0; k < 2; k++) {
+            double t0 = System.nanoTime();
+            int samples1 = 0;
+            TripLog log1 = new TripLog();
+            for (int i = 0; i < n; i++) {
+                Car car = new Car();
+                car.getEngine().setTime(0);
+                Car.Drive drive = car.startTrip(FastRandom.newRandom(i), 0, HOME, destinations[i]);
+                log1.clear();
+                while (drive.step()) {
+                    Engine engine = drive.getEngine();
+                    Vector3D r = drive.getPosition().as3D();
+                    log1.add(drive.getTime(), r.getX(), r.getY(), r.getZ(), engine.getSpeed(), engine.getRpm(), engine.getThrottle());
+                }
+                samples1 += log1.size();
+            }
+            double t1 = System.nanoTime();
+
+            Fleet fleet = new Fleet(n, 1);
+            TripLog[] logs = new TripLog[n];
+            for (int i = 0; i < n; i++) {
+                logs[i] = new TripLog();
+                fleet.startTrip(i, FastRandom.newRandom(i), 0, HOME, destinations[i], logs[i]);
+            }
+            boolean driving = true;
+            while (driving) {
+                fleet.step();
+                driving = false;
+                for (int i = 0; i < n; i++) {
+                    driving |= fleet.isDriving(i);
+                }
+            }
+            double t2 = System.nanoTime();
+            int samples2 = 0;
+            for (TripLog log : logs) {
+                samples2 += log.size();
+            }
+            assertEquals(samples1, samples2);
+            System.out.printf("%d samples, cars = %.0f ms, fleet = %.0f ms\n", samples1, (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+        }
+    }
+}
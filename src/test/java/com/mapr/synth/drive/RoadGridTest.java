@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Ted Dunning under one or more contributor license
+ * agreements.  See the NOTICE file that may be
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Ted Dunning licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.mapr.synth.drive;
+
+import com.mapr.synth.FastRandom;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RoadGridTest {
+    private static final GeoPoint HOME = new GeoPoint(Math.toRadians(37.4), Math.toRadians(-122.1));
+
+    @Test
+    public void testArrival() {
+        Random rand = new Random(1);
+        RoadGrid grid = new RoadGrid(1, 10);
+        for (int i = 0; i < 20; i++) {
+            GeoPoint end = HOME.nearby(20, rand);
+            List<Car.Segment> plan = grid.plan(HOME, end, rand);
+
+            Car car = new Car();
+            Car.Drive drive = car.startTrip(FastRandom.newRandom(i), 0, HOME, plan);
+            //noinspection StatementWithEmptyBody
+            while (drive.step()) {
+            }
+            assertEquals(0, drive.getPosition().distance(end), 0.1);
+
+            // long trips should use the highways
+            if (HOME.distance(end) > 30) {
+                boolean highway = false;
+                for (Car.Segment segment : plan) {
+                    highway |= segment instanceof Car.Highway;
+                }
+                assertTrue(highway);
+            }
+        }
+    }
+
+    @Test
+    public void testMemory() {
+        Random rand = new Random(2);
+        RoadGrid grid = new RoadGrid(1, 10);
+        GeoPoint end = HOME.nearby(15, rand);
+        List<Car.Segment> first = grid.plan(HOME, end, rand);
+        assertEquals(1, grid.cacheSize());
+
+        // nearby points use the same intersections and so get the same route
+        GeoPoint start = HOME.nearby(0.05, rand);
+        List<Car.Segment> second = grid.plan(start, end, rand);
+        assertEquals(1, grid.cacheSize());
+        assertEquals(first.size(), second.size());
+        for (int i = 1; i < first.size() - 1; i++) {
+            assertSame(first.get(i), second.get(i));
+        }
+
+        grid.plan(end, HOME, rand);
+        assertEquals(2, grid.cacheSize());
+    }
+
+    @Test
+    public void testTurns() {
+        // every segment of a grid route follows one road so consecutive segments turn
+        Random rand = new Random(3);
+        RoadGrid grid = new RoadGrid(0.5, 10);
+        GeoPoint end = HOME.nearby(10, rand);
+        List<Car.Segment> plan = grid.plan(HOME, end, rand);
+        GeoPoint here = plan.get(0).getEnd();
+        GeoPoint direction = null;
+        for (Car.Segment segment : plan.subList(1, plan.size() - 1)) {
+            GeoPoint next = segment.getEnd();
+            GeoPoint d = new GeoPoint(new Vector3D(next.x - here.x, next.y - here.y, next.z - here.z));
+            if (direction != null) {
+                assertEquals(0, direction.dot(d), 0.01);
+            }
+            direction = d;
+            here = next;
+        }
+    }
+}
@@ -20,10 +20,12 @@
 package com.mapr.synth.samplers;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Sets;
 import com.mapr.synth.Util;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Set;
 
 import static org.junit.Assert.assertTrue;
 
@@ -38,13 +40,27 @@ public class BurstyEventsTest {
             double t = x.get("timestamp_ms").asDouble();
             counts[(int) (24 * Util.fractionalPart(t / Util.ONE_DAY))]++;
         }
+        // sunrise for a single user varies so we find the busiest 5 hour stretch and call that the day
+        int sunrise = 0;
+        int best = 0;
         for (int i = 0; i < 24; i++) {
+            int sum = 0;
+            for (int j = 0; j < 5; j++) {
+                sum += counts[(i + j) % 24];
+            }
+            if (sum > best) {
+                best = sum;
+                sunrise = i;
+            }
+        }
+        for (int k = 0; k < 24; k++) {
+            int i = (k + sunrise) % 24;
 //            System.out.printf("%5d,%5d ", i, counts[i]);
-            if (i >= 1 && i < 19) {
+            if (k >= 6 && k < 23) {
 //                System.out.print("N\n");
                 assertTrue("Too much activity in the night", counts[i] < 100);
             } else //noinspection StatementWithEmptyBody
-                if ((i == 0) || (i == 19)) {
+                if ((k == 5) || (k == 23)) {
 //                System.out.print("E\n");
                 // don't care
             } else {
@@ -53,4 +69,28 @@ public class BurstyEventsTest {
             }
         }
     }
+
+    @Test
+    public void population() throws IOException {
+        SchemaSampler s = SchemaSampler.fromResource("schema046.json");
+
+        Set<Integer> users = Sets.newHashSet();
+        Set<String> hosts = Sets.newHashSet();
+        long lastBurst = 0;
+        long lastQuery = 0;
+        for (int i = 0; i < 20000; i++) {
+            JsonNode x = s.sample();
+            long t = x.get("b").get("timestamp_ms").asLong();
+            assertTrue("Actions out of order", t >= lastBurst);
+            lastBurst = t;
+            users.add(x.get("b").get("user").asInt());
+
+            t = x.get("dns").get("timestamp_ms").asLong();
+            assertTrue("Queries out of order", t >= lastQuery);
+            lastQuery = t;
+            hosts.add(x.get("dns").get("ip").asText());
+        }
+        assertTrue(users.size() > 500);
+        assertTrue(hosts.size() > 100);
+    }
 }
@@ -54,8 +54,8 @@ public class NormalSamplerTest {
     public void seed() throws Exception {
         SchemaSampler s = SchemaSampler.fromResource("schema040.json");
         JsonNode record = s.sample();
-        assertEquals(-0.8853660817212665, record.get("x").asDouble(), 1e-9);
-        assertEquals(2.484814790861627, record.get("y").asDouble(), 1e-6);
+        assertEquals(1.5883207729094841, record.get("x").asDouble(), 1e-9);
+        assertEquals(1.9135773208628628, record.get("y").asDouble(), 1e-6);
     }
 
     private void update(double[] s, double x) {
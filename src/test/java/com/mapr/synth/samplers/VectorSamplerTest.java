@@ -93,7 +93,7 @@ public class VectorSamplerTest {
     */
             v = data.get("clipped");
             assertTrue(v.isArray());
-            Random rand = new Random();
+            Random rand = new Random(i);
             for (int j = 0; j < 10000; j++) {
                 v1[j] = v.get(j).asDouble();
                 assertTrue(v1[j] <= 0);
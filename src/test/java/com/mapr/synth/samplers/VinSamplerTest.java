@@ -86,6 +86,18 @@ public class VinSamplerTest {
     }
 
 
+    @Test
+    public void testSeekFarAhead() {
+        VinSampler vs = new VinSampler();
+        // well past the range of an int
+        for (long row : new long[]{7_000_000_000L, (1L << 31) + 5, (1L << 32) - 1}) {
+            vs.seek(row, 42);
+            String vin = vs.sample().asText();
+            assertEquals(String.format("%06d", (row + 1) % 1_000_000), vin.substring(11));
+            assertEquals(vin, vs.addCheckDigit(vin));
+        }
+    }
+
     @Test
     public void testCheckDigit() {
         // test cases from http://introcs.cs.princeton.edu/java/31datatype/VIN.java.html
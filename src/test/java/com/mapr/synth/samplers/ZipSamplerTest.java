@@ -29,6 +29,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -125,6 +126,17 @@ public class ZipSamplerTest {
 
     }
 
+    @Test
+    public void testFormatDegrees() {
+        Random rand = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            double x = (rand.nextDouble() - 0.5) * 360;
+            assertEquals(String.format("%.4f", x), ZipSampler.formatDegrees(x));
+        }
+        assertEquals("-0.0000", ZipSampler.formatDegrees(-0.00001));
+        assertEquals("40.0005", ZipSampler.formatDegrees(40.0005));
+    }
+
     private boolean isContinental(double x, double y) {
         return y >= 22 && y <= 50 && x >= -130 && x <= -65;
     }